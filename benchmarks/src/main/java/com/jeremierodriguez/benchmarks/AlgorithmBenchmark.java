@@ -0,0 +1,64 @@
+package com.jeremierodriguez.benchmarks;
+
+import com.jeremierodriguez.services.Algs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures every {@code Algs} value on in-memory data, updated chunk by chunk with the buffer
+ * sizes {@code IoStrategy} uses, so that the cost of the digest alone is known.
+ *
+ * @author Jeremie Rodriguez
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class AlgorithmBenchmark {
+
+    @Param
+    public Algs algo;
+
+    @Param({"1024", "102400", "2048000"})
+    public int chunkSize;
+
+    @Param
+    public InputSize size;
+
+    private byte[] data = null;
+    private MessageDigest digest = null;
+
+    @Setup(Level.Trial)
+    public void setUp() throws GeneralSecurityException {
+        data = BenchmarkData.randomBytes(size.getBytes());
+        digest = algo.newDigest();
+    }
+
+    @Benchmark
+    public byte[] digest() {
+
+        for (int offset = 0; offset < data.length; offset += chunkSize) {
+            digest.update(data, offset, Math.min(chunkSize, data.length - offset));
+        }
+
+        return digest.digest();
+    }
+
+}
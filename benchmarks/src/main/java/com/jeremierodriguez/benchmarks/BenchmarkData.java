@@ -0,0 +1,90 @@
+package com.jeremierodriguez.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+
+/**
+ * Class with static methods creating the data hashed by benchmarks, always the same for a given
+ * length so that runs can be compared.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class BenchmarkData {
+
+    private static final long SEED = 20170101L;
+    private static final int BLOCK_SIZE = 1048576;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Creates an array of pseudo-random bytes, a block of 1 Mb being repeated as needed.
+     *
+     * @param length number of bytes
+     * @return array of given length, holding the same bytes as a file of that length
+     */
+    public static byte[] randomBytes(int length) {
+
+        byte[] block = randomBlock(length);
+        byte[] bytes = new byte[length];
+
+        for (int offset = 0; offset < length; offset += block.length) {
+            System.arraycopy(block, 0, bytes, offset, Math.min(block.length, length - offset));
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Creates a file of the same bytes as {@link #randomBytes(int)}, in given directory if it exists and in the temporary
+     * directory otherwise. Pass {@code /dev/shm} to benchmark files on tmpfs, which takes the disk
+     * out of the measure.
+     *
+     * @param directory directory to create the file in
+     * @param length    number of bytes
+     * @return path of the file, to be deleted once done
+     * @throws IOException if the file could not be written
+     */
+    public static Path createFile(String directory, int length) throws IOException {
+
+        Path folder = Paths.get(directory);
+        if (!Files.isDirectory(folder)) {
+            folder = Paths.get(System.getProperty("java.io.tmpdir"));
+        }
+
+        Path file = Files.createTempFile(folder, "cs-check-bench-", ".bin");
+        ByteBuffer block = ByteBuffer.wrap(randomBlock(length));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+
+            long position = 0;
+
+            while (position < length) {
+                block.clear();
+                block.limit((int) Math.min(block.capacity(), length - position));
+
+                while (block.hasRemaining()) {
+                    position += channel.write(block, position);
+                }
+            }
+        }
+
+        return file;
+    }
+
+    private static byte[] randomBlock(int length) {
+
+        byte[] block = new byte[Math.min(length, BLOCK_SIZE)];
+        new Random(SEED).nextBytes(block);
+
+        return block;
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.jeremierodriguez.benchmarks;
+
+import org.openjdk.jmh.Main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Runs the benchmarks like JMH's own launcher, except that results are also written as JSON to
+ * {@code jmh-result.json} unless another result format is asked for, so that they can be compared
+ * from one release to the next.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class BenchmarkMain {
+
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        List<String> arguments = new ArrayList<>();
+
+        if (!Arrays.asList(args).contains("-rf")) {
+            arguments.add("-rf");
+            arguments.add("json");
+        }
+        arguments.addAll(Arrays.asList(args));
+
+        Main.main(arguments.toArray(new String[0]));
+    }
+
+}
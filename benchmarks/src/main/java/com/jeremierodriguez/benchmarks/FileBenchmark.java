@@ -0,0 +1,90 @@
+package com.jeremierodriguez.benchmarks;
+
+import com.jeremierodriguez.services.Algs;
+import com.jeremierodriguez.services.ChannelReader;
+import com.jeremierodriguez.services.IoStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures hashing a file with every {@code Algs} value, {@code IoStrategy}, buffer size and
+ * pipelining mode, the file being on tmpfs by default. Buffer sizes include the ones the
+ * strategies use, so that their tiers can be checked against the alternatives; for
+ * {@code MAPPED} the buffer size is the size of the mapped windows.
+ * <p>
+ * This is the whole matrix, narrow it down with {@code -p}, for instance
+ * {@code -p algo=SHA256 -p size=HUGE}.
+ *
+ * @author Jeremie Rodriguez
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class FileBenchmark {
+
+    @Param
+    public Algs algo;
+
+    @Param
+    public IoStrategy strategy;
+
+    @Param({"1024", "65536", "102400", "1048576", "2048000", "67108864"})
+    public int bufferSize;
+
+    @Param({"false", "true"})
+    public boolean pipelined;
+
+    @Param
+    public InputSize size;
+
+    @Param({"/dev/shm"})
+    public String directory;
+
+    private Path file = null;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = BenchmarkData.createFile(directory, size.getBytes());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public byte[] hash() throws IOException, GeneralSecurityException {
+
+        MessageDigest digest = algo.newDigest();
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            ChannelReader.read(channel, channel.size(), strategy, bufferSize, pipelined, digest::update, () -> false);
+        }
+
+        return digest.digest();
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.jeremierodriguez.benchmarks;
+
+
+/**
+ * Enumeration regrouping the input sizes every suite is run with. They fall on either side of the
+ * {@code IoStrategy} thresholds: tiny and medium inputs are read with heap and direct buffers,
+ * huge ones are mapped.
+ *
+ * @author Jeremie Rodriguez
+ */
+public enum InputSize {
+
+    // 64 bytes
+    TINY(64),
+
+    // 16 Mb
+    MEDIUM(16777216),
+
+    // 640 Mb
+    HUGE(671088640);
+
+    private final int bytes;
+
+    InputSize(int bytes) {
+        this.bytes = bytes;
+    }
+
+    public int getBytes() {
+        return bytes;
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.jeremierodriguez.benchmarks;
+
+import com.jeremierodriguez.services.Algs;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares the BouncyCastle provider with the JDK's own on the algorithms both implement, which
+ * tells which one {@code Algs} should pick.
+ *
+ * @author Jeremie Rodriguez
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ProviderBenchmark {
+
+    /**
+     * Provider a digest comes from.
+     */
+    public enum DigestProvider {
+        JDK, BC
+    }
+
+    @Param({"MD2", "MD5", "SHA1", "SHA224", "SHA256", "SHA384", "SHA512"})
+    public Algs algo;
+
+    @Param
+    public DigestProvider provider;
+
+    @Param
+    public InputSize size;
+
+    private byte[] data = null;
+    private MessageDigest digest = null;
+
+    @Setup(Level.Trial)
+    public void setUp() throws NoSuchAlgorithmException {
+
+        data = BenchmarkData.randomBytes(size.getBytes());
+
+        // The provider is not registered, as the application does not register it either
+        digest = provider == DigestProvider.JDK
+            ? MessageDigest.getInstance(jcaName(algo))
+            : MessageDigest.getInstance(jcaName(algo), new BouncyCastleProvider());
+    }
+
+    @Benchmark
+    public byte[] digest() {
+        digest.update(data);
+        return digest.digest();
+    }
+
+    private static String jcaName(Algs algo) {
+        return algo.name().startsWith("SHA") ? "SHA-" + algo.name().substring(3) : algo.name();
+    }
+
+}
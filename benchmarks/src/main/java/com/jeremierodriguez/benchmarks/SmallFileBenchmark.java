@@ -0,0 +1,102 @@
+package com.jeremierodriguez.benchmarks;
+
+import com.jeremierodriguez.services.Algs;
+import com.jeremierodriguez.services.FileHasher;
+import com.jeremierodriguez.services.HashListener;
+import com.jeremierodriguez.services.SmallFileHasher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures how many small files per second are hashed one at a time by {@code FileHasher}, the
+ * core of {@code HashTask}, and by {@code SmallFileHasher}, which command-line hashing uses for
+ * files up to its maximum length. Files are on tmpfs by default, so that the cost per file rather
+ * than the disk is measured.
+ *
+ * @author Jeremie Rodriguez
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@OperationsPerInvocation(SmallFileBenchmark.FILES)
+public class SmallFileBenchmark {
+
+    static final int FILES = 1000;
+
+    /**
+     * Way a file is hashed.
+     */
+    public enum Engine {
+        FILE_HASHER, SMALL_FILE_HASHER
+    }
+
+    @Param({"MD5", "SHA1", "SHA256"})
+    public Algs algo;
+
+    @Param
+    public Engine engine;
+
+    @Param({"512", "4096", "32768"})
+    public int fileSize;
+
+    @Param({"/dev/shm"})
+    public String directory;
+
+    private Path[] files = null;
+    private List<Algs> algos = null;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+
+        files = new Path[FILES];
+        algos = Collections.singletonList(algo);
+
+        for (int i = 0; i < FILES; i++) {
+            files[i] = BenchmarkData.createFile(directory, fileSize);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Benchmark
+    public void hash(Blackhole blackhole) throws IOException, GeneralSecurityException {
+
+        for (Path file : files) {
+            blackhole.consume(engine == Engine.FILE_HASHER
+                ? new FileHasher(file.toFile(), algos).hash(HashListener.NONE).getHashes()
+                : SmallFileHasher.hash(file, algos, HashListener.NONE));
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.jeremierodriguez.benchmarks;
+
+import com.jeremierodriguez.services.Algs;
+import com.jeremierodriguez.services.FileHasher;
+import com.jeremierodriguez.services.HashListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares hashing the same bytes from a heap array, from a direct buffer and from a file on
+ * tmpfs read by {@code FileHasher} the way the application does, which tells what reading costs
+ * on top of digesting.
+ *
+ * @author Jeremie Rodriguez
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SourceBenchmark {
+
+    /**
+     * Where hashed bytes come from.
+     */
+    public enum Source {
+        HEAP, DIRECT, TMPFS
+    }
+
+    @Param({"MD5", "SHA256", "BLAKE3", "CRC32C", "XXH3"})
+    public Algs algo;
+
+    @Param
+    public Source source;
+
+    @Param
+    public InputSize size;
+
+    @Param({"/dev/shm"})
+    public String directory;
+
+    private byte[] data = null;
+    private ByteBuffer direct = null;
+    private Path file = null;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+
+        switch (source) {
+            case HEAP:
+                data = BenchmarkData.randomBytes(size.getBytes());
+                break;
+
+            case DIRECT:
+                direct = ByteBuffer.allocateDirect(size.getBytes());
+                direct.put(BenchmarkData.randomBytes(size.getBytes()));
+                direct.flip();
+                break;
+
+            default:
+                file = BenchmarkData.createFile(directory, size.getBytes());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Benchmark
+    public byte[] hash() throws IOException, GeneralSecurityException {
+
+        if (source == Source.TMPFS) {
+            Map<Algs, byte[]> hashes = new FileHasher(file.toFile(), Collections.singletonList(algo))
+                .hash(HashListener.NONE).getHashes();
+            return hashes.get(algo);
+        }
+
+        MessageDigest digest = algo.newDigest();
+
+        if (source == Source.HEAP) {
+            digest.update(data);
+        } else {
+            digest.update(direct.duplicate());
+        }
+
+        return digest.digest();
+    }
+
+}
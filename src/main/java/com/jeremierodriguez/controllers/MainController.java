@@ -1,6 +1,8 @@
 package com.jeremierodriguez.controllers;
 
-import javafx.application.Platform;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.concurrent.WorkerStateEvent;
 import javafx.scene.control.*;
@@ -11,16 +13,26 @@ import javafx.scene.input.TransferMode;
 import javafx.scene.layout.GridPane;
 import javafx.scene.paint.Paint;
 import javafx.stage.FileChooser;
+import javafx.util.Duration;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import com.jeremierodriguez.services.Algs;
+import com.jeremierodriguez.services.DigestProviders;
+import com.jeremierodriguez.services.HashJob;
 import com.jeremierodriguez.services.HashTask;
+import com.jeremierodriguez.services.JobQueue;
+import com.jeremierodriguez.util.AppFolder;
+import com.jeremierodriguez.util.DaemonThreadFactory;
 import com.jeremierodriguez.util.FolderUtil;
 import com.jeremierodriguez.views.MainScene;
 
 import java.io.File;
 import java.text.DecimalFormat;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 /**
@@ -31,7 +43,7 @@ import java.text.DecimalFormat;
 public class MainController {
 
     private static final Logger LOGGER = LogManager.getLogger(MainController.class);
-    private static final String APPFOLDER = "/CSCheck";
+    private static final String APPFOLDER = AppFolder.NAME;
     private static final String FX_BLACK = "-fx-text-fill: black";
     private static final String FX_GREEN = "-fx-text-fill: #228b22";
     private static final String FX_RED = "-fx-text-fill: #db1e26";
@@ -41,6 +53,9 @@ public class MainController {
     private static final String FX_ACC_RED = "-fx-accent: #db1e26";
     private static final String COLOR_RED = "#db1e26";
     private static final String COLOR_GREEN = "#228b22";
+
+    // Job table and counts are updated at this period, whatever the number of jobs and chunks
+    private static final double REFRESH_MILLIS = 200;
     private boolean logDateAdded = false;
     private MainScene mainScene = null;
     private FileChooser chooser = null;
@@ -49,7 +64,7 @@ public class MainController {
     private Button processBtn = null;
     private Button cancelBtn = null;
     private Button folderBtn = null;
-    private ComboBox<Algs> comboBox = null;
+    private MenuButton algoMenu = null;
     private TextField hashField = null;
     private TextField fileField = null;
     private TextField genHashField = null;
@@ -58,7 +73,11 @@ public class MainController {
     private Label statusLabel = null;
     private Label bytesLabel = null;
     private Label genHashLabel = null;
+    private TableView<HashJob> jobTable = null;
+    private Label jobsLabel = null;
     private HashTask task = null;
+    private JobQueue jobQueue = new JobQueue();
+    private ExecutorService taskExecutor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("HashTask Thread"));
     private File file = null;
     private boolean threadFinished = true;
     private ReadOnlyStringWrapper previousFile = new ReadOnlyStringWrapper();
@@ -79,7 +98,7 @@ public class MainController {
         processBtn = mainScene.getProcessBtn();
         cancelBtn = mainScene.getCancelBtn();
         folderBtn = mainScene.getFolderBtn();
-        comboBox = mainScene.getComboBox();
+        algoMenu = mainScene.getAlgoMenu();
         hashField = mainScene.getHashField();
         fileField = mainScene.getFileField();
         genHashField = mainScene.getGenHashField();
@@ -87,6 +106,17 @@ public class MainController {
         bytesLabel = mainScene.getBytesLabel();
         genHashLabel = mainScene.getGenHashLabel();
         matchLabel = mainScene.getMatchLabel();
+        jobTable = mainScene.getJobTable();
+        jobsLabel = mainScene.getJobsLabel();
+    }
+
+    /**
+     * Calibrates digest providers in the background, and logs which one each algorithm uses. Runs
+     * on a thread of its own so that the first hash never waits for algorithms it does not use.
+     */
+    public void logProviders() {
+        new DaemonThreadFactory("Calibration Thread").newThread(() -> DigestProviders.describeAll()
+            .forEach(line -> LOGGER.log(Level.INFO, "Digest provider of {}", line))).start();
     }
 
     /**
@@ -121,6 +151,19 @@ public class MainController {
 
         folderBtn.setOnAction(e -> FolderUtil.openOrCreateAppFolder(APPFOLDER));
 
+        // Registered once, as the bar is bound to each new task's progress
+        progBar.progressProperty().addListener((observable, oldValue, newValue) -> {
+
+            if (newValue.doubleValue() < 0) {
+                progIndic.setText("Starting...");
+            } else if (newValue.doubleValue() < 1) {
+                progBar.setStyle(FX_ACC_BLUE);
+                progIndic.setText(decForm.format(newValue.doubleValue() * 100) + "%");
+            } else if (newValue.doubleValue() >= 1) {
+                progIndic.setText("Done");
+            }
+        });
+
         hashField.textProperty().addListener(e -> {
             hashField.setStyle(FX_BLACK);
             matchLabel.setVisible(false);
@@ -137,13 +180,7 @@ public class MainController {
             Dragboard dragbd = event.getDragboard();
 
             if (dragbd.hasFiles()) {
-                if (dragbd.getFiles().size() > 1) {
-                    event.consume();
-                } else if (dragbd.getFiles().get(0).isDirectory()) {
-                    event.consume();
-                } else {
-                    event.acceptTransferModes(TransferMode.ANY);
-                }
+                event.acceptTransferModes(TransferMode.ANY);
             } else {
                 event.consume();
             }
@@ -151,12 +188,26 @@ public class MainController {
 
         mainScene.setOnDragDropped(event -> {
             Dragboard dragbd = event.getDragboard();
+            List<File> files = dragbd.getFiles();
+
+            // A single file is checked against the given hash, anything else is queued
+            if (files.size() == 1 && !files.get(0).isDirectory()) {
+                file = files.get(0);
+                addListenersOnFile();
+                changeFileField();
+            } else {
+                LOGGER.log(Level.INFO, "Queued: {}", files);
+                jobQueue.add(files, mainScene.getSelectedAlgs(), message -> LOGGER.log(Level.WARN, "{}", message));
+            }
 
-            file = dragbd.getFiles().get(0);
-            addListenersOnFile();
-            changeFileField();
+            event.setDropCompleted(true);
+            event.consume();
         });
 
+        Timeline jobRefresher = new Timeline(new KeyFrame(Duration.millis(REFRESH_MILLIS), e -> refreshJobs()));
+        jobRefresher.setCycleCount(Animation.INDEFINITE);
+        jobRefresher.play();
+
         return mainScene;
     }
 
@@ -169,7 +220,7 @@ public class MainController {
 
         LOGGER.log(Level.INFO,
             "NEW PROCESS -----------------------------------------------------------------------------------------------------------------------------------");
-        LOGGER.log(Level.INFO, "File path: " + file);
+        LOGGER.log(Level.INFO, "File path: {}", file);
 
         progBar.setStyle(FX_ACC_TRANSPARENT);
         threadFinished = false;
@@ -182,7 +233,8 @@ public class MainController {
         matchLabel.setVisible(false);
         hashField.setStyle(FX_BLACK);
 
-        task = new HashTask(hashField.getText(), file, comboBox.getValue());
+        task = new HashTask(hashField.getText(), file, mainScene.getSelectedAlgs(),
+            mainScene.getResumeBox().isSelected());
 
         task.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, event -> {
 
@@ -197,36 +249,46 @@ public class MainController {
                     LOGGER.log(Level.INFO, "Result: different hashes");
                 } else if (task.getValue() == -1) {
                     cancelledDisplay();
-                    LOGGER.log(Level.INFO, "Operation cancelled (" + progIndic.getText() + ")");
+                    LOGGER.log(Level.INFO, "Operation cancelled ({})", progIndic.getText());
                 }
             }
             LOGGER.log(Level.INFO,
                 "PROCESS FINISHED -----------------------------------------------------------------------------------------------------------------------------");
         });
 
-        progBar.progressProperty().addListener((observable, oldValue, newValue) -> {
-
-            if (newValue.doubleValue() < 0) {
-                progIndic.setText("Starting...");
-            } else if (newValue.doubleValue() < 1) {
-                progBar.setStyle(FX_ACC_BLUE);
-                progIndic.setText(decForm.format(newValue.doubleValue() * 100) + "%");
-            } else if (newValue.doubleValue() >= 1) {
-                progIndic.setText("Done");
-            }
-        });
-
         progBar.progressProperty().bind(task.progressProperty());
         statusLabel.textProperty().bind(task.messageProperty());
         bytesLabel.textProperty().bind(task.titleProperty());
         genHashField.textProperty().bind(task.getReadOnlyGenHash());
 
-        Platform.runLater(() -> {
-            Thread thread = new Thread(task);
-            thread.setName("HashTask Thread");
-            thread.setDaemon(true);
-            thread.start();
-        });
+        taskExecutor.execute(task);
+    }
+
+    /**
+     * Adds the jobs queued since the last refresh to the table and redraws its visible rows if
+     * any job changed, all in one go.
+     */
+    private void refreshJobs() {
+
+        List<HashJob> added = jobQueue.drainAdded();
+
+        if (!added.isEmpty()) {
+            jobTable.getItems().addAll(added);
+        }
+
+        if (jobQueue.pollChanged() || !added.isEmpty()) {
+            jobTable.refresh();
+
+            Map<HashJob.State, Integer> counts = new EnumMap<>(HashJob.State.class);
+            for (HashJob job : jobTable.getItems()) {
+                counts.merge(job.getState(), 1, Integer::sum);
+            }
+
+            StringBuilder text = new StringBuilder(jobTable.getItems().size() + " files");
+            counts.forEach((state, count) -> text.append(", ").append(count).append(' ')
+                .append(state.name().toLowerCase()));
+            jobsLabel.setText(text.toString());
+        }
     }
 
     private void mismatchDisplay() {
@@ -264,7 +326,7 @@ public class MainController {
 
     private void addListenersOnFile() {
         if (file != null) {
-            comboBox.setOnKeyPressed(this::doOnKeyPressed);
+            algoMenu.setOnKeyPressed(this::doOnKeyPressed);
             mainScene.setOnKeyPressed(this::doOnKeyPressed);
         }
     }
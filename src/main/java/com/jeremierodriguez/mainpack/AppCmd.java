@@ -1,11 +1,10 @@
 package com.jeremierodriguez.mainpack;
 
-import com.jeremierodriguez.services.Algs;
 import com.jeremierodriguez.services.CommandLineActions;
 import org.apache.commons.cli.*;
 
 import java.awt.*;
-import java.util.Arrays;
+import java.io.IOException;
 
 
 /**
@@ -15,25 +14,20 @@ public class AppCmd {
 
     public static void main(String[] args) {
 
-        String algorithm = "algorithm";
-        String noGUI = "no-gui";
-        String help = "help";
-
-        Options options = new Options();
-        options.addOption("a", algorithm, true, "Sets hashing algorithm, defaults to SHA256");
-        options.addOption("ng", noGUI, false, "Starts application in command-line without GUI");
-        options.addOption("h", help, false, "Prints to console this help message");
+        Options options = CommandLineActions.buildOptions();
 
         try {
             CommandLineParser parser = new DefaultParser();
             CommandLine cmd = parser.parse(options, args);
 
-            if (cmd.hasOption(help)) {
+            if (cmd.hasOption(CommandLineActions.HELP)) {
                 CommandLineActions.printHelpMessage(options, 0);
             }
 
+            CommandLineActions.applyProviders(cmd);
+
             // Launches GUI if no-gui option set and if not in a headless environment, reverts to CLI otherwise
-            if (!cmd.hasOption("no-gui")) {
+            if (!cmd.hasOption(CommandLineActions.NO_GUI) && !CommandLineActions.impliesNoGui(cmd)) {
 
                 if (GraphicsEnvironment.isHeadless()) {
                     System.out.println("Cannot launch GUI in headless environment");
@@ -44,19 +38,16 @@ public class AppCmd {
                 }
 
             } else {
-                // Checks if given hashing algorithm is known by the application
-                boolean isKnownAlgorithm = Arrays.stream(Algs.values()).anyMatch(
-                    a -> a.name().equals(cmd.getOptionValue(algorithm).toUpperCase()));
-
-                if (!isKnownAlgorithm) {
-                    System.out.println("Unknown hashing algorithm, default back to SHA256");
-                }
-
+                System.exit(CommandLineActions.run(cmd, options));
             }
 
-        } catch (ParseException e) {
+        } catch (ParseException | NumberFormatException e) {
             System.out.println(e.getMessage());
             CommandLineActions.printHelpMessage(options, 1);
+
+        } catch (IOException e) {
+            System.err.println("Digest cache could not be closed: " + e.getMessage());
+            System.exit(1);
         }
     }
 
@@ -1,14 +1,35 @@
 package com.jeremierodriguez.services;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+
 
 /**
  * Enumeration regrouping all hashing algorithms provided by the BouncyCastle library's
- * {@code MessageDigest}.
+ * {@code MessageDigest}, plus BLAKE3 which is implemented by this application. Those also
+ * implemented by the JDK are computed by the JDK, results being identical.
+ * <p>
+ * The last ones are non-cryptographic checksums, much faster but only fit to detect accidental
+ * corruption: CRC32, CRC32C and ADLER32 from the JDK, XXH64, XXH3 and MURMUR3_128 implemented by
+ * this application.
  *
  * @author Jeremie Rodriguez
  */
 public enum Algs {
 
-    MD2, MD4, MD5, GOST3411, SHA1, SHA224, SHA256, SHA384, SHA512, SM3, RIPEMD128, RIPEMD160, RIPEMD256, RIPEMD320, TIGER, WHIRLPOOL
+    MD2, MD4, MD5, GOST3411, SHA1, SHA224, SHA256, SHA384, SHA512, SM3, RIPEMD128, RIPEMD160, RIPEMD256, RIPEMD320, TIGER, WHIRLPOOL, BLAKE3,
+    CRC32, CRC32C, ADLER32, XXH64, XXH3, MURMUR3_128;
+
+    /**
+     * Creates a new {@code MessageDigest} computing this algorithm.
+     *
+     * @return MessageDigest ready to be updated
+     * @throws NoSuchAlgorithmException if the algorithm is not supported by its provider
+     * @throws NoSuchProviderException  if the algorithm's provider is not available
+     */
+    public MessageDigest newDigest() throws NoSuchAlgorithmException, NoSuchProviderException {
+        return Digests.newDigest(this);
+    }
 
 }
@@ -0,0 +1,671 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.ConsoleWriter;
+import com.jeremierodriguez.util.DaemonThreadFactory;
+import com.jeremierodriguez.util.DigestFormat;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+
+/**
+ * This class hashes every file stored in zip, jar and tar archives, optionally gzipped, straight
+ * from the archive without extracting anything. Results are printed as a manifest of entry paths,
+ * which {@code --check} verifies against the extracted files.
+ * <ul>
+ * <li>zip and jar: the central directory is memory-mapped, then entries are read with positional
+ * reads and inflated in parallel, each checked against its CRC</li>
+ * <li>tar and tar.gz: entries are hashed one after the other as the stream goes, GNU long names
+ * and PAX paths and sizes included</li>
+ * </ul>
+ * Directories, links and other special entries are skipped. The format is told by the contents
+ * of the archive, not its name, so self-extracting zips are read as well.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class ArchiveHasher {
+
+    private static final int CHUNK_SIZE = 65536;
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT_LENGTH = 65535;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_SIZE = 46;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_SIZE = 30;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MARKER = 0xFFFFFFFFL;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int ENCRYPTED_FLAG = 1;
+
+    private static final int BLOCK_SIZE = 512;
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private static final ThreadLocal<byte[]> CHUNK = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+    private static final ThreadLocal<byte[]> INFLATED = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+
+    private final List<Algs> algos;
+    private final AtomicLong bytesHashed = new AtomicLong();
+    private ConsoleWriter out = null;
+    private ConsoleWriter err = null;
+    private boolean failed = false;
+    private long entries = 0;
+
+    /**
+     * Entry of a zip archive, as told by its central directory.
+     */
+    private static final class ZipEntry {
+
+        String name = null;
+        int flags = 0;
+        int method = 0;
+        long crc = 0;
+        long compressedSize = 0;
+        long size = 0;
+        long localOffset = 0;
+    }
+
+    /**
+     * Constructor needing the algorithms to compute.
+     *
+     * @param algos algorithms to compute, all of them with a single read of each entry
+     */
+    public ArchiveHasher(List<Algs> algos) {
+        this.algos = algos;
+    }
+
+    /**
+     * Hashes the entries of given archives and prints them as a manifest, preceded by a comment
+     * naming their archive if there are several.
+     *
+     * @param archives paths of the archives
+     * @return 0 if every entry was hashed, 1 otherwise
+     */
+    public int run(List<String> archives) {
+
+        ExecutorService workers = Executors.newFixedThreadPool(THREADS, new DaemonThreadFactory("Archive Worker"));
+
+        try (ConsoleWriter outWriter = new ConsoleWriter(); ConsoleWriter errWriter = new ConsoleWriter(FileDescriptor.err)) {
+            out = outWriter;
+            err = errWriter;
+
+            for (String archive : archives) {
+                if (archives.size() > 1) {
+                    out.println("# " + archive);
+                }
+
+                try {
+                    hashArchive(Paths.get(archive), workers);
+                } catch (NoSuchFileException e) {
+                    fail(archive, "No such file");
+                } catch (IOException | GeneralSecurityException e) {
+                    fail(archive, e.getMessage());
+                }
+            }
+
+            err.println(entries + " entries hashed ("
+                + String.format(Locale.ROOT, "%.1f MB", bytesHashed.get() / 1048576.0) + ")");
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed = true;
+
+        } finally {
+            workers.shutdownNow();
+        }
+
+        return failed ? 1 : 0;
+    }
+
+    private void hashArchive(Path archive, ExecutorService workers)
+        throws IOException, GeneralSecurityException, InterruptedException {
+
+        byte[] head = new byte[BLOCK_SIZE];
+        int headLength;
+
+        try (InputStream in = Files.newInputStream(archive)) {
+            headLength = readFully(in, head);
+        }
+
+        if (headLength >= 2 && ((head[0] & 0xFF) | (head[1] & 0xFF) << 8) == GZIP_MAGIC) {
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(archive), CHUNK_SIZE)) {
+                hashTar(in);
+            }
+
+        } else if (headLength == BLOCK_SIZE && isTarHeader(head)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(archive), CHUNK_SIZE)) {
+                hashTar(in);
+            }
+
+        } else {
+            try (FileChannel channel = FileChannel.open(archive)) {
+                hashZip(channel, workers);
+            }
+        }
+    }
+
+    // Zip and jar
+
+    private void hashZip(FileChannel channel, ExecutorService workers)
+        throws IOException, GeneralSecurityException, InterruptedException {
+
+        List<ZipEntry> zipEntries = readCentralDirectory(channel);
+        List<Future<Map<Algs, byte[]>>> futures = new ArrayList<>(zipEntries.size());
+
+        for (ZipEntry entry : zipEntries) {
+            futures.add(workers.submit(() -> hashZipEntry(channel, entry)));
+        }
+
+        // Printed in the order of the central directory, whatever order they were hashed in
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                print(zipEntries.get(i).name, futures.get(i).get());
+                entries++;
+            } catch (ExecutionException e) {
+                fail(zipEntries.get(i).name, e.getCause().getMessage());
+            }
+        }
+    }
+
+    private List<ZipEntry> readCentralDirectory(FileChannel channel) throws IOException {
+
+        long length = channel.size();
+        int tailLength = (int) Math.min(length, EOCD_SIZE + MAX_COMMENT_LENGTH + ZIP64_LOCATOR_SIZE);
+        ByteBuffer tail = readAt(channel, length - tailLength, tailLength);
+
+        int eocd = -1;
+        for (int i = tailLength - EOCD_SIZE; i >= 0 && eocd < 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE) {
+                eocd = i;
+            }
+        }
+
+        if (eocd < 0) {
+            throw new IOException("Not a zip, jar or tar archive");
+        }
+
+        long count = tail.getShort(eocd + 10) & 0xFFFF;
+        long directorySize = tail.getInt(eocd + 12) & ZIP64_MARKER;
+        long directoryOffset = tail.getInt(eocd + 16) & ZIP64_MARKER;
+
+        int locator = eocd - ZIP64_LOCATOR_SIZE;
+        if (locator >= 0 && tail.getInt(locator) == ZIP64_LOCATOR_SIGNATURE) {
+            ByteBuffer zip64 = readAt(channel, tail.getLong(locator + 8), 56);
+            if (zip64.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                throw new IOException("Corrupt zip64 end of central directory");
+            }
+            count = zip64.getLong(32);
+            directorySize = zip64.getLong(40);
+            directoryOffset = zip64.getLong(48);
+        }
+
+        if (directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > length) {
+            throw new IOException("Corrupt or unsupported central directory");
+        }
+
+        MappedByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, directorySize);
+        directory.order(ByteOrder.LITTLE_ENDIAN);
+
+        List<ZipEntry> zipEntries = new ArrayList<>();
+        int position = 0;
+
+        for (long i = 0; i < count; i++) {
+            if (position + CENTRAL_SIZE > directorySize || directory.getInt(position) != CENTRAL_SIGNATURE) {
+                throw new IOException("Corrupt central directory");
+            }
+
+            ZipEntry entry = new ZipEntry();
+            entry.flags = directory.getShort(position + 8) & 0xFFFF;
+            entry.method = directory.getShort(position + 10) & 0xFFFF;
+            entry.crc = directory.getInt(position + 16) & ZIP64_MARKER;
+            entry.compressedSize = directory.getInt(position + 20) & ZIP64_MARKER;
+            entry.size = directory.getInt(position + 24) & ZIP64_MARKER;
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            entry.localOffset = directory.getInt(position + 42) & ZIP64_MARKER;
+
+            byte[] name = new byte[nameLength];
+            directory.position(position + CENTRAL_SIZE);
+            directory.get(name);
+            entry.name = new String(name, StandardCharsets.UTF_8);
+
+            readZip64Extra(directory, position + CENTRAL_SIZE + nameLength, extraLength, entry);
+            position += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+
+            if (!entry.name.endsWith("/")) {
+                zipEntries.add(entry);
+            }
+        }
+
+        return zipEntries;
+    }
+
+    /**
+     * Reads the sizes and offset of an entry that did not fit the central directory's 32-bit
+     * fields, in the order they are stored when they did not.
+     */
+    private static void readZip64Extra(ByteBuffer directory, int start, int length, ZipEntry entry) {
+
+        int position = start;
+
+        while (position + 4 <= start + length) {
+            int id = directory.getShort(position) & 0xFFFF;
+            int size = directory.getShort(position + 2) & 0xFFFF;
+            int field = position + 4;
+
+            if (id == ZIP64_EXTRA_ID) {
+                if (entry.size == ZIP64_MARKER && field + 8 <= position + 4 + size) {
+                    entry.size = directory.getLong(field);
+                    field += 8;
+                }
+                if (entry.compressedSize == ZIP64_MARKER && field + 8 <= position + 4 + size) {
+                    entry.compressedSize = directory.getLong(field);
+                    field += 8;
+                }
+                if (entry.localOffset == ZIP64_MARKER && field + 8 <= position + 4 + size) {
+                    entry.localOffset = directory.getLong(field);
+                }
+                return;
+            }
+
+            position += 4 + size;
+        }
+    }
+
+    private Map<Algs, byte[]> hashZipEntry(FileChannel channel, ZipEntry entry)
+        throws IOException, GeneralSecurityException, DataFormatException {
+
+        if ((entry.flags & ENCRYPTED_FLAG) != 0) {
+            throw new IOException("Encrypted entry");
+        }
+        if (entry.method != STORED && entry.method != DEFLATED) {
+            throw new IOException("Unsupported compression method " + entry.method);
+        }
+
+        ByteBuffer local = readAt(channel, entry.localOffset, LOCAL_SIZE);
+        if (local.getInt(0) != LOCAL_SIGNATURE) {
+            throw new IOException("Corrupt local header");
+        }
+
+        long position = entry.localOffset + LOCAL_SIZE + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+        long end = position + entry.compressedSize;
+
+        MultiDigester digester = new MultiDigester(algos);
+        CRC32 crc = new CRC32();
+        byte[] chunk = CHUNK.get();
+        byte[] inflated = INFLATED.get();
+        Inflater inflater = entry.method == DEFLATED ? new Inflater(true) : null;
+        long size = 0;
+
+        try {
+            while (position < end || (inflater != null && !inflater.finished())) {
+                int read = 0;
+
+                if (position < end) {
+                    read = read(channel, ByteBuffer.wrap(chunk, 0, (int) Math.min(chunk.length, end - position)), position);
+                    position += read;
+                } else if (!inflater.needsInput()) {
+                    // Drains what the inflater still holds
+                    read = -1;
+                } else {
+                    // Raw deflate may need a byte past the end of its data to finish
+                    chunk[0] = 0;
+                    read = 1;
+                }
+
+                if (inflater == null) {
+                    digester.accept(ByteBuffer.wrap(chunk, 0, read));
+                    crc.update(chunk, 0, read);
+                    size += read;
+                    continue;
+                }
+
+                if (read > 0) {
+                    inflater.setInput(chunk, 0, read);
+                }
+
+                int count;
+                while ((count = inflater.inflate(inflated)) > 0) {
+                    digester.accept(ByteBuffer.wrap(inflated, 0, count));
+                    crc.update(inflated, 0, count);
+                    size += count;
+                }
+
+                // Would never finish, zip entries have no way to give the dictionary
+                if (inflater.needsDictionary()) {
+                    throw new IOException("Entry needs a preset dictionary");
+                }
+
+                if (position >= end && read == 1 && inflater.needsInput() && !inflater.finished()) {
+                    throw new IOException("Truncated entry");
+                }
+            }
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+
+        if (size != entry.size || crc.getValue() != entry.crc) {
+            throw new IOException("CRC or size mismatch, the archive is corrupt");
+        }
+
+        bytesHashed.addAndGet(size);
+
+        return digester.digest();
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of archive");
+            }
+        }
+
+        return buffer;
+    }
+
+    private static int read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+
+        int read = channel.read(buffer, position);
+
+        if (read < 0) {
+            throw new EOFException("Unexpected end of archive");
+        }
+
+        return read;
+    }
+
+    // Tar and tar.gz
+
+    private void hashTar(InputStream in) throws IOException, GeneralSecurityException {
+
+        byte[] header = new byte[BLOCK_SIZE];
+        String longName = null;
+        String paxPath = null;
+        long paxSize = -1;
+
+        while (readFully(in, header) == BLOCK_SIZE && !isZeroBlock(header)) {
+
+            if (!isTarHeader(header)) {
+                throw new IOException("Corrupt tar header");
+            }
+
+            byte type = header[156];
+            long size = paxSize >= 0 ? paxSize : parseNumber(header, 124, 12);
+
+            if (type == 'L') {
+                longName = cString(readEntry(in, size), 0, (int) size);
+                continue;
+            }
+
+            if (type == 'x') {
+                for (String[] record : parsePax(readEntry(in, size))) {
+                    if ("path".equals(record[0])) {
+                        paxPath = record[1];
+                    } else if ("size".equals(record[0])) {
+                        paxSize = Long.parseLong(record[1]);
+                    }
+                }
+                continue;
+            }
+
+            if (type == '0' || type == 0 || type == '7') {
+                String name = paxPath != null ? paxPath : longName != null ? longName : headerName(header);
+                print(name, hashTarEntry(in, size));
+                entries++;
+            } else {
+                skip(in, padded(size));
+            }
+
+            longName = null;
+            paxPath = null;
+            paxSize = -1;
+        }
+    }
+
+    private Map<Algs, byte[]> hashTarEntry(InputStream in, long size) throws IOException, GeneralSecurityException {
+
+        MultiDigester digester = new MultiDigester(algos);
+        byte[] chunk = CHUNK.get();
+        long remaining = size;
+
+        while (remaining > 0) {
+            int read = in.read(chunk, 0, (int) Math.min(chunk.length, remaining));
+            if (read < 0) {
+                throw new EOFException("Unexpected end of archive");
+            }
+            digester.accept(ByteBuffer.wrap(chunk, 0, read));
+            remaining -= read;
+        }
+
+        skip(in, padded(size) - size);
+        bytesHashed.addAndGet(size);
+
+        return digester.digest();
+    }
+
+    private static byte[] readEntry(InputStream in, long size) throws IOException {
+
+        if (size > Integer.MAX_VALUE - BLOCK_SIZE) {
+            throw new IOException("Corrupt tar header");
+        }
+
+        byte[] data = new byte[(int) padded(size)];
+
+        if (readFully(in, data) != data.length) {
+            throw new EOFException("Unexpected end of archive");
+        }
+
+        return data;
+    }
+
+    /**
+     * Parses PAX records, each being {@code <length> <key>=<value>\n}.
+     */
+    private static List<String[]> parsePax(byte[] data) throws IOException {
+
+        List<String[]> records = new ArrayList<>();
+        int position = 0;
+
+        while (position < data.length && data[position] != 0) {
+            int space = position;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+
+            int length;
+            try {
+                length = Integer.parseInt(new String(data, position, space - position, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw new IOException("Corrupt PAX header");
+            }
+            if (length <= 0 || position + length > data.length) {
+                throw new IOException("Corrupt PAX header");
+            }
+
+            String record = new String(data, space + 1, position + length - space - 2, StandardCharsets.UTF_8);
+            int equals = record.indexOf('=');
+            if (equals > 0) {
+                records.add(new String[]{record.substring(0, equals), record.substring(equals + 1)});
+            }
+
+            position += length;
+        }
+
+        return records;
+    }
+
+    private static String headerName(byte[] header) {
+
+        String name = cString(header, 0, 100);
+        boolean ustar = header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a'
+            && header[261] == 'r';
+        String prefix = ustar ? cString(header, 345, 155) : "";
+
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    /**
+     * Tells whether a block is a tar header, by its checksum computed with the checksum field
+     * taken as spaces.
+     */
+    private static boolean isTarHeader(byte[] header) {
+
+        long sum = 0;
+
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+        }
+
+        try {
+            return sum == parseNumber(header, 148, 8);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses a numeric field, octal digits or, past their range, base-256 with the high bit of
+     * its first byte set.
+     */
+    private static long parseNumber(byte[] header, int offset, int length) throws IOException {
+
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7F;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = value << 8 | header[i] & 0xFF;
+            }
+            return value;
+        }
+
+        long value = 0;
+        boolean digits = false;
+
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b >= '0' && b <= '7') {
+                value = value * 8 + (b - '0');
+                digits = true;
+            } else if (b == 0 || b == ' ') {
+                if (digits) {
+                    break;
+                }
+            } else {
+                throw new IOException("Corrupt tar header");
+            }
+        }
+
+        return value;
+    }
+
+    private static String cString(byte[] bytes, int offset, int length) {
+
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static long padded(long size) {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    private static int readFully(InputStream in, byte[] bytes) throws IOException {
+
+        int total = 0;
+
+        while (total < bytes.length) {
+            int read = in.read(bytes, total, bytes.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+
+        return total;
+    }
+
+    private static void skip(InputStream in, long count) throws IOException {
+
+        long remaining = count;
+
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Unexpected end of archive");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * Prints the hashes of an entry as manifest lines, called in the order of the archive.
+     */
+    void print(String name, Map<Algs, byte[]> hashes) {
+
+        for (Map.Entry<Algs, byte[]> entry : hashes.entrySet()) {
+            out.println(ManifestLine.format(entry.getKey().name(), name, DigestFormat.toHex(entry.getValue()),
+                algos.size() > 1));
+        }
+    }
+
+    private void fail(String path, String message) {
+        failed = true;
+        err.println(path + ": " + message);
+    }
+
+}
@@ -0,0 +1,351 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.ConsoleWriter;
+import com.jeremierodriguez.util.DigestFormat;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * This class hashes files, whole directory trees and glob patterns without any GUI. Inputs are
+ * walked on the calling thread while files are hashed by an {@link IoScheduler}, each result
+ * being printed as soon as its file is done. Results look like {@code sha256sum} output
+ * for a single algorithm, like its {@code --tag} output otherwise.
+ * <p>
+ * Given a {@link HashSetIndex}, files are screened against it instead: only those whose digest
+ * belongs to the set are printed, followed by the number of hits on the error output.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class BatchHasher {
+
+    private static final String GLOB_CHARS = "*?[{";
+
+    private static final long PROGRESS_MILLIS = 500;
+
+    // Small files of a directory hashed by a single task
+    private static final int BATCH_SIZE = 64;
+
+    private final List<Algs> algos;
+    private final int leafSize;
+    private final CachingHasher hasher;
+    private final IoScheduler scheduler;
+    private final boolean showProgress;
+    private final HashSetIndex hashSet;
+    private final AtomicBoolean failed = new AtomicBoolean();
+    private final AtomicLong screened = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private ConsoleWriter out = null;
+    private ConsoleWriter err = null;
+    private ProgressTracker tracker = null;
+
+    private final Path[] batch = new Path[BATCH_SIZE];
+    private final long[] batchLengths = new long[BATCH_SIZE];
+    private BasicFileAttributes batchAttrs = null;
+    private int batchCount = 0;
+
+    /**
+     * Constructor needing the algorithms to compute.
+     *
+     * @param algos        algorithms to compute, all of them with a single read of each file
+     * @param leafSize     Merkle tree leaf size in bytes to compute tree hashes, 0 for regular hashes
+     * @param hasher       hasher of regular hashes, possibly through a digest cache
+     * @param scheduler    scheduler of the reads of files
+     * @param showProgress true to keep a status line of the progress of all files on the error
+     *                     output
+     */
+    public BatchHasher(List<Algs> algos, int leafSize, CachingHasher hasher, IoScheduler scheduler,
+                       boolean showProgress) {
+        this.algos = algos;
+        this.leafSize = leafSize;
+        this.hasher = hasher;
+        this.scheduler = scheduler;
+        this.showProgress = showProgress;
+        this.hashSet = null;
+    }
+
+    /**
+     * Constructor of a hasher printing only the files whose digest belongs to a set.
+     *
+     * @param hashSet      set of known digests, whose algorithm files are hashed with
+     * @param hasher       hasher of the digests, possibly through a digest cache
+     * @param scheduler    scheduler of the reads of files
+     * @param showProgress true to keep a status line of the progress of all files on the error
+     *                     output
+     */
+    public BatchHasher(HashSetIndex hashSet, CachingHasher hasher, IoScheduler scheduler, boolean showProgress) {
+        this.algos = Collections.singletonList(hashSet.getAlgo());
+        this.leafSize = 0;
+        this.hasher = hasher;
+        this.scheduler = scheduler;
+        this.showProgress = showProgress;
+        this.hashSet = hashSet;
+    }
+
+    /**
+     * Hashes every file designated by given inputs and prints results as they come.
+     *
+     * @param inputs paths of files or directories, or glob patterns such as {@code src/**.java}
+     * @return 0 if every file was hashed, 1 otherwise
+     */
+    public int run(List<String> inputs) {
+
+        try (ConsoleWriter outWriter = new ConsoleWriter(); ConsoleWriter errWriter = new ConsoleWriter(FileDescriptor.err);
+             ProgressTracker progressTracker = new ProgressTracker(PROGRESS_MILLIS, this::printProgress)) {
+            out = outWriter;
+            err = errWriter;
+            tracker = progressTracker;
+
+            for (String input : inputs) {
+                walk(input);
+            }
+
+            flushBatch();
+            scheduler.awaitCompletion();
+
+            if (showProgress) {
+                tracker.close();
+                err.println("");
+            }
+
+            if (hashSet != null) {
+                err.println(hits.get() + " of " + screened.get() + " files in hash set");
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            scheduler.shutdownNow();
+            failed.set(true);
+        }
+
+        return failed.get() ? 1 : 0;
+    }
+
+    private void walk(String input) throws InterruptedException {
+
+        Path path = Paths.get(input);
+
+        if (Files.isRegularFile(path)) {
+            try {
+                submit(path, Files.readAttributes(path, BasicFileAttributes.class));
+            } catch (IOException e) {
+                fail(input, e.getMessage());
+            }
+            return;
+        }
+
+        Path root = path;
+        PathMatcher matcher = null;
+        int maxDepth = Integer.MAX_VALUE;
+
+        if (!Files.isDirectory(path)) {
+            int firstGlob = indexOfGlob(input);
+
+            if (firstGlob < 0) {
+                fail(input, "No such file or directory");
+                return;
+            }
+
+            // Walks from the deepest directory the pattern does not vary on
+            int separator = Math.max(input.lastIndexOf('/', firstGlob), input.lastIndexOf('\\', firstGlob));
+            root = separator < 0 ? Paths.get("") : Paths.get(input.substring(0, separator + 1));
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + input);
+
+            // Without ** the pattern cannot match deeper than its own number of names
+            String pattern = input.substring(separator + 1);
+            if (!pattern.contains("**")) {
+                maxDepth = pattern.split("[/\\\\]").length;
+            }
+        }
+
+        PathMatcher filter = matcher;
+
+        try {
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), maxDepth,
+                new SimpleFileVisitor<Path>() {
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+
+                        if (attrs.isRegularFile() && (filter == null || filter.matches(file))) {
+                            try {
+                                submit(file, attrs);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return FileVisitResult.TERMINATE;
+                            }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        fail(file.toString(), e.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+
+        } catch (IOException e) {
+            fail(input, e.getMessage());
+        }
+
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    private void submit(Path file, BasicFileAttributes attrs) throws InterruptedException {
+
+        tracker.expect(attrs.size());
+
+        if (leafSize > 0 || attrs.size() > SmallFileHasher.MAX_LENGTH) {
+            scheduler.submit(file, attrs, () -> hash(file, attrs.size()));
+            return;
+        }
+
+        // Scheduling a task per small file would cost about as much as hashing it
+        if (batchCount > 0 && !Objects.equals(file.getParent(), batch[0].getParent())) {
+            flushBatch();
+        }
+
+        if (batchCount == 0) {
+            batchAttrs = attrs;
+        }
+
+        batch[batchCount] = file;
+        batchLengths[batchCount++] = attrs.size();
+
+        if (batchCount == BATCH_SIZE) {
+            flushBatch();
+        }
+    }
+
+    /**
+     * Submits the small files gathered so far as a single task, read in the order of the first
+     * one's device.
+     */
+    private void flushBatch() throws InterruptedException {
+
+        if (batchCount == 0) {
+            return;
+        }
+
+        Path[] files = Arrays.copyOf(batch, batchCount);
+        long[] lengths = Arrays.copyOf(batchLengths, batchCount);
+        batchCount = 0;
+
+        scheduler.submit(files[0], batchAttrs, () -> {
+            for (int i = 0; i < files.length && !Thread.currentThread().isInterrupted(); i++) {
+                hash(files[i], lengths[i]);
+            }
+        });
+    }
+
+    private void hash(Path file, long length) {
+
+        String path = file.toString();
+        ProgressTracker.FileProgress progress = tracker.startFile();
+
+        try {
+            if (leafSize > 0) {
+                hashTree(file);
+                return;
+            }
+
+            Map<Algs, byte[]> hashes = hasher.hash(file, algos, progress, err::println);
+
+            if (hashSet != null) {
+                screen(path, hashes.get(hashSet.getAlgo()));
+                return;
+            }
+
+            for (Map.Entry<Algs, byte[]> entry : hashes.entrySet()) {
+                print(entry.getKey().name(), path, entry.getValue(), algos.size() > 1);
+            }
+
+        } catch (NoSuchFileException e) {
+            fail(path, "No such file");
+
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            fail(path, e.getMessage());
+
+        } finally {
+            progress.done(length);
+        }
+    }
+
+    private void hashTree(Path file) throws IOException, GeneralSecurityException {
+
+        try (FileChannel channel = FileChannel.open(file)) {
+
+            long length = channel.size();
+
+            for (Algs algo : algos) {
+                byte[] root = TreeHasher.hash(channel, length, algo, leafSize);
+                print(TreeHasher.label(algo, leafSize), file.toString(), root, true);
+            }
+        }
+    }
+
+    private void screen(String path, byte[] hash) {
+
+        screened.incrementAndGet();
+
+        if (hashSet.contains(hash)) {
+            hits.incrementAndGet();
+            print(hashSet.getAlgo().name(), path, hash, false);
+        }
+    }
+
+    private void print(String label, String path, byte[] hash, boolean tagged) {
+
+        out.println(ManifestLine.format(label, path, DigestFormat.toHex(hash), tagged));
+    }
+
+    private void printProgress(Progress progress) {
+
+        if (showProgress) {
+            err.print(String.format("\r%-79s", progress.getFilesDone() + "/" + progress.getFilesTotal() + " files, "
+                + Math.round(progress.getFraction() * 100) + "% of " + progress.getBytesTotal() / 1048576 + " MB, "
+                + progress.formatThroughput() + ", " + progress.formatTimeLeft() + " left"));
+        }
+    }
+
+    private void fail(String path, String message) {
+        failed.set(true);
+        err.println(path + ": " + message);
+    }
+
+    private static int indexOfGlob(String input) {
+
+        for (int i = 0; i < input.length(); i++) {
+            if (GLOB_CHARS.indexOf(input.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+}
@@ -0,0 +1,303 @@
+package com.jeremierodriguez.services;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+
+/**
+ * BLAKE3 {@code MessageDigest} producing the default 256-bit output, as the BouncyCastle version
+ * in use does not provide it. This follows the BLAKE3 reference implementation: input is split in
+ * 1024-byte chunks whose chaining values are merged two by two into a binary tree.
+ * <p>
+ * Besides being usable like any other digest, it can hash a subtree starting at any chunk
+ * boundary that is a multiple of the subtree's size, which lets {@code TreeHasher} hash parts of a
+ * file in parallel and merge them with {@link #parent(Node, Node)} into the very same result.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class Blake3Digest extends MessageDigest {
+
+    static final int CHUNK_LEN = 1024;
+    private static final int OUT_LEN = 32;
+    private static final int BLOCK_LEN = 64;
+
+    private static final int CHUNK_START = 1;
+    private static final int CHUNK_END = 2;
+    private static final int PARENT = 4;
+    private static final int ROOT = 8;
+
+    private static final int[] IV = {
+        0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19
+    };
+    private static final int[] MSG_PERMUTATION = {2, 6, 3, 10, 7, 0, 4, 13, 1, 11, 12, 5, 9, 14, 15, 8};
+
+    // Enough for 2^54 chunks, far beyond any file size
+    private static final int MAX_DEPTH = 54;
+
+    private final long chunkOffset;
+    private final int[][] cvStack = new int[MAX_DEPTH][];
+    private int cvStackLength = 0;
+
+    // Current chunk state
+    private int[] chunkCv = IV.clone();
+    private long chunkCounter = 0;
+    private final byte[] block = new byte[BLOCK_LEN];
+    private int blockLength = 0;
+    private int blocksCompressed = 0;
+
+    /**
+     * Creates a digest hashing a whole input.
+     */
+    public Blake3Digest() {
+        this(0);
+    }
+
+    /**
+     * Creates a digest hashing a subtree whose first chunk has given index in the whole input.
+     *
+     * @param chunkOffset index of the first chunk, a multiple of the subtree's chunk count
+     */
+    Blake3Digest(long chunkOffset) {
+        super(Algs.BLAKE3.name());
+        this.chunkOffset = chunkOffset;
+        this.chunkCounter = chunkOffset;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        engineUpdate(new byte[]{input}, 0, 1);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+
+        int end = offset + len;
+
+        while (offset < end) {
+
+            if (chunkLength() == CHUNK_LEN) {
+                int[] cv = chunkNode().chainingValue();
+                long totalChunks = chunkCounter + 1 - chunkOffset;
+                addChunkChainingValue(cv, totalChunks);
+                startChunk(chunkCounter + 1);
+            }
+
+            int take = Math.min(CHUNK_LEN - chunkLength(), end - offset);
+            updateChunk(input, offset, take);
+            offset += take;
+        }
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+
+        byte[] hash = finishNode().rootBytes();
+        engineReset();
+
+        return hash;
+    }
+
+    @Override
+    protected void engineReset() {
+        cvStackLength = 0;
+        startChunk(chunkOffset);
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return OUT_LEN;
+    }
+
+    /**
+     * Completes the subtree hashed so far without applying the root flag, so that it can still be
+     * merged with sibling subtrees. This digest must be reset before being used again.
+     *
+     * @return top node of the subtree
+     */
+    Node finishNode() {
+
+        Node node = chunkNode();
+
+        for (int i = cvStackLength - 1; i >= 0; i--) {
+            node = parentNode(cvStack[i], node.chainingValue());
+        }
+
+        return node;
+    }
+
+    /**
+     * Merges two sibling subtrees.
+     *
+     * @param left  subtree covering the first, power of two, number of chunks
+     * @param right subtree covering the remaining chunks
+     * @return parent node of both subtrees
+     */
+    static Node parent(Node left, Node right) {
+        return parentNode(left.chainingValue(), right.chainingValue());
+    }
+
+    private void addChunkChainingValue(int[] cv, long totalChunks) {
+
+        // Each trailing zero bit of the chunk count completes one more subtree
+        while ((totalChunks & 1) == 0) {
+            cv = parentNode(cvStack[--cvStackLength], cv).chainingValue();
+            totalChunks >>= 1;
+        }
+        cvStack[cvStackLength++] = cv;
+    }
+
+    private void startChunk(long counter) {
+        chunkCv = IV.clone();
+        chunkCounter = counter;
+        blockLength = 0;
+        blocksCompressed = 0;
+        Arrays.fill(block, (byte) 0);
+    }
+
+    private int chunkLength() {
+        return BLOCK_LEN * blocksCompressed + blockLength;
+    }
+
+    private int startFlag() {
+        return blocksCompressed == 0 ? CHUNK_START : 0;
+    }
+
+    private void updateChunk(byte[] input, int offset, int len) {
+
+        int end = offset + len;
+
+        while (offset < end) {
+
+            // The last block of a chunk is only compressed once more input shows it is not the last
+            if (blockLength == BLOCK_LEN) {
+                int[] words = compress(chunkCv, wordsOf(block), chunkCounter, BLOCK_LEN, startFlag());
+                System.arraycopy(words, 0, chunkCv, 0, 8);
+                blocksCompressed++;
+                Arrays.fill(block, (byte) 0);
+                blockLength = 0;
+            }
+
+            int take = Math.min(BLOCK_LEN - blockLength, end - offset);
+            System.arraycopy(input, offset, block, blockLength, take);
+            blockLength += take;
+            offset += take;
+        }
+    }
+
+    private Node chunkNode() {
+        return new Node(chunkCv.clone(), wordsOf(block), chunkCounter, blockLength, startFlag() | CHUNK_END);
+    }
+
+    private static Node parentNode(int[] leftCv, int[] rightCv) {
+
+        int[] words = new int[16];
+        System.arraycopy(leftCv, 0, words, 0, 8);
+        System.arraycopy(rightCv, 0, words, 8, 8);
+
+        return new Node(IV, words, 0, BLOCK_LEN, PARENT);
+    }
+
+    private static int[] wordsOf(byte[] bytes) {
+
+        int[] words = new int[16];
+
+        for (int i = 0; i < 16; i++) {
+            int j = i * 4;
+            words[i] = (bytes[j] & 0xff) | (bytes[j + 1] & 0xff) << 8
+                | (bytes[j + 2] & 0xff) << 16 | (bytes[j + 3] & 0xff) << 24;
+        }
+
+        return words;
+    }
+
+    private static int[] compress(int[] cv, int[] blockWords, long counter, int blockLen, int flags) {
+
+        int[] state = {
+            cv[0], cv[1], cv[2], cv[3], cv[4], cv[5], cv[6], cv[7],
+            IV[0], IV[1], IV[2], IV[3], (int) counter, (int) (counter >>> 32), blockLen, flags
+        };
+        int[] m = blockWords.clone();
+
+        for (int r = 0; r < 7; r++) {
+            g(state, 0, 4, 8, 12, m[0], m[1]);
+            g(state, 1, 5, 9, 13, m[2], m[3]);
+            g(state, 2, 6, 10, 14, m[4], m[5]);
+            g(state, 3, 7, 11, 15, m[6], m[7]);
+            g(state, 0, 5, 10, 15, m[8], m[9]);
+            g(state, 1, 6, 11, 12, m[10], m[11]);
+            g(state, 2, 7, 8, 13, m[12], m[13]);
+            g(state, 3, 4, 9, 14, m[14], m[15]);
+
+            if (r < 6) {
+                int[] permuted = new int[16];
+                for (int i = 0; i < 16; i++) {
+                    permuted[i] = m[MSG_PERMUTATION[i]];
+                }
+                m = permuted;
+            }
+        }
+
+        for (int i = 0; i < 8; i++) {
+            state[i] ^= state[i + 8];
+            state[i + 8] ^= cv[i];
+        }
+
+        return state;
+    }
+
+    private static void g(int[] s, int a, int b, int c, int d, int mx, int my) {
+        s[a] = s[a] + s[b] + mx;
+        s[d] = Integer.rotateRight(s[d] ^ s[a], 16);
+        s[c] = s[c] + s[d];
+        s[b] = Integer.rotateRight(s[b] ^ s[c], 12);
+        s[a] = s[a] + s[b] + my;
+        s[d] = Integer.rotateRight(s[d] ^ s[a], 8);
+        s[c] = s[c] + s[d];
+        s[b] = Integer.rotateRight(s[b] ^ s[c], 7);
+    }
+
+    /**
+     * A node of the BLAKE3 tree, either a chunk or a parent, kept uncompressed until it is known
+     * whether it is the root.
+     */
+    static final class Node {
+
+        private final int[] inputCv;
+        private final int[] blockWords;
+        private final long counter;
+        private final int blockLen;
+        private final int flags;
+
+        private Node(int[] inputCv, int[] blockWords, long counter, int blockLen, int flags) {
+            this.inputCv = inputCv;
+            this.blockWords = blockWords;
+            this.counter = counter;
+            this.blockLen = blockLen;
+            this.flags = flags;
+        }
+
+        int[] chainingValue() {
+
+            int[] cv = new int[8];
+            System.arraycopy(compress(inputCv, blockWords, counter, blockLen, flags), 0, cv, 0, 8);
+
+            return cv;
+        }
+
+        byte[] rootBytes() {
+
+            int[] words = compress(inputCv, blockWords, 0, blockLen, flags | ROOT);
+            byte[] hash = new byte[OUT_LEN];
+
+            for (int i = 0; i < OUT_LEN / 4; i++) {
+                hash[i * 4] = (byte) words[i];
+                hash[i * 4 + 1] = (byte) (words[i] >>> 8);
+                hash[i * 4 + 2] = (byte) (words[i] >>> 16);
+                hash[i * 4 + 3] = (byte) (words[i] >>> 24);
+            }
+
+            return hash;
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.jeremierodriguez.services;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+
+/**
+ * Base of the {@code MessageDigest}s implemented by this application that read their input as
+ * little-endian words. Arrays and buffers, including direct and mapped ones, are all handed over
+ * as a little-endian {@code ByteBuffer}, so that words are read straight from where the bytes are
+ * rather than copied to an array first.
+ *
+ * @author Jeremie Rodriguez
+ */
+abstract class ByteBufferDigest extends MessageDigest {
+
+    private final byte[] single = new byte[1];
+
+    ByteBufferDigest(String algorithm) {
+        super(algorithm);
+    }
+
+    /**
+     * Updates the digest with given bytes.
+     *
+     * @param input  little-endian buffer holding the bytes, whose position and limit do not matter
+     * @param offset absolute index of the first byte
+     * @param length number of bytes
+     */
+    abstract void update(ByteBuffer input, int offset, int length);
+
+    @Override
+    protected void engineUpdate(byte input) {
+        single[0] = input;
+        engineUpdate(single, 0, 1);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int length) {
+        update(ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN), offset, length);
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input) {
+
+        int length = input.remaining();
+
+        update(input.slice().order(ByteOrder.LITTLE_ENDIAN), 0, length);
+        input.position(input.limit());
+    }
+
+    /**
+     * Writes a 64-bit value most significant byte first, as hashes of this kind are printed.
+     */
+    static void putLong(byte[] output, int offset, long value) {
+
+        for (int i = 0; i < Long.BYTES; i++) {
+            output[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+}
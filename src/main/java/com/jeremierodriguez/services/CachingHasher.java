@@ -0,0 +1,225 @@
+package com.jeremierodriguez.services;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+
+/**
+ * This class hashes files through a {@code DigestCache}, only reading a file for the algorithms
+ * whose digest is not cached or may be outdated, and caching what it computes. In verifying mode
+ * files are always read, and cached digests that turn out to be wrong are reported and replaced.
+ * Without a cache, it simply hashes files. In resuming mode, files read with algorithms that
+ * {@link ResumableHasher} supports are hashed from their checkpoint, if any.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class CachingHasher implements AutoCloseable {
+
+    private final DigestCache cache;
+    private final boolean verify;
+    private final boolean resume;
+
+    /**
+     * Constructor needing the cache to use.
+     *
+     * @param cache  opened cache, closed with this object, or null to hash without cache
+     * @param verify true to read every file and check cached digests, false to trust them
+     */
+    public CachingHasher(DigestCache cache, boolean verify) {
+        this(cache, verify, false);
+    }
+
+    /**
+     * Constructor also telling whether to checkpoint the hashing of large files.
+     *
+     * @param cache  opened cache, closed with this object, or null to hash without cache
+     * @param verify true to read every file and check cached digests, false to trust them
+     * @param resume true to hash large files from their checkpoint, see {@link ResumableHasher}
+     */
+    public CachingHasher(DigestCache cache, boolean verify, boolean resume) {
+        this.cache = cache;
+        this.verify = verify;
+        this.resume = resume;
+    }
+
+    /**
+     * Returns the digests of a file, computing those that are not cached with a single read.
+     *
+     * @param file     path of a regular file
+     * @param algos    algorithms to compute
+     * @param listener notified of the progress of the read, if the file has to be read
+     * @param warnings receives a message for every problem with the cache, which does not prevent
+     *                 the digests from being returned
+     * @return digests mapped to their algorithm, in requested order
+     * @throws IOException              if the file could not be read
+     * @throws GeneralSecurityException if an algorithm is not available
+     */
+    public Map<Algs, byte[]> hash(Path file, List<Algs> algos, HashListener listener, Consumer<String> warnings)
+        throws IOException, GeneralSecurityException {
+
+        if (cache == null) {
+            return read(file, -1, algos, listener);
+        }
+
+        BasicFileAttributes before = Files.readAttributes(file, BasicFileAttributes.class);
+        Map<Algs, byte[]> cached = new LinkedHashMap<>();
+        List<Algs> missing = new ArrayList<>();
+
+        for (Algs algo : algos) {
+            byte[] digest = cache.get(file, before, algo);
+
+            if (digest != null) {
+                cached.put(algo, digest);
+            }
+            if (digest == null || verify) {
+                missing.add(algo);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return cached;
+        }
+
+        Map<Algs, byte[]> computed = read(file, before.size(), missing, listener);
+        BasicFileAttributes after = Files.readAttributes(file, BasicFileAttributes.class);
+
+        // A file modified while being read gives a digest of no version of it
+        boolean unchanged = before.size() == after.size()
+            && before.lastModifiedTime().equals(after.lastModifiedTime());
+
+        Map<Algs, byte[]> hashes = new LinkedHashMap<>();
+
+        for (Algs algo : algos) {
+            byte[] digest = computed.containsKey(algo) ? computed.get(algo) : cached.get(algo);
+            byte[] previous = cached.get(algo);
+
+            if (verify && previous != null && !Arrays.equals(previous, digest)) {
+                warnings.accept(file + ": cached " + algo + " digest was wrong, replaced");
+            }
+
+            if (unchanged && computed.containsKey(algo)) {
+                try {
+                    cache.put(file, before, algo, digest);
+                } catch (IOException e) {
+                    warnings.accept(file + ": could not be cached: " + e.getMessage());
+                }
+            }
+
+            hashes.put(algo, digest);
+        }
+
+        return hashes;
+    }
+
+    /**
+     * Caches digests of a file computed without this hasher, such as while copying it, unless the
+     * file changed since they were.
+     *
+     * @param file     path of a regular file
+     * @param before   attributes of the file read before its digests were computed
+     * @param digests  digests mapped to their algorithm
+     * @param warnings receives a message if the digests could not be cached
+     */
+    public void put(Path file, BasicFileAttributes before, Map<Algs, byte[]> digests, Consumer<String> warnings) {
+
+        if (cache == null) {
+            return;
+        }
+
+        try {
+            BasicFileAttributes after = Files.readAttributes(file, BasicFileAttributes.class);
+
+            if (before.size() != after.size() || !before.lastModifiedTime().equals(after.lastModifiedTime())) {
+                return;
+            }
+
+            for (Map.Entry<Algs, byte[]> entry : digests.entrySet()) {
+                cache.put(file, before, entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            warnings.accept(file + ": could not be cached: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the cached digest of a directory tree, never in verifying mode.
+     *
+     * @param dir       path of the directory
+     * @param label     label of the digest, telling its algorithm and options
+     * @param signature current signature of the metadata of the whole tree
+     * @return cached digest, or null if there is none or it must be computed again
+     */
+    public byte[] getTree(Path dir, String label, long signature) {
+        return cache == null || verify ? null : cache.getTree(dir, label, signature);
+    }
+
+    /**
+     * Caches the digest of a directory tree, if there is a cache.
+     *
+     * @param dir       path of the directory
+     * @param label     label of the digest, telling its algorithm and options
+     * @param signature signature of the metadata of the whole tree when it was hashed
+     * @param digest    digest of the tree
+     * @param warnings  receives a message if the digest could not be cached
+     */
+    public void putTree(Path dir, String label, long signature, byte[] digest, Consumer<String> warnings) {
+
+        if (cache == null) {
+            return;
+        }
+
+        try {
+            cache.putTree(dir, label, signature, digest);
+        } catch (IOException e) {
+            warnings.accept(dir + ": could not be cached: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a file, small ones with a single call.
+     *
+     * @param length length of the file as last seen, -1 if unknown
+     */
+    private Map<Algs, byte[]> read(Path file, long length, List<Algs> algos, HashListener listener)
+        throws IOException, GeneralSecurityException {
+
+        // Larger files are not opened twice, one that grew meanwhile is hashed by FileHasher
+        if (length <= SmallFileHasher.MAX_LENGTH) {
+            Map<Algs, byte[]> small = SmallFileHasher.hash(file, algos, listener);
+
+            if (small != null) {
+                return small;
+            }
+        }
+
+        if (resume && ResumableHasher.supports(algos)
+            && (length >= 0 ? length : Files.size(file)) >= ResumableHasher.MIN_LENGTH) {
+            return new ResumableHasher(file.toFile(), algos).hash(listener).getHashes();
+        }
+
+        return new FileHasher(file.toFile(), algos).hash(listener).getHashes();
+    }
+
+    /**
+     * Closes the cache, if any.
+     *
+     * @throws IOException if the cache could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+}
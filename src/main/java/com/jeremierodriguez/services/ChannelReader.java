@@ -0,0 +1,180 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+
+/**
+ * Class with static methods used to read a {@code FileChannel} chunk by chunk with a given
+ * {@code IoStrategy}. Each chunk is handed to a consumer as a {@code ByteBuffer} positioned on
+ * the bytes to process, so it can be given directly to {@code MessageDigest.update(ByteBuffer)}.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class ChannelReader {
+
+    // Mapped windows are handed out in slices so progress and interruption stay responsive
+    private static final int MAPPED_SLICE_SIZE = 2048000;
+
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+
+    private ChannelReader() {
+    }
+
+    /**
+     * Tells whether files read with given strategy are read on a separate thread when no mode is
+     * explicitly asked for. Small files read on heap are not worth the hand-off, neither are
+     * machines with a single core.
+     *
+     * @param strategy {@code IoStrategy} picked for the file
+     * @return true if reading and digesting are overlapped
+     */
+    public static boolean isPipelined(IoStrategy strategy) {
+        return strategy != IoStrategy.HEAP && PROCESSORS > 1;
+    }
+
+    /**
+     * Reads the whole channel, handing every chunk to the consumer until end of file or until
+     * interrupted. Reading is pipelined according to {@link #isPipelined(IoStrategy)}.
+     *
+     * @param channel     channel to read, from its beginning
+     * @param length      number of bytes to read
+     * @param strategy    {@code IoStrategy} used to read the channel
+     * @param consumer    receives every chunk, only valid for the duration of the call
+     * @param interrupted checked between chunks, reading stops as soon as it returns true
+     * @return number of bytes read
+     * @throws IOException if channel could not be read
+     */
+    public static long read(FileChannel channel, long length, IoStrategy strategy,
+                            Consumer<ByteBuffer> consumer, BooleanSupplier interrupted) throws IOException {
+
+        return read(channel, length, strategy, isPipelined(strategy), consumer, interrupted);
+    }
+
+    /**
+     * Reads the whole channel, handing every chunk to the consumer until end of file or until
+     * interrupted. In pipelined mode a reader thread fills a bounded ring of buffers while the
+     * calling thread consumes them.
+     *
+     * @param channel     channel to read, from its beginning
+     * @param length      number of bytes to read
+     * @param strategy    {@code IoStrategy} used to read the channel
+     * @param pipelined   true to read on a separate thread, always on the calling one otherwise
+     * @param consumer    receives every chunk on the calling thread, only valid for the duration
+     *                    of the call
+     * @param interrupted checked between chunks, reading stops as soon as it returns true
+     * @return number of bytes read
+     * @throws IOException if channel could not be read
+     */
+    public static long read(FileChannel channel, long length, IoStrategy strategy, boolean pipelined,
+                            Consumer<ByteBuffer> consumer, BooleanSupplier interrupted) throws IOException {
+
+        return read(channel, length, strategy, strategy.bufferSize(length), pipelined, consumer, interrupted);
+    }
+
+    /**
+     * Reads the whole channel like {@link #read(FileChannel, long, IoStrategy, boolean, Consumer,
+     * BooleanSupplier)}, with a buffer size of its own instead of the one of the strategy, which
+     * is mostly useful to measure how buffer sizes perform.
+     *
+     * @param channel     channel to read, from its beginning
+     * @param length      number of bytes to read
+     * @param strategy    {@code IoStrategy} used to read the channel
+     * @param bufferSize  size of the buffers in bytes, or of the mapped windows for {@code MAPPED}
+     * @param pipelined   true to read on a separate thread, always on the calling one otherwise
+     * @param consumer    receives every chunk on the calling thread, only valid for the duration
+     *                    of the call
+     * @param interrupted checked between chunks, reading stops as soon as it returns true
+     * @return number of bytes read
+     * @throws IOException if channel could not be read
+     */
+    public static long read(FileChannel channel, long length, IoStrategy strategy, int bufferSize, boolean pipelined,
+                            Consumer<ByteBuffer> consumer, BooleanSupplier interrupted) throws IOException {
+
+        if (pipelined) {
+            return PipelinedReader.read(channel, length, strategy, bufferSize, consumer, interrupted);
+        }
+
+        switch (strategy) {
+            case MAPPED:
+                return readMapped(channel, length, bufferSize, consumer, interrupted);
+
+            case DIRECT:
+                ByteBuffer direct = BufferPool.acquire(bufferSize);
+                try {
+                    return readBuffered(channel, direct, consumer, interrupted);
+                } finally {
+                    BufferPool.release(direct);
+                }
+
+            default:
+                return readBuffered(channel, ByteBuffer.allocate(bufferSize), consumer, interrupted);
+        }
+    }
+
+    private static long readBuffered(FileChannel channel, ByteBuffer buffer, Consumer<ByteBuffer> consumer,
+                                     BooleanSupplier interrupted) throws IOException {
+
+        int read = 0;
+        long readLength = 0;
+
+        while (read != -1 && !interrupted.getAsBoolean()) {
+
+            read = channel.read(buffer);
+            buffer.flip();
+
+            if (read > 0) {
+                consumer.accept(buffer);
+                readLength += read;
+            }
+            buffer.clear();
+        }
+
+        return readLength;
+    }
+
+    private static long readMapped(FileChannel channel, long length, int windowSize, Consumer<ByteBuffer> consumer,
+                                   BooleanSupplier interrupted) throws IOException {
+
+        long position = 0;
+
+        while (position < length && !interrupted.getAsBoolean()) {
+
+            long size = Math.min(windowSize, length - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+
+            position += acceptSliced(window, consumer, interrupted);
+        }
+
+        return position;
+    }
+
+    /**
+     * Hands a mapped window to the consumer slice by slice.
+     *
+     * @return number of bytes handed out
+     */
+    static long acceptSliced(ByteBuffer window, Consumer<ByteBuffer> consumer, BooleanSupplier interrupted) {
+
+        long accepted = 0;
+
+        while (window.position() < window.capacity() && !interrupted.getAsBoolean()) {
+
+            int start = window.position();
+            int end = Math.min(start + MAPPED_SLICE_SIZE, window.capacity());
+            window.limit(end);
+            consumer.accept(window);
+            window.position(end);
+            accepted += end - start;
+        }
+
+        return accepted;
+    }
+
+}
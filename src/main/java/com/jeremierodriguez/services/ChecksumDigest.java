@@ -0,0 +1,143 @@
+package com.jeremierodriguez.services;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.function.Supplier;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+
+/**
+ * {@code MessageDigest} computing a 32-bit {@code Checksum} such as CRC32, so that checksums are
+ * hashed, cached and checked like any other algorithm. They are not cryptographic and only detect
+ * accidental corruption, but the JDK computes them with dedicated processor instructions at
+ * several gigabytes per second. Their 4-byte output is big-endian, as printed by most tools.
+ * <p>
+ * CRC32C comes from the JDK from Java 9 on, from {@link Crc32c} before.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class ChecksumDigest extends MessageDigest {
+
+    private static final Supplier<Checksum> CRC32C = crc32c();
+
+    private final Checksum checksum;
+    private final MethodHandle bufferUpdate;
+
+    private ChecksumDigest(Algs algo, Checksum checksum) {
+        super(algo.name());
+        this.checksum = checksum;
+        this.bufferUpdate = bufferUpdate(checksum);
+    }
+
+    /**
+     * Creates the digest of a checksum algorithm.
+     *
+     * @param algo CRC32, CRC32C or ADLER32
+     * @return digest ready to be updated
+     * @throws IllegalArgumentException if the algorithm is not a checksum
+     */
+    static ChecksumDigest of(Algs algo) {
+
+        switch (algo) {
+            case CRC32:
+                return new ChecksumDigest(algo, new CRC32());
+            case CRC32C:
+                return new ChecksumDigest(algo, CRC32C.get());
+            case ADLER32:
+                return new ChecksumDigest(algo, new Adler32());
+            default:
+                throw new IllegalArgumentException("Not a checksum: " + algo);
+        }
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        checksum.update(input);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int length) {
+        checksum.update(input, offset, length);
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input) {
+
+        if (input.hasArray()) {
+            checksum.update(input.array(), input.arrayOffset() + input.position(), input.remaining());
+            input.position(input.limit());
+
+        } else if (bufferUpdate != null) {
+            try {
+                bufferUpdate.invoke(input);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+
+        } else {
+            super.engineUpdate(input);
+        }
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+
+        int value = (int) checksum.getValue();
+        checksum.reset();
+
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    @Override
+    protected void engineReset() {
+        checksum.reset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return Integer.BYTES;
+    }
+
+    /**
+     * Finds the method updating the checksum straight from a direct buffer, which exists in CRC32
+     * and Adler32 since Java 8 and in every checksum since Java 9.
+     *
+     * @return handle bound to the checksum, or null if there is none
+     */
+    private static MethodHandle bufferUpdate(Checksum checksum) {
+
+        try {
+            return MethodHandles.publicLookup()
+                .findVirtual(checksum.getClass(), "update", MethodType.methodType(void.class, ByteBuffer.class))
+                .bindTo(checksum);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static Supplier<Checksum> crc32c() {
+
+        try {
+            Class<? extends Checksum> type = Class.forName("java.util.zip.CRC32C").asSubclass(Checksum.class);
+
+            return () -> {
+                try {
+                    return type.getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException e) {
+                    return new Crc32c();
+                }
+            };
+
+        } catch (ClassNotFoundException e) {
+            return Crc32c::new;
+        }
+    }
+
+}
@@ -1,24 +1,572 @@
 package com.jeremierodriguez.services;
 
 
+import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import com.jeremierodriguez.util.AppFolder;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author Jeremie Rodriguez
  */
 public class CommandLineActions {
 
+    public static final String ALGORITHM = "algorithm";
+    public static final String NO_GUI = "no-gui";
+    public static final String HELP = "help";
+    public static final String TREE = "tree";
+    public static final String LEAF_SIZE = "leaf-size";
+    public static final String CHECK = "check";
+    public static final String NO_CACHE = "no-cache";
+    public static final String VERIFY_CACHE = "verify-cache";
+    public static final String PROGRESS = "progress";
+    public static final String THREADS = "threads";
+    public static final String IO_THREADS = "io-threads";
+    public static final String RESUME = "resume";
+    public static final String FIND_DUPLICATES = "find-duplicates";
+    public static final String FORMAT = "format";
+    public static final String HASH_SET = "hash-set";
+    public static final String PROVIDER = "provider";
+    public static final String DIR_HASH = "dir-hash";
+    public static final String MODES = "modes";
+    public static final String DAEMON = "daemon";
+    public static final String PORT = "port";
+    public static final String COPY = "copy";
+    public static final String VERIFY = "verify";
+    public static final String MANIFEST = "manifest";
+    public static final String ARCHIVE = "archive";
+    public static final String DECOMPRESS = "decompress";
+    public static final String WATCH = "watch";
+    public static final String SCAN_INTERVAL = "scan-interval";
+
+    // Files walked or listed ahead of the workers, bounds memory whatever their number while
+    // leaving every device enough of its own files to wait for a free thread
+    private static final int MAX_PENDING = 16384;
+
     private CommandLineActions() {
     }
 
+    /**
+     * Builds the options shared by the command-line and GUI launchers.
+     *
+     * @return Options object ready to be parsed
+     */
+    public static Options buildOptions() {
+
+        Options options = new Options();
+        options.addOption("a", ALGORITHM, true,
+            "Sets hashing algorithm, defaults to SHA256. Can be repeated to compute several hashes in a single read");
+        options.addOption("ng", NO_GUI, false, "Starts application in command-line without GUI");
+        options.addOption("h", HELP, false, "Prints to console this help message");
+        options.addOption("t", TREE, false,
+            "Computes tree hashes in parallel: BLAKE3 as is, other algorithms as Merkle trees");
+        options.addOption(null, LEAF_SIZE, true,
+            "Sets Merkle tree leaf size in bytes, defaults to " + TreeHasher.DEFAULT_LEAF_SIZE);
+        options.addOption("c", CHECK, false,
+            "Checks files against the checksum manifests given as arguments, such as SHA256SUMS, - reading standard input. Implies --no-gui");
+        options.addOption(null, NO_CACHE, false, "Hashes every file without reading nor updating the digest cache");
+        options.addOption(null, VERIFY_CACHE, false,
+            "Hashes every file and reports digests of the cache that turn out to be wrong");
+        options.addOption("p", PROGRESS, false,
+            "Keeps a status line of the progress of all files, with throughput and time left, on the error output");
+        options.addOption(null, RESUME, false,
+            "Checkpoints the hashing of files of 64 MB or more, so that an interrupted hash of an unchanged file "
+                + "resumes where it stopped. MD5, SHA1 and SHA2 only");
+        options.addOption(null, FIND_DUPLICATES, false,
+            "Finds files with identical contents in the directories given as arguments, confirmed with the first "
+                + "algorithm. Implies --no-gui");
+        options.addOption(null, FORMAT, true, "Sets the output format of --find-duplicates, csv or json, defaults to csv");
+        options.addOption(null, HASH_SET, true,
+            "Prints only the files whose hash is in the given list, such as an NSRL set or a list of indicators of "
+                + "compromise. The list is indexed once in the application folder. Implies --no-gui");
+        options.addOption(null, DIR_HASH, false,
+            "Prints a single digest of each directory given as argument, covering the names, types and contents of "
+                + "everything below it, with the first algorithm. Only changed directories are hashed again. Implies --no-gui");
+        options.addOption(null, MODES, false, "Includes the permission bits of files and directories in --dir-hash digests");
+        options.addOption(null, COPY, false,
+            "Copies the files or directories given as arguments to the last one, hashing them on the way so that their "
+                + "digests need no read of their own. Implies --no-gui");
+        options.addOption(null, VERIFY, false,
+            "Reads every copy again, bypassing the page cache where possible, and checks its digests against the source's");
+        options.addOption(null, MANIFEST, true, "Writes the digests of --copy to the given manifest instead of printing them");
+        options.addOption(null, ARCHIVE, false,
+            "Hashes every file stored in the zip, jar, tar or tar.gz archives given as arguments without extracting "
+                + "them, printing a manifest of their entries. Implies --no-gui");
+        options.addOption(null, DECOMPRESS, false,
+            "Hashes the decompressed contents of the gzip, xz or zstd files given as arguments, printed under their "
+                + "name without the compression suffix. Implies --no-gui");
+        options.addOption(null, WATCH, false,
+            "Watches the directories given as arguments, reporting every file added, modified, deleted or whose "
+                + "contents changed behind an unchanged modification time against a baseline kept in the application "
+                + "folder, with the first algorithm, until stopped. Implies --no-gui");
+        options.addOption(null, SCAN_INTERVAL, true,
+            "Sets the period in seconds of the scans of --watch, which find changes no event told, defaults to "
+                + IntegrityWatcher.DEFAULT_SCAN_SECONDS);
+        options.addOption(null, DAEMON, false,
+            "Keeps hashing files for clients connecting to the loopback interface, with the port and token written to "
+                + "the application folder, until stopped. Implies --no-gui");
+        options.addOption(null, PORT, true, "Sets the port of --daemon, defaults to any free one");
+        options.addOption(Option.builder().longOpt(PROVIDER).hasArg().argName("[algo=]jdk|bc")
+            .desc("Forces the provider of MD5, SHA1 and SHA2 digests instead of the fastest one measured on this JVM, "
+                + "for all of them or for a single algorithm. Can be repeated")
+            .build());
+        options.addOption(null, THREADS, true,
+            "Sets the number of files hashed at the same time, defaults to the number of processors");
+        options.addOption(null, IO_THREADS, true,
+            "Sets the number of files read at the same time from a single device, defaults to 1 for spinning disks, "
+                + "4 for network shares, 2 for unknown devices and no limit for solid state drives");
+
+        return options;
+    }
+
     public static void printHelpMessage(Options options, int exitStatus) {
 
         // automatically generate the help statement
         HelpFormatter formatter = new HelpFormatter();
-        formatter.printHelp("cs-check --no-gui [--algorithm] <hash> <pathtofile> \r\n\r\nOptions", options);
+        formatter.printHelp("cs-check --no-gui [--algorithm <algo>]... <file|directory|glob>... \r\n"
+            + "       cs-check --check [--algorithm <algo>] <manifest>... \r\n"
+            + "       cs-check --hash-set <list> [--algorithm <algo>] <file|directory|glob>... \r\n"
+            + "       cs-check --find-duplicates [--algorithm <algo>] [--format csv|json] <directory>... \r\n"
+            + "       cs-check --dir-hash [--algorithm <algo>] [--modes] <directory>... \r\n"
+            + "       cs-check --copy [--algorithm <algo>]... [--verify] [--manifest <file>] <source>... <destination> \r\n"
+            + "       cs-check --archive [--algorithm <algo>]... <archive>... \r\n"
+            + "       cs-check --decompress [--algorithm <algo>]... <file>... \r\n"
+            + "       cs-check --watch [--algorithm <algo>] [--scan-interval <seconds>] <directory>... \r\n"
+            + "       cs-check --daemon [--port <port>] \r\n\r\nOptions",
+            options);
 
         System.exit(exitStatus);
     }
 
+    /**
+     * Tells whether the command line asks for an action that has no GUI.
+     *
+     * @param cmd parsed command line
+     * @return true if the application must run in command-line
+     */
+    public static boolean impliesNoGui(CommandLine cmd) {
+        return cmd.hasOption(CHECK) || cmd.hasOption(FIND_DUPLICATES) || cmd.hasOption(HASH_SET)
+            || cmd.hasOption(DIR_HASH) || cmd.hasOption(DAEMON) || cmd.hasOption(COPY)
+            || cmd.hasOption(ARCHIVE) || cmd.hasOption(DECOMPRESS) || cmd.hasOption(WATCH);
+    }
+
+    /**
+     * Runs the command-line action selected by given command line on the calling thread.
+     *
+     * @param cmd     parsed command line
+     * @param options options the command line was parsed with, used for the help message
+     * @return exit status of the action
+     * @throws ParseException if an option value is invalid
+     * @throws IOException    if the digest cache could not be closed
+     */
+    public static int run(CommandLine cmd, Options options) throws ParseException, IOException {
+
+        // Keeps only hashing algorithms known by the application
+        List<Algs> algos = parseAlgorithms(cmd.getOptionValues(ALGORITHM));
+
+        if (cmd.getArgList().isEmpty() && !cmd.hasOption(DAEMON)) {
+            printHelpMessage(options, 1);
+        }
+
+        int leafSize = parseLeafSize(cmd);
+        List<String> args = cmd.getArgList();
+
+        try (CachingHasher hasher = openCache(cmd); IoScheduler scheduler = buildScheduler(cmd)) {
+            if (cmd.hasOption(DAEMON)) {
+                return serve(cmd, hasher, scheduler);
+            } else if (cmd.hasOption(COPY)) {
+                return copyFiles(cmd, args, algos, hasher, scheduler);
+            } else if (cmd.hasOption(ARCHIVE)) {
+                return hashArchives(args, algos);
+            } else if (cmd.hasOption(DECOMPRESS)) {
+                return hashDecompressed(args, algos);
+            } else if (cmd.hasOption(WATCH)) {
+                return watch(cmd, args, algos.get(0), hasher, scheduler);
+            } else if (cmd.hasOption(FIND_DUPLICATES)) {
+                return findDuplicates(args, algos.get(0), hasher, scheduler, parseFormat(cmd));
+            } else if (cmd.hasOption(DIR_HASH)) {
+                return hashDirectories(args, algos.get(0), cmd.hasOption(MODES), hasher, scheduler);
+            } else if (cmd.hasOption(HASH_SET)) {
+                Algs listAlgo = cmd.hasOption(ALGORITHM) ? algos.get(0) : null;
+                return screenFiles(cmd.getOptionValue(HASH_SET), listAlgo, args, hasher, scheduler,
+                    cmd.hasOption(PROGRESS));
+            } else if (cmd.hasOption(CHECK)) {
+                Algs untaggedAlgo = cmd.hasOption(ALGORITHM) ? algos.get(0) : null;
+                return checkManifests(args, untaggedAlgo, hasher, scheduler);
+            } else {
+                return hashFiles(algos, args, leafSize, hasher, scheduler, cmd.hasOption(PROGRESS));
+            }
+        }
+    }
+
+    /**
+     * Converts given algorithm names to {@code Algs} values. Unknown names are reported and
+     * ignored, SHA256 is used if none remains.
+     *
+     * @param names algorithm names as typed by the user, may be null
+     * @return known algorithms, never empty
+     */
+    public static List<Algs> parseAlgorithms(String[] names) {
+
+        List<Algs> algos = new ArrayList<>();
+
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    Algs algo = Algs.valueOf(name.toUpperCase());
+                    if (!algos.contains(algo)) {
+                        algos.add(algo);
+                    }
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Unknown hashing algorithm " + name + ", ignored");
+                }
+            }
+        }
+
+        if (algos.isEmpty()) {
+            if (names != null) {
+                System.out.println("No known hashing algorithm, default back to SHA256");
+            }
+            algos.add(Algs.SHA256);
+        }
+
+        return algos;
+    }
+
+    /**
+     * Forces the digest providers asked by the command line, such as {@code bc} for every
+     * algorithm implemented by both or {@code sha256=jdk} for a single one.
+     *
+     * @param cmd parsed command line
+     * @throws ParseException if an algorithm or a provider is unknown, or an algorithm has a
+     *                        single provider
+     */
+    public static void applyProviders(CommandLine cmd) throws ParseException {
+
+        String[] values = cmd.getOptionValues(PROVIDER);
+
+        if (values == null) {
+            return;
+        }
+
+        for (String value : values) {
+            int separator = value.indexOf('=');
+
+            try {
+                DigestProviders.Provider provider = DigestProviders.Provider.valueOf(
+                    value.substring(separator + 1).trim().toUpperCase());
+
+                if (separator < 0) {
+                    for (Algs algo : DigestProviders.getShared()) {
+                        DigestProviders.override(algo, provider);
+                    }
+                } else {
+                    DigestProviders.override(Algs.valueOf(value.substring(0, separator).trim().toUpperCase()), provider);
+                }
+
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("Invalid provider " + value + ", expected [algo=]jdk|bc for MD5, SHA1 or SHA2");
+            }
+        }
+    }
+
+    /**
+     * Reads the Merkle tree leaf size, if tree hashes are asked for.
+     *
+     * @param cmd parsed command line
+     * @return leaf size in bytes, 0 if tree hashes are not asked for
+     * @throws ParseException        if a leaf size is given without tree hashes
+     * @throws NumberFormatException if leaf size is not a positive number
+     */
+    public static int parseLeafSize(CommandLine cmd) throws ParseException {
+
+        if (!cmd.hasOption(TREE)) {
+            if (cmd.hasOption(LEAF_SIZE)) {
+                throw new ParseException("--" + LEAF_SIZE + " needs --" + TREE);
+            }
+            return 0;
+        }
+
+        int leafSize = Integer.parseInt(cmd.getOptionValue(LEAF_SIZE, String.valueOf(TreeHasher.DEFAULT_LEAF_SIZE)));
+
+        if (leafSize <= 0) {
+            throw new NumberFormatException("Leaf size must be positive: " + leafSize);
+        }
+
+        return leafSize;
+    }
+
+    /**
+     * Hashes every given file, directory tree or glob pattern with all given algorithms, reading
+     * each file only once, and prints results to console as they come. With a single algorithm
+     * lines look like {@code sha256sum} output, otherwise like its {@code --tag} output so that
+     * each line names its algorithm.
+     *
+     * @param algos algorithms to compute
+     * @param paths paths of the files or directories to hash, or glob patterns
+     * @return 0 if every file was hashed, 1 otherwise
+     */
+    public static int hashFiles(List<Algs> algos, List<String> paths) {
+        try (IoScheduler scheduler = newScheduler(Runtime.getRuntime().availableProcessors(), 0)) {
+            return hashFiles(algos, paths, 0, new CachingHasher(null, false), scheduler, false);
+        }
+    }
+
+    /**
+     * Hashes every given input like {@link #hashFiles(List, List)}, or computes tree hashes with
+     * {@code TreeHasher} if a leaf size is given. Tree hashes are always printed with their name.
+     *
+     * @param algos        algorithms to compute
+     * @param paths        paths of the files or directories to hash, or glob patterns
+     * @param leafSize     Merkle tree leaf size in bytes, 0 for regular hashes
+     * @param hasher       hasher of regular hashes, see {@link #openCache(CommandLine)}
+     * @param scheduler    scheduler of the reads of files, see {@link #buildScheduler(CommandLine)}
+     * @param showProgress true to show the progress of all files on the error output
+     * @return 0 if every file was hashed, 1 otherwise
+     */
+    public static int hashFiles(List<Algs> algos, List<String> paths, int leafSize, CachingHasher hasher,
+                                IoScheduler scheduler, boolean showProgress) {
+        return new BatchHasher(algos, leafSize, hasher, scheduler, showProgress).run(paths);
+    }
+
+    /**
+     * Checks files against every given manifest and prints to console whether each of them is OK,
+     * FAILED or MISSING, as they come.
+     *
+     * @param manifests   paths of the manifests, - standing for the standard input
+     * @param defaultAlgo algorithm of lines not naming theirs, null to infer it from each manifest
+     * @param hasher      hasher of regular hashes, see {@link #openCache(CommandLine)}
+     * @param scheduler   scheduler of the reads of files, see {@link #buildScheduler(CommandLine)}
+     * @return 0 if every file matched, 1 otherwise
+     */
+    public static int checkManifests(List<String> manifests, Algs defaultAlgo, CachingHasher hasher,
+                                     IoScheduler scheduler) {
+        return new ManifestVerifier(defaultAlgo, hasher, scheduler).run(manifests);
+    }
+
+    /**
+     * Hashes every given input like {@link #hashFiles(List, List)} but only prints the files whose
+     * digest belongs to a hash list, indexing the list first if it has no up-to-date index.
+     *
+     * @param list         path of the list of known digests
+     * @param algo         algorithm of the list, null to infer it from its digests
+     * @param paths        paths of the files or directories to screen, or glob patterns
+     * @param hasher       hasher of the digests, see {@link #openCache(CommandLine)}
+     * @param scheduler    scheduler of the reads of files, see {@link #buildScheduler(CommandLine)}
+     * @param showProgress true to show the progress of all files on the error output
+     * @return 0 if every file was hashed, 1 otherwise
+     */
+    public static int screenFiles(String list, Algs algo, List<String> paths, CachingHasher hasher,
+                                  IoScheduler scheduler, boolean showProgress) {
+
+        try (HashSetIndex hashSet = HashSetIndex.open(Paths.get(list), algo, System.err::println)) {
+            return new BatchHasher(hashSet, hasher, scheduler, showProgress).run(paths);
+
+        } catch (IOException e) {
+            System.err.println("Hash set not usable: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Reads the output format of duplicate groups.
+     *
+     * @param cmd parsed command line
+     * @return output format, CSV by default
+     * @throws ParseException if the format is unknown
+     */
+    public static DuplicateFinder.Format parseFormat(CommandLine cmd) throws ParseException {
+
+        String format = cmd.getOptionValue(FORMAT, DuplicateFinder.Format.CSV.name());
+
+        try {
+            return DuplicateFinder.Format.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ParseException("Unknown output format: " + format);
+        }
+    }
+
+    /**
+     * Finds files with identical contents in given directory trees and prints them as groups,
+     * along with the bytes each stage of the search avoided reading.
+     *
+     * @param roots     paths of the directories to search
+     * @param algo      algorithm confirming duplicates
+     * @param hasher    hasher of full hashes, see {@link #openCache(CommandLine)}
+     * @param scheduler scheduler of the reads of files, see {@link #buildScheduler(CommandLine)}
+     * @param format    output format of the groups
+     * @return 0 if every file could be read, 1 otherwise
+     */
+    public static int findDuplicates(List<String> roots, Algs algo, CachingHasher hasher, IoScheduler scheduler,
+                                     DuplicateFinder.Format format) {
+        return new DuplicateFinder(algo, hasher, scheduler, format).run(roots);
+    }
+
+    /**
+     * Computes a single digest of each given directory tree and prints it as a tagged line,
+     * hashing again only the directories in which something changed since the last run.
+     *
+     * @param roots     paths of the directories
+     * @param algo      algorithm of file and directory digests
+     * @param modes     whether permission bits are part of the digests
+     * @param hasher    hasher of files, also caching directory digests, see {@link #openCache(CommandLine)}
+     * @param scheduler scheduler of the reads of files, see {@link #buildScheduler(CommandLine)}
+     * @return 0 if every directory could be hashed, 1 otherwise
+     */
+    public static int hashDirectories(List<String> roots, Algs algo, boolean modes, CachingHasher hasher,
+                                      IoScheduler scheduler) {
+        return new DirectoryHasher(algo, modes, hasher, scheduler).run(roots);
+    }
+
+    /**
+     * Copies files or directory trees while hashing them, then verifies the copies if asked.
+     *
+     * @param cmd       parsed command line, telling whether to verify and where to write digests
+     * @param paths     sources followed by the destination
+     * @param algos     algorithms computed while copying
+     * @param hasher    hasher caching the digests, see {@link #openCache(CommandLine)}
+     * @param scheduler scheduler of the copies, see {@link #buildScheduler(CommandLine)}
+     * @return 0 if every file was copied, and verified if asked, 1 otherwise
+     * @throws ParseException if no destination is given
+     */
+    public static int copyFiles(CommandLine cmd, List<String> paths, List<Algs> algos, CachingHasher hasher,
+                                IoScheduler scheduler) throws ParseException {
+
+        if (paths.size() < 2) {
+            throw new ParseException("--copy needs a source and a destination");
+        }
+
+        return new FileCopier(algos, cmd.hasOption(VERIFY), hasher, scheduler).run(paths, cmd.getOptionValue(MANIFEST));
+    }
+
+    /**
+     * Hashes the files stored in archives without extracting them and prints a manifest of their
+     * entries, which can be checked against the extracted files.
+     *
+     * @param archives paths of the archives
+     * @param algos    algorithms to compute
+     * @return 0 if every entry was hashed, 1 otherwise
+     */
+    public static int hashArchives(List<String> archives, List<Algs> algos) {
+        return new ArchiveHasher(algos).run(archives);
+    }
+
+    /**
+     * Hashes the decompressed contents of compressed files, decompressing them in parallel where
+     * their format allows it, and prints their digests under their decompressed names.
+     *
+     * @param paths paths of gzip, xz or zstd files
+     * @param algos algorithms to compute
+     * @return 0 if every file was hashed, 1 otherwise
+     */
+    public static int hashDecompressed(List<String> paths, List<Algs> algos) {
+        return new DecompressingHasher(algos).run(paths);
+    }
+
+    /**
+     * Reports the changes of the files of given directory trees against their baseline, as they
+     * happen, until the end of the JVM.
+     *
+     * @param cmd       parsed command line, telling the period of scans
+     * @param roots     paths of the directories
+     * @param algo      algorithm of the digests
+     * @param hasher    hasher whose digest cache is updated, see {@link #openCache(CommandLine)}
+     * @param scheduler scheduler of the reads of files, see {@link #buildScheduler(CommandLine)}
+     * @return 1 if watching could not start, never returns otherwise
+     * @throws NumberFormatException if the period of scans is not a positive number
+     */
+    public static int watch(CommandLine cmd, List<String> roots, Algs algo, CachingHasher hasher,
+                            IoScheduler scheduler) {
+
+        long scanSeconds = Long.parseLong(cmd.getOptionValue(SCAN_INTERVAL,
+            String.valueOf(IntegrityWatcher.DEFAULT_SCAN_SECONDS)));
+
+        if (scanSeconds <= 0) {
+            throw new NumberFormatException("Period of scans must be positive: " + scanSeconds);
+        }
+
+        return new IntegrityWatcher(roots, algo, scanSeconds, hasher, scheduler).run();
+    }
+
+    /**
+     * Serves hash requests of other processes from this JVM, keeping it and the digest cache warm,
+     * until a client stops it or the JVM ends.
+     *
+     * @param cmd       parsed command line, telling the port
+     * @param hasher    hasher of files, see {@link #openCache(CommandLine)}
+     * @param scheduler scheduler of the reads of files, see {@link #buildScheduler(CommandLine)}
+     * @return 0 once stopped, 1 if the daemon could not start
+     * @throws NumberFormatException if the port is not a number
+     */
+    public static int serve(CommandLine cmd, CachingHasher hasher, IoScheduler scheduler) {
+        return new HashDaemon(Integer.parseInt(cmd.getOptionValue(PORT, "0")), hasher, scheduler).run();
+    }
+
+    /**
+     * Builds the scheduler of file reads with the numbers of threads asked by the command line.
+     *
+     * @param cmd parsed command line
+     * @return scheduler to close once done
+     * @throws NumberFormatException if a number of threads is not a positive number
+     */
+    public static IoScheduler buildScheduler(CommandLine cmd) {
+
+        int threads = parseThreads(cmd, THREADS, Runtime.getRuntime().availableProcessors());
+        int ioThreads = parseThreads(cmd, IO_THREADS, 0);
+
+        return newScheduler(threads, ioThreads);
+    }
+
+    private static IoScheduler newScheduler(int threads, int ioThreads) {
+        return new IoScheduler(threads, ioThreads, MAX_PENDING, "Hash Worker");
+    }
+
+    private static int parseThreads(CommandLine cmd, String option, int defaultValue) {
+
+        if (!cmd.hasOption(option)) {
+            return defaultValue;
+        }
+
+        int threads = Integer.parseInt(cmd.getOptionValue(option));
+
+        if (threads <= 0) {
+            throw new NumberFormatException("Number of threads must be positive: " + threads);
+        }
+
+        return threads;
+    }
+
+    /**
+     * Opens the digest cache of the application folder as asked by the command line. If it cannot
+     * be opened, for instance because another instance uses it, files are hashed without it.
+     *
+     * @param cmd parsed command line
+     * @return hasher to close once done
+     */
+    public static CachingHasher openCache(CommandLine cmd) {
+
+        boolean resume = cmd.hasOption(RESUME);
+
+        if (cmd.hasOption(NO_CACHE)) {
+            return new CachingHasher(null, false, resume);
+        }
+
+        try {
+            DigestCache cache = DigestCache.open(AppFolder.resolve(DigestCache.FILE_NAME));
+            return new CachingHasher(cache, cmd.hasOption(VERIFY_CACHE), resume);
+
+        } catch (IOException e) {
+            System.err.println("Digest cache not used: " + e.getMessage());
+            return new CachingHasher(null, false, resume);
+        }
+    }
+
 }
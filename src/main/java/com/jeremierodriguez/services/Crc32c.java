@@ -0,0 +1,79 @@
+package com.jeremierodriguez.services;
+
+import java.util.zip.Checksum;
+
+
+/**
+ * CRC32C (Castagnoli) {@code Checksum}, for Java 8 which lacks {@code java.util.zip.CRC32C}. It
+ * processes eight bytes per step with eight lookup tables, which is far slower than the JDK's
+ * intrinsic but several times faster than a byte at a time.
+ *
+ * @author Jeremie Rodriguez
+ */
+class Crc32c implements Checksum {
+
+    // Reversed Castagnoli polynomial
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    private static final int[][] TABLES = new int[8][256];
+
+    private int crc = 0xFFFFFFFF;
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int value = i;
+            for (int bit = 0; bit < 8; bit++) {
+                value = (value & 1) != 0 ? value >>> 1 ^ POLYNOMIAL : value >>> 1;
+            }
+            TABLES[0][i] = value;
+        }
+
+        for (int i = 0; i < 256; i++) {
+            for (int table = 1; table < TABLES.length; table++) {
+                int previous = TABLES[table - 1][i];
+                TABLES[table][i] = previous >>> 8 ^ TABLES[0][previous & 0xFF];
+            }
+        }
+    }
+
+    @Override
+    public void update(int b) {
+        crc = crc >>> 8 ^ TABLES[0][(crc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+
+        int value = crc;
+        int position = off;
+        int end = off + len;
+
+        while (end - position >= 8) {
+            int low = value ^ (b[position] & 0xFF | (b[position + 1] & 0xFF) << 8
+                | (b[position + 2] & 0xFF) << 16 | (b[position + 3] & 0xFF) << 24);
+
+            value = TABLES[7][low & 0xFF] ^ TABLES[6][low >>> 8 & 0xFF]
+                ^ TABLES[5][low >>> 16 & 0xFF] ^ TABLES[4][low >>> 24]
+                ^ TABLES[3][b[position + 4] & 0xFF] ^ TABLES[2][b[position + 5] & 0xFF]
+                ^ TABLES[1][b[position + 6] & 0xFF] ^ TABLES[0][b[position + 7] & 0xFF];
+            position += 8;
+        }
+
+        while (position < end) {
+            value = value >>> 8 ^ TABLES[0][(value ^ b[position++]) & 0xFF];
+        }
+
+        crc = value;
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+
+}
@@ -0,0 +1,690 @@
+package com.jeremierodriguez.services;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStream;
+import com.jeremierodriguez.util.ConsoleWriter;
+import com.jeremierodriguez.util.DaemonThreadFactory;
+import com.jeremierodriguez.util.DigestFormat;
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+import org.tukaani.xz.XZInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+
+/**
+ * This class hashes the decompressed contents of gzip, xz and zstd files, for comparison with the
+ * checksums vendors publish of their uncompressed payloads. Decompression is the bottleneck, well
+ * slower than digests, so it is taken off the digesting thread:
+ * <ul>
+ * <li>files made of independent members whose sizes are known up front, BGZF gzip, multi-block xz
+ * and zstd made of several frames such as the seekable format, are cut into segments decompressed
+ * in parallel, then digested in order</li>
+ * <li>other files are decompressed on a thread of their own, which fills a bounded ring of
+ * buffers while the calling thread digests them</li>
+ * </ul>
+ * Digests are printed under the name of the file without its compression suffix, as it would be
+ * once decompressed.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class DecompressingHasher {
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int CHUNK_SIZE = 1048576;
+    private static final int RING_SIZE = 4;
+    private static final long POLL_MILLIS = 100;
+
+    // Members are grouped into segments of about this decompressed size, none larger than the
+    // maximum so that segments held in memory stay bounded
+    private static final int SEGMENT_SIZE = 4194304;
+    private static final int MAX_SEGMENT_SIZE = 67108864;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int GZIP_EXTRA_FLAG = 4;
+    private static final int BGZF_HEADER_SIZE = 18;
+    private static final int ZSTD_MAGIC = 0xFD2FB528;
+    private static final int ZSTD_SKIPPABLE_MAGIC = 0x184D2A50;
+    private static final byte[] XZ_MAGIC = {(byte) 0xFD, '7', 'z', 'X', 'Z', 0};
+
+    private static final Chunk END = new Chunk(0);
+    private static final ExecutorService DECOMPRESSORS = Executors.newCachedThreadPool(
+        new DaemonThreadFactory("Decompress Thread"));
+
+    private final List<Algs> algos;
+    private ExecutorService workers = null;
+    private ConsoleWriter out = null;
+    private ConsoleWriter err = null;
+    private boolean failed = false;
+    private long bytesHashed = 0;
+    private int files = 0;
+    private int parallelFiles = 0;
+
+    /**
+     * Compression formats, told by the first bytes of a file.
+     */
+    enum Format {
+        GZIP(".gz", ".tgz"), XZ(".xz", ".txz"), ZSTD(".zst", ".tzst");
+
+        private final String suffix;
+        private final String tarSuffix;
+
+        Format(String suffix, String tarSuffix) {
+            this.suffix = suffix;
+            this.tarSuffix = tarSuffix;
+        }
+
+        /**
+         * Returns the name a file would have once decompressed.
+         */
+        String decompressedName(String name) {
+
+            String lowerCase = name.toLowerCase(Locale.ROOT);
+
+            if (lowerCase.endsWith(suffix)) {
+                return name.substring(0, name.length() - suffix.length());
+            } else if (lowerCase.endsWith(tarSuffix)) {
+                return name.substring(0, name.length() - tarSuffix.length()) + ".tar";
+            }
+
+            return name;
+        }
+    }
+
+    /**
+     * Decompressed bytes handed from the decompressing thread to the digesting one.
+     */
+    private static final class Chunk {
+
+        final byte[] bytes;
+        int length = 0;
+
+        Chunk(int size) {
+            bytes = new byte[size];
+        }
+    }
+
+    /**
+     * Consecutive members of a file decompressed as a whole by a worker.
+     */
+    static final class Segment {
+
+        long offset = 0;
+        long compressedLength = 0;
+        int size = 0;
+        int firstBlock = 0;
+        int blockCount = 0;
+    }
+
+    /**
+     * Constructor needing the algorithms to compute.
+     *
+     * @param algos algorithms to compute, all of them from a single decompression of each file
+     */
+    public DecompressingHasher(List<Algs> algos) {
+        this.algos = algos;
+    }
+
+    /**
+     * Hashes the decompressed contents of given files and prints their digests.
+     *
+     * @param paths paths of gzip, xz or zstd files
+     * @return 0 if every file was hashed, 1 otherwise
+     */
+    public int run(List<String> paths) {
+
+        workers = Executors.newFixedThreadPool(THREADS, new DaemonThreadFactory("Decompress Worker"));
+
+        try (ConsoleWriter outWriter = new ConsoleWriter(); ConsoleWriter errWriter = new ConsoleWriter(FileDescriptor.err)) {
+            out = outWriter;
+            err = errWriter;
+
+            for (String path : paths) {
+                try {
+                    hash(path);
+                } catch (NoSuchFileException e) {
+                    fail(path, "No such file");
+                } catch (InterruptedIOException e) {
+                    fail(path, "Interrupted");
+                    break;
+                } catch (IOException | GeneralSecurityException e) {
+                    fail(path, e.getMessage());
+                }
+            }
+
+            err.println(files + " files hashed (" + String.format(Locale.ROOT, "%.1f MB", bytesHashed / 1048576.0)
+                + " decompressed, " + parallelFiles + " of them in parallel)");
+
+        } finally {
+            workers.shutdownNow();
+        }
+
+        return failed ? 1 : 0;
+    }
+
+    private void hash(String path) throws IOException, GeneralSecurityException {
+
+        Path file = Paths.get(path);
+        Format format = detect(file);
+        MultiDigester digester = new MultiDigester(algos);
+        List<Segment> segments;
+        long length = 0;
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            segments = plan(file, channel, format);
+
+            if (segments != null) {
+                length = hashSegments(file, channel, format, segments, digester, workers);
+                parallelFiles++;
+            }
+        }
+
+        if (segments == null) {
+            length = hashStream(file, format, digester);
+        }
+
+        files++;
+        bytesHashed += length;
+        Map<Algs, byte[]> hashes = digester.digest();
+
+        for (Map.Entry<Algs, byte[]> entry : hashes.entrySet()) {
+            out.println(ManifestLine.format(entry.getKey().name(), format.decompressedName(path),
+                DigestFormat.toHex(entry.getValue()), algos.size() > 1));
+        }
+    }
+
+    private static Format detect(Path file) throws IOException {
+
+        byte[] magic = new byte[XZ_MAGIC.length];
+        int length = 0;
+
+        try (InputStream in = Files.newInputStream(file)) {
+            int read = 0;
+            while (length < magic.length && read >= 0) {
+                read = in.read(magic, length, magic.length - length);
+                length += Math.max(read, 0);
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(magic).order(ByteOrder.LITTLE_ENDIAN);
+
+        if (length >= 2 && (buffer.getShort(0) & 0xFFFF) == GZIP_MAGIC) {
+            return Format.GZIP;
+        } else if (length >= 4 && (buffer.getInt(0) == ZSTD_MAGIC || isSkippable(buffer.getInt(0)))) {
+            return Format.ZSTD;
+        } else if (length == XZ_MAGIC.length && ByteBuffer.wrap(XZ_MAGIC).equals(ByteBuffer.wrap(magic))) {
+            return Format.XZ;
+        }
+
+        throw new IOException("Not a gzip, xz or zstd file");
+    }
+
+    // Decompression on a single thread, pipelined with digests
+
+    static long hashStream(Path file, Format format, MultiDigester digester) throws IOException {
+
+        StreamDecompressor decompressor = new StreamDecompressor(file, format);
+        Future<?> task = DECOMPRESSORS.submit(decompressor);
+        long length = 0;
+
+        try {
+            Chunk chunk;
+            while ((chunk = decompressor.filled.take()) != END) {
+                digester.accept(ByteBuffer.wrap(chunk.bytes, 0, chunk.length));
+                length += chunk.length;
+                decompressor.free.add(chunk);
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+
+        } finally {
+            decompressor.stopped = true;
+            await(task);
+        }
+
+        if (decompressor.failure != null) {
+            throw decompressor.failure;
+        }
+
+        return length;
+    }
+
+    /**
+     * Decompresses a file into a ring of chunks, blocking as soon as the digesting thread is a
+     * full ring behind.
+     */
+    private static final class StreamDecompressor implements Runnable {
+
+        final BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(RING_SIZE);
+        // One extra slot so the end marker fits behind a full ring
+        final BlockingQueue<Chunk> filled = new ArrayBlockingQueue<>(RING_SIZE + 1);
+        private final Path file;
+        private final Format format;
+        volatile boolean stopped = false;
+        volatile IOException failure = null;
+
+        StreamDecompressor(Path file, Format format) {
+            this.file = file;
+            this.format = format;
+
+            for (int i = 0; i < RING_SIZE; i++) {
+                free.add(new Chunk(CHUNK_SIZE));
+            }
+        }
+
+        @Override
+        public void run() {
+
+            try (InputStream in = open(file, format)) {
+
+                int read = 0;
+
+                while (read >= 0 && !stopped) {
+                    Chunk chunk = free.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (chunk == null) {
+                        continue;
+                    }
+
+                    chunk.length = 0;
+                    while (chunk.length < chunk.bytes.length
+                        && (read = in.read(chunk.bytes, chunk.length, chunk.bytes.length - chunk.length)) >= 0) {
+                        chunk.length += read;
+                    }
+
+                    // Never blocks, the ring holds every chunk and the end marker at most
+                    if (chunk.length > 0) {
+                        filled.add(chunk);
+                    }
+                }
+
+            } catch (IOException e) {
+                failure = e;
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = new InterruptedIOException(e.getMessage());
+
+            } finally {
+                filled.add(END);
+            }
+        }
+    }
+
+    private static InputStream open(Path file, Format format) throws IOException {
+
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), CHUNK_SIZE);
+
+        switch (format) {
+            case GZIP:
+                return new GZIPInputStream(in, CHUNK_SIZE);
+            case XZ:
+                return new XZInputStream(in);
+            default:
+                return new ZstdInputStream(in);
+        }
+    }
+
+    // Decompression of independent members in parallel
+
+    /**
+     * Cuts a file into segments of whole members, without decompressing anything.
+     *
+     * @return segments in file order, null if the file cannot be decompressed in parallel or if
+     * there is a single processor
+     */
+    private static List<Segment> plan(Path file, FileChannel channel, Format format) throws IOException {
+
+        // Segments only pay off with other cores to decompress them
+        if (THREADS == 1) {
+            return null;
+        }
+
+        List<Segment> segments;
+
+        switch (format) {
+            case GZIP:
+                segments = planGzip(channel);
+                break;
+            case XZ:
+                segments = planXz(file);
+                break;
+            default:
+                segments = planZstd(channel);
+                break;
+        }
+
+        return segments != null && segments.size() > 1 ? segments : null;
+    }
+
+    /**
+     * Plans BGZF files, gzip members telling their compressed length in an extra field and their
+     * decompressed length in their trailer. Any other gzip file is read as a stream.
+     */
+    static List<Segment> planGzip(FileChannel channel) throws IOException {
+
+        List<Segment> segments = new ArrayList<>();
+        Segment segment = null;
+        long position = 0;
+        long length = channel.size();
+
+        while (position < length) {
+            if (length - position < BGZF_HEADER_SIZE) {
+                return null;
+            }
+
+            ByteBuffer header = readAt(channel, position, BGZF_HEADER_SIZE);
+            boolean bgzf = (header.getShort(0) & 0xFFFF) == GZIP_MAGIC && (header.get(3) & GZIP_EXTRA_FLAG) != 0
+                && header.getShort(10) == 6 && header.get(12) == 'B' && header.get(13) == 'C' && header.getShort(14) == 2;
+
+            if (!bgzf) {
+                return null;
+            }
+
+            long memberLength = (header.getShort(16) & 0xFFFF) + 1;
+            if (position + memberLength > length) {
+                return null;
+            }
+
+            int size = readAt(channel, position + memberLength - 4, 4).getInt(0);
+            segment = addMember(segments, segment, position, memberLength, size & 0xFFFFFFFFL);
+            if (segment == null) {
+                return null;
+            }
+            position += memberLength;
+        }
+
+        return segments;
+    }
+
+    /**
+     * Plans zstd files made of several frames telling their decompressed length, hopping from
+     * block header to block header. Skippable frames, such as the seek table of the seekable
+     * format, are part of the segment they are in.
+     */
+    static List<Segment> planZstd(FileChannel channel) throws IOException {
+
+        List<Segment> segments = new ArrayList<>();
+        Segment segment = null;
+        long position = 0;
+        long length = channel.size();
+
+        while (position < length) {
+            if (length - position < 8) {
+                return null;
+            }
+
+            ByteBuffer header = readAt(channel, position, (int) Math.min(18, length - position));
+            int magic = header.getInt(0);
+
+            if (isSkippable(magic)) {
+                long frameLength = 8 + (header.getInt(4) & 0xFFFFFFFFL);
+                segment = addMember(segments, segment, position, frameLength, 0);
+                position += frameLength;
+                continue;
+            }
+
+            if (magic != ZSTD_MAGIC) {
+                return null;
+            }
+
+            int descriptor = header.get(4) & 0xFF;
+            int sizeFlag = descriptor >>> 6;
+            boolean singleSegment = (descriptor & 0x20) != 0;
+            boolean checksum = (descriptor & 0x04) != 0;
+            int dictionaryIdLength = new int[]{0, 1, 2, 4}[descriptor & 0x03];
+            int sizeLength = new int[]{singleSegment ? 1 : 0, 2, 4, 8}[sizeFlag];
+
+            if (sizeLength == 0) {
+                return null;
+            }
+
+            int sizeOffset = 5 + (singleSegment ? 0 : 1) + dictionaryIdLength;
+            if (sizeOffset + sizeLength > header.limit()) {
+                return null;
+            }
+
+            long size;
+            switch (sizeLength) {
+                case 1:
+                    size = header.get(sizeOffset) & 0xFF;
+                    break;
+                case 2:
+                    size = (header.getShort(sizeOffset) & 0xFFFF) + 256;
+                    break;
+                case 4:
+                    size = header.getInt(sizeOffset) & 0xFFFFFFFFL;
+                    break;
+                default:
+                    size = header.getLong(sizeOffset);
+                    break;
+            }
+
+            long frameEnd = position + sizeOffset + sizeLength;
+            boolean last = false;
+
+            while (!last) {
+                if (frameEnd + 3 > length) {
+                    return null;
+                }
+                ByteBuffer block = readAt(channel, frameEnd, 3);
+                int blockHeader = (block.get(0) & 0xFF) | (block.get(1) & 0xFF) << 8 | (block.get(2) & 0xFF) << 16;
+                last = (blockHeader & 1) != 0;
+                int type = blockHeader >>> 1 & 3;
+                // RLE blocks store a single byte repeated over their size
+                frameEnd += 3 + (type == 1 ? 1 : blockHeader >>> 3);
+            }
+
+            if (checksum) {
+                frameEnd += 4;
+            }
+
+            segment = addMember(segments, segment, position, frameEnd - position, size);
+            if (segment == null) {
+                return null;
+            }
+            position = frameEnd;
+        }
+
+        return segments;
+    }
+
+    /**
+     * Plans xz files made of several blocks, as written by multi-threaded xz, from their index.
+     */
+    static List<Segment> planXz(Path file) throws IOException {
+
+        List<Segment> segments = new ArrayList<>();
+        Segment segment = null;
+
+        try (SeekableXZInputStream in = new SeekableXZInputStream(new SeekableFileInputStream(file.toFile()))) {
+            for (int i = 0; i < in.getBlockCount(); i++) {
+                Segment previous = segment;
+                segment = addMember(segments, segment, in.getBlockCompPos(i), in.getBlockCompSize(i),
+                    in.getBlockSize(i));
+                if (segment == null) {
+                    return null;
+                }
+                if (segment != previous) {
+                    segment.firstBlock = i;
+                }
+                segment.blockCount++;
+            }
+        }
+
+        return segments;
+    }
+
+    /**
+     * Adds a member to the current segment, or to a new one if it is full.
+     *
+     * @return segment the member was added to, null if the member is too large
+     */
+    private static Segment addMember(List<Segment> segments, Segment segment, long offset, long length, long size) {
+
+        if (size > MAX_SEGMENT_SIZE) {
+            return null;
+        }
+
+        Segment current = segment;
+
+        if (current == null || current.size >= SEGMENT_SIZE || current.size + size > MAX_SEGMENT_SIZE) {
+            current = new Segment();
+            current.offset = offset;
+            segments.add(current);
+        }
+
+        current.compressedLength = offset + length - current.offset;
+        current.size += (int) size;
+
+        return current;
+    }
+
+    static long hashSegments(Path file, FileChannel channel, Format format, List<Segment> segments,
+                             MultiDigester digester, ExecutorService workers) throws IOException {
+
+        Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        int next = 0;
+        long length = 0;
+
+        try {
+            while (next < segments.size() || !pending.isEmpty()) {
+
+                // Keeps every worker busy, with as many segments ahead waiting for the digest
+                while (next < segments.size() && pending.size() < THREADS * 2) {
+                    Segment segment = segments.get(next++);
+                    pending.add(workers.submit(() -> decompress(file, channel, format, segment)));
+                }
+
+                byte[] bytes = pending.poll().get();
+                digester.accept(ByteBuffer.wrap(bytes));
+                length += bytes.length;
+            }
+
+            return length;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+
+        } finally {
+            pending.forEach(future -> future.cancel(true));
+        }
+    }
+
+    private static byte[] decompress(Path file, FileChannel channel, Format format, Segment segment)
+        throws IOException {
+
+        byte[] bytes = new byte[segment.size];
+
+        if (format == Format.XZ) {
+            try (SeekableXZInputStream in = new SeekableXZInputStream(new SeekableFileInputStream(file.toFile()))) {
+                in.seekToBlock(segment.firstBlock);
+                readFully(in, bytes);
+            }
+            return bytes;
+        }
+
+        byte[] compressed = readAt(channel, segment.offset, (int) segment.compressedLength).array();
+
+        if (format == Format.ZSTD) {
+            long size = Zstd.decompressByteArray(bytes, 0, bytes.length, compressed, 0, compressed.length);
+            if (Zstd.isError(size)) {
+                throw new IOException(Zstd.getErrorName(size));
+            }
+            if (size != bytes.length) {
+                throw new IOException("Frame shorter than its announced size");
+            }
+            return bytes;
+        }
+
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed), CHUNK_SIZE)) {
+            readFully(in, bytes);
+            if (in.read() >= 0) {
+                throw new IOException("Member longer than its announced size");
+            }
+        }
+
+        return bytes;
+    }
+
+    private static void readFully(InputStream in, byte[] bytes) throws IOException {
+
+        int length = 0;
+
+        while (length < bytes.length) {
+            int read = in.read(bytes, length, bytes.length - length);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of compressed data");
+            }
+            length += read;
+        }
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of compressed data");
+            }
+        }
+
+        return buffer;
+    }
+
+    private static boolean isSkippable(int magic) {
+        return (magic & 0xFFFFFFF0) == ZSTD_SKIPPABLE_MAGIC;
+    }
+
+    private static void await(Future<?> future) throws IOException {
+
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void fail(String path, String message) {
+        failed = true;
+        err.println(path + ": " + message);
+    }
+
+}
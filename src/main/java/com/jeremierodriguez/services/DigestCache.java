@@ -0,0 +1,789 @@
+package com.jeremierodriguez.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+
+/**
+ * Persistent cache of file digests, so that files which did not change since they were last
+ * hashed are not read again. An entry is keyed by the file's absolute path and the algorithm, and
+ * is only returned while the file's size, last modification time and file key (the inode on Unix)
+ * are the ones it was hashed with.
+ * <p>
+ * Entries are stored in an open addressing hash table of fixed size slots which is memory-mapped,
+ * so that lookups cost a few probes whatever the number of entries and opening a cache of millions
+ * of them reads nothing onto the heap. Entries are also dropped when:
+ * <ul>
+ * <li>the file was modified less than two seconds before being hashed, as it may have changed
+ * again without its modification time telling so</li>
+ * <li>their checksum does not match, which happens if the machine stopped while writing them</li>
+ * <li>they were not used for 90 days, when the table is compacted, which happens whenever it
+ * needs to grow and at least every 30 days</li>
+ * </ul>
+ * Digests of directory trees are kept alongside, keyed by the label of the tree digest instead of
+ * an algorithm and only returned while the signature of the metadata of the tree is unchanged.
+ * <p>
+ * Growing or compacting the table writes a new one, so that the cache file only holds the
+ * generation of the current table, whose file is named after it, such as digests.cache.3. A file
+ * is never replaced while it may be mapped, which Windows does not allow.
+ * <p>
+ * A cache can be opened by several processes at a time, such as a daemon and command-line runs.
+ * Each of them holds a shared lock while it has the cache open. Writes take an exclusive lock.
+ * Lookups take none, a slot being written meanwhile failing its checksum. Both switch to the
+ * current table as soon as the generation in the cache file changes. Tables left behind and
+ * periodic compaction are handled by a process opening the cache while no other one has it open.
+ * It is thread-safe.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class DigestCache implements AutoCloseable {
+
+    public static final String FILE_NAME = "digests.cache";
+
+    private static final String LOCK_SUFFIX = ".lock";
+
+    // Bytes of the lock file locked exclusively by writers, and shared by every process having
+    // the cache open
+    private static final long WRITE_REGION = 0;
+    private static final long OPEN_REGION = 1;
+
+    private static final int MAGIC = 0x43534443;
+    private static final int HEAD_MAGIC = 0x43534448;
+    private static final int VERSION = 2;
+
+    // Cache file: magic, version and generation of the current table
+    private static final int HEAD_SIZE = 64;
+    private static final int GENERATION_OFFSET = 8;
+
+    // Header: magic, version, slot count, entry count and day of the last compaction
+    private static final int HEADER_SIZE = 64;
+    private static final int VERSION_OFFSET = 4;
+    private static final int SLOTS_OFFSET = 8;
+    private static final int ENTRIES_OFFSET = 16;
+    private static final int COMPACTED_DAY_OFFSET = 24;
+
+    // Slot: key, file state when hashed, checksum of all but itself and the day of last use, digest
+    private static final int SLOT_SIZE = 128;
+    private static final int KEY_HI = 0;
+    private static final int KEY_LO = 8;
+    private static final int KEY_SIZE = 16;
+    private static final int SIZE = 16;
+    private static final int MODIFIED = 24;
+    private static final int FILE_KEY = 32;
+    private static final int STORED = 40;
+    private static final int CRC = 48;
+    private static final int USED_DAY = 52;
+    private static final int DIGEST_LENGTH = 56;
+    private static final int DIGEST = 64;
+    private static final int MAX_DIGEST_LENGTH = SLOT_SIZE - DIGEST;
+
+    // Slots are mapped by segments of 1 GiB, a single mapping being limited to 2 GiB
+    private static final int SEGMENT_SHIFT = 23;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private static final long INITIAL_SLOTS = 16384;
+    private static final int MAX_LOAD_PERCENT = 50;
+
+    static final long RACY_MILLIS = 2000;
+    private static final int MAX_IDLE_DAYS = 90;
+    private static final int COMPACTION_PERIOD_DAYS = 30;
+
+    private static final ThreadLocal<MessageDigest> FINGERPRINT = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    });
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[SLOT_SIZE]);
+
+    private final Path file;
+    private final FileChannel lockChannel;
+    private final FileLock openLock;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Head head = null;
+    private volatile Table table = null;
+
+    private DigestCache(Path file, FileChannel lockChannel, FileLock openLock, boolean alone) throws IOException {
+
+        this.file = file;
+        this.lockChannel = lockChannel;
+        this.openLock = openLock;
+
+        FileLock writeLock = lockChannel.lock(WRITE_REGION, 1, false);
+
+        try {
+            head = Head.open(file);
+
+            try {
+                table = openTable(head.generation());
+
+                // Starts over from an empty table if it is missing, truncated or of another version
+                if (table == null) {
+                    replaceTable(Table.create(tableFile(head.generation() + 1), head.generation() + 1,
+                        INITIAL_SLOTS));
+                }
+
+                if (alone) {
+                    pruneTables();
+
+                    if (today() - table.compactedDay() >= COMPACTION_PERIOD_DAYS) {
+                        rebuild();
+                    }
+                }
+
+            } catch (IOException | RuntimeException e) {
+                if (table != null) {
+                    table.close();
+                }
+                head.close();
+                throw e;
+            }
+        } finally {
+            writeLock.release();
+        }
+    }
+
+    /**
+     * Opens a cache file, creating it if needed.
+     *
+     * @param file path of the cache file
+     * @return opened cache, to be closed once done
+     * @throws IOException if the file could not be opened
+     */
+    public static DigestCache open(Path file) throws IOException {
+
+        FileChannel lockChannel = FileChannel.open(file.resolveSibling(file.getFileName() + LOCK_SUFFIX),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            FileLock exclusive = lockChannel.tryLock(OPEN_REGION, 1, false);
+            boolean alone = exclusive != null;
+
+            if (exclusive != null) {
+                exclusive.release();
+            }
+
+            FileLock openLock = lockChannel.lock(OPEN_REGION, 1, true);
+
+            return new DigestCache(file, lockChannel, openLock, alone);
+
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the cached digest of a file, if it is still valid.
+     *
+     * @param path  path of the file
+     * @param attrs current attributes of the file
+     * @param algo  algorithm of the digest
+     * @return cached digest, or null if there is none or the file may have changed since
+     */
+    public byte[] get(Path path, BasicFileAttributes attrs, Algs algo) {
+        return lookup(fingerprint(path, algo.name()), attrs.size(), modified(attrs), fileKey(attrs));
+    }
+
+    /**
+     * Returns the cached digest of a directory tree, if its signature did not change.
+     *
+     * @param path      path of the directory
+     * @param label     label of the digest, telling its algorithm and options
+     * @param signature current signature of the metadata of the whole tree
+     * @return cached digest, or null if there is none or the tree changed since
+     */
+    public byte[] getTree(Path path, String label, long signature) {
+        return lookup(fingerprint(path, label), signature, 0, 0);
+    }
+
+    private byte[] lookup(byte[] fingerprint, long size, long modified, long fileKey) {
+
+        ByteBuffer key = ByteBuffer.wrap(fingerprint);
+        long hi = key.getLong(KEY_HI);
+        long lo = key.getLong(KEY_LO);
+        byte[] bytes = SCRATCH.get();
+        ByteBuffer entry = ByteBuffer.wrap(bytes);
+
+        if (table.generation != head.generation()) {
+            lock.writeLock().lock();
+
+            try {
+                reopenIfReplaced();
+            } catch (IOException e) {
+                // Reads the previous table until the current one can be opened
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        lock.readLock().lock();
+
+        try {
+            long slot = table.probe(hi, lo);
+
+            if (table.isEmpty(slot)) {
+                return null;
+            }
+
+            table.read(slot, bytes);
+
+            if (entry.getInt(CRC) != crc(bytes) || entry.getLong(SIZE) != size
+                || entry.getLong(MODIFIED) != modified || entry.getLong(FILE_KEY) != fileKey
+                || TimeUnit.NANOSECONDS.toMillis(modified) + RACY_MILLIS > entry.getLong(STORED)) {
+                return null;
+            }
+
+            table.touch(slot, today());
+
+            return Arrays.copyOfRange(bytes, DIGEST, DIGEST + entry.get(DIGEST_LENGTH));
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores the digest of a file, replacing any previous one.
+     *
+     * @param path   path of the file
+     * @param attrs  attributes of the file when it was hashed
+     * @param algo   algorithm of the digest
+     * @param digest digest of the file
+     * @throws IOException if the table had to grow and could not
+     */
+    public void put(Path path, BasicFileAttributes attrs, Algs algo, byte[] digest) throws IOException {
+        store(fingerprint(path, algo.name()), attrs.size(), modified(attrs), fileKey(attrs), digest);
+    }
+
+    /**
+     * Stores the digest of a directory tree, replacing any previous one.
+     *
+     * @param path      path of the directory
+     * @param label     label of the digest, telling its algorithm and options
+     * @param signature signature of the metadata of the whole tree when it was hashed
+     * @param digest    digest of the tree
+     * @throws IOException if the table had to grow and could not
+     */
+    public void putTree(Path path, String label, long signature, byte[] digest) throws IOException {
+        store(fingerprint(path, label), signature, 0, 0, digest);
+    }
+
+    private void store(byte[] fingerprint, long size, long modified, long fileKey, byte[] digest) throws IOException {
+
+        if (digest.length > MAX_DIGEST_LENGTH) {
+            return;
+        }
+
+        byte[] bytes = SCRATCH.get();
+        Arrays.fill(bytes, (byte) 0);
+        System.arraycopy(fingerprint, 0, bytes, KEY_HI, KEY_SIZE);
+
+        ByteBuffer entry = ByteBuffer.wrap(bytes);
+        entry.putLong(SIZE, size);
+        entry.putLong(MODIFIED, modified);
+        entry.putLong(FILE_KEY, fileKey);
+        entry.putLong(STORED, System.currentTimeMillis());
+        entry.putInt(USED_DAY, today());
+        entry.put(DIGEST_LENGTH, (byte) digest.length);
+        System.arraycopy(digest, 0, bytes, DIGEST, digest.length);
+        entry.putInt(CRC, crc(bytes));
+
+        long hi = entry.getLong(KEY_HI);
+        long lo = entry.getLong(KEY_LO);
+
+        lock.writeLock().lock();
+
+        try {
+            FileLock writeLock = lockChannel.lock(WRITE_REGION, 1, false);
+
+            try {
+                followReplacement();
+                long slot = table.probe(hi, lo);
+
+                if (table.isEmpty(slot)) {
+                    if ((table.entries() + 1) * 100 > table.slots * MAX_LOAD_PERCENT) {
+                        rebuild();
+                        slot = table.probe(hi, lo);
+                    }
+                    table.setEntries(table.entries() + 1);
+                }
+
+                table.write(slot, bytes);
+
+            } finally {
+                writeLock.release();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops entries unused for too long and rewrites the table with the size its remaining
+     * entries need.
+     *
+     * @throws IOException if the table could not be rewritten, in which case it is left as is
+     */
+    public void compact() throws IOException {
+
+        lock.writeLock().lock();
+
+        try {
+            FileLock writeLock = lockChannel.lock(WRITE_REGION, 1, false);
+
+            try {
+                followReplacement();
+                rebuild();
+            } finally {
+                writeLock.release();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the cache, letting other processes open it.
+     *
+     * @throws IOException if the file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+
+        lock.writeLock().lock();
+
+        try {
+            table.close();
+            head.close();
+            openLock.release();
+        } finally {
+            lockChannel.close();
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Switches to the table another process grew or compacted this one into, if any. Must be
+     * called with the write lock held.
+     */
+    private void reopenIfReplaced() throws IOException {
+
+        long generation = head.generation();
+
+        while (generation != table.generation) {
+            Table current = openTable(generation);
+
+            if (current != null) {
+                Table previous = table;
+                table = current;
+                previous.close();
+                return;
+            }
+
+            // Missing if replaced again meanwhile, unreadable otherwise
+            long latest = head.generation();
+            if (latest == generation) {
+                return;
+            }
+            generation = latest;
+        }
+    }
+
+    /**
+     * Switches to the current table, starting over from an empty one if it cannot be read. Must be
+     * called with both write locks held.
+     */
+    private void followReplacement() throws IOException {
+
+        reopenIfReplaced();
+
+        if (table.generation != head.generation()) {
+            long generation = head.generation() + 1;
+            replaceTable(Table.create(tableFile(generation), generation, INITIAL_SLOTS));
+        }
+    }
+
+    /**
+     * Makes given table the current one and deletes the previous one, which processes still
+     * reading it keep mapped until they switch. Must be called with both write locks held.
+     */
+    private void replaceTable(Table next) throws IOException {
+
+        Table previous = table;
+
+        head.setGeneration(next.generation);
+        table = next;
+
+        if (previous != null) {
+            previous.close();
+            deleteTable(tableFile(previous.generation));
+        }
+    }
+
+    private Table openTable(long generation) throws IOException {
+
+        try {
+            return Table.open(tableFile(generation), generation);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private Path tableFile(long generation) {
+        return file.resolveSibling(file.getFileName() + "." + generation);
+    }
+
+    /**
+     * Deletes the tables of other generations, left by processes that were reading them when
+     * they were replaced or that stopped while writing them. Must be called while no other
+     * process has the cache open.
+     */
+    private void pruneTables() throws IOException {
+
+        String prefix = file.getFileName() + ".";
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(file.toAbsolutePath().getParent(), prefix + "*")) {
+            for (Path other : files) {
+                String suffix = other.getFileName().toString().substring(prefix.length());
+
+                if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)
+                    && !suffix.equals(String.valueOf(table.generation))) {
+                    deleteTable(other);
+                }
+            }
+        }
+    }
+
+    private static void deleteTable(Path tableFile) {
+
+        try {
+            Files.deleteIfExists(tableFile);
+        } catch (IOException e) {
+            // Still mapped on Windows, deleted by the next process opening the cache alone
+        }
+    }
+
+    private void rebuild() throws IOException {
+
+        int today = today();
+        byte[] bytes = new byte[SLOT_SIZE];
+        long live = 0;
+
+        for (long slot = 0; slot < table.slots; slot++) {
+            if (isLive(slot, bytes, today)) {
+                live++;
+            }
+        }
+
+        // Leaves room for as many new entries as there are live ones
+        long slots = INITIAL_SLOTS;
+        while (live * 2 * 100 > slots * MAX_LOAD_PERCENT) {
+            slots <<= 1;
+        }
+
+        long generation = head.generation() + 1;
+        Path next = tableFile(generation);
+        Table rebuilt = Table.create(next, generation, slots);
+
+        try {
+            for (long slot = 0; slot < table.slots; slot++) {
+                if (isLive(slot, bytes, today)) {
+                    ByteBuffer entry = ByteBuffer.wrap(bytes);
+                    rebuilt.write(rebuilt.probe(entry.getLong(KEY_HI), entry.getLong(KEY_LO)), bytes);
+                }
+            }
+            rebuilt.setEntries(live);
+            rebuilt.setCompactedDay(today);
+
+        } catch (RuntimeException e) {
+            rebuilt.close();
+            deleteTable(next);
+            throw e;
+        }
+
+        replaceTable(rebuilt);
+    }
+
+    private boolean isLive(long slot, byte[] bytes, int today) {
+
+        if (table.isEmpty(slot)) {
+            return false;
+        }
+
+        table.read(slot, bytes);
+        ByteBuffer entry = ByteBuffer.wrap(bytes);
+
+        return entry.getInt(CRC) == crc(bytes) && today - entry.getInt(USED_DAY) <= MAX_IDLE_DAYS;
+    }
+
+    private static byte[] fingerprint(Path path, String label) {
+
+        MessageDigest digest = FINGERPRINT.get();
+        digest.update(label.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(path.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+        byte[] fingerprint = digest.digest();
+
+        // An all zero key marks empty slots
+        fingerprint[KEY_SIZE - 1] |= 1;
+
+        return fingerprint;
+    }
+
+    private static int crc(byte[] bytes) {
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, CRC);
+        crc.update(bytes, DIGEST_LENGTH, SLOT_SIZE - DIGEST_LENGTH);
+
+        return (int) crc.getValue();
+    }
+
+    private static long modified(BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    static long fileKey(BasicFileAttributes attrs) {
+
+        Object key = attrs.fileKey();
+
+        if (key == null) {
+            return 0;
+        }
+
+        // 64-bit FNV-1a of its text, such as (dev=803,ino=1234) on Unix
+        String text = key.toString();
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+    private static int today() {
+        return (int) TimeUnit.MILLISECONDS.toDays(System.currentTimeMillis());
+    }
+
+    /**
+     * The memory-mapped cache file, telling which table is the current one.
+     */
+    private static final class Head {
+
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Head(FileChannel channel) throws IOException {
+            this.channel = channel;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEAD_SIZE);
+        }
+
+        static Head open(Path file) throws IOException {
+
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+            try {
+                ByteBuffer bytes = ByteBuffer.allocate(HEAD_SIZE);
+                channel.read(bytes, 0);
+
+                // Starts from generation 0, which has no table, if missing or of another version
+                if (channel.size() != HEAD_SIZE || bytes.getInt(0) != HEAD_MAGIC
+                    || bytes.getInt(VERSION_OFFSET) != VERSION) {
+                    bytes.clear();
+                    bytes.putInt(0, HEAD_MAGIC).putInt(VERSION_OFFSET, VERSION).putLong(GENERATION_OFFSET, 0);
+                    channel.truncate(0);
+                    channel.write(bytes, 0);
+                }
+
+                return new Head(channel);
+
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        long generation() {
+            return buffer.getLong(GENERATION_OFFSET);
+        }
+
+        void setGeneration(long generation) {
+            buffer.putLong(GENERATION_OFFSET, generation);
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * A memory-mapped table file.
+     */
+    private static final class Table {
+
+        private final FileChannel channel;
+        private final MappedByteBuffer header;
+        private final MappedByteBuffer[] segments;
+        private final long generation;
+        private final long slots;
+
+        private Table(FileChannel channel, long generation, long slots) throws IOException {
+
+            this.channel = channel;
+            this.generation = generation;
+            this.slots = slots;
+
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            segments = new MappedByteBuffer[(int) ((slots + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+
+            for (int i = 0; i < segments.length; i++) {
+                long first = (long) i << SEGMENT_SHIFT;
+                long size = Math.min(SEGMENT_MASK + 1, slots - first) * SLOT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + first * SLOT_SIZE, size);
+            }
+        }
+
+        static Table create(Path file, long generation, long slots) throws IOException {
+
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+            try {
+                // Extends the file with zeros, that is empty slots
+                channel.write(ByteBuffer.allocate(1), HEADER_SIZE + slots * SLOT_SIZE - 1);
+
+                Table table = new Table(channel, generation, slots);
+                table.header.putInt(0, MAGIC);
+                table.header.putInt(VERSION_OFFSET, VERSION);
+                table.header.putLong(SLOTS_OFFSET, slots);
+                table.setCompactedDay(today());
+
+                return table;
+
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        static Table open(Path file, long generation) throws IOException {
+
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            try {
+                long size = channel.size();
+
+                if (size > HEADER_SIZE) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    channel.read(header, 0);
+                    long slots = header.getLong(SLOTS_OFFSET);
+
+                    if (header.getInt(0) == MAGIC && header.getInt(VERSION_OFFSET) == VERSION
+                        && Long.bitCount(slots) == 1 && size == HEADER_SIZE + slots * SLOT_SIZE) {
+                        return new Table(channel, generation, slots);
+                    }
+                }
+
+                channel.close();
+                return null;
+
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Returns the slot holding given key, or the empty slot it would be stored in.
+         */
+        long probe(long hi, long lo) {
+
+            long slot = lo & (slots - 1);
+
+            while (true) {
+                MappedByteBuffer segment = segments[(int) (slot >>> SEGMENT_SHIFT)];
+                int offset = offset(slot);
+                long slotHi = segment.getLong(offset + KEY_HI);
+                long slotLo = segment.getLong(offset + KEY_LO);
+
+                if ((slotHi == hi && slotLo == lo) || (slotHi == 0 && slotLo == 0)) {
+                    return slot;
+                }
+
+                slot = (slot + 1) & (slots - 1);
+            }
+        }
+
+        boolean isEmpty(long slot) {
+            MappedByteBuffer segment = segments[(int) (slot >>> SEGMENT_SHIFT)];
+            return segment.getLong(offset(slot) + KEY_HI) == 0 && segment.getLong(offset(slot) + KEY_LO) == 0;
+        }
+
+        void read(long slot, byte[] bytes) {
+            ByteBuffer view = segments[(int) (slot >>> SEGMENT_SHIFT)].duplicate();
+            view.position(offset(slot));
+            view.get(bytes, 0, SLOT_SIZE);
+        }
+
+        void write(long slot, byte[] bytes) {
+
+            // Writes the key last, so that a slot is never found before its content is written
+            ByteBuffer view = segments[(int) (slot >>> SEGMENT_SHIFT)].duplicate();
+            view.position(offset(slot) + KEY_SIZE);
+            view.put(bytes, KEY_SIZE, SLOT_SIZE - KEY_SIZE);
+            view.position(offset(slot));
+            view.put(bytes, 0, KEY_SIZE);
+        }
+
+        void touch(long slot, int day) {
+            segments[(int) (slot >>> SEGMENT_SHIFT)].putInt(offset(slot) + USED_DAY, day);
+        }
+
+        long entries() {
+            return header.getLong(ENTRIES_OFFSET);
+        }
+
+        void setEntries(long entries) {
+            header.putLong(ENTRIES_OFFSET, entries);
+        }
+
+        int compactedDay() {
+            return header.getInt(COMPACTED_DAY_OFFSET);
+        }
+
+        void setCompactedDay(int day) {
+            header.putInt(COMPACTED_DAY_OFFSET, day);
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+
+        private static int offset(long slot) {
+            return (int) ((slot & SEGMENT_MASK) * SLOT_SIZE);
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.jeremierodriguez.services;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+
+
+/**
+ * Class with static methods handing out reset digests of each algorithm, kept per thread. Hashing
+ * millions of small files would otherwise look a provider up and instantiate digests, along with
+ * their internal buffers, for every one of them. Each thread keeps a few digests per algorithm so
+ * that a thread running nested work, such as a fork/join task joining another, never gets a digest
+ * that is still in use.
+ *
+ * @author Jeremie Rodriguez
+ */
+class DigestPool {
+
+    private static final int MAX_POOLED_PER_ALGORITHM = 4;
+    private static final ThreadLocal<Map<Algs, Deque<MessageDigest>>> POOL =
+        ThreadLocal.withInitial(() -> new EnumMap<>(Algs.class));
+
+    private DigestPool() {
+    }
+
+    /**
+     * Returns a reset digest of given algorithm, taken from the pool of the calling thread or
+     * newly created if none is available.
+     *
+     * @param algo algorithm of the digest
+     * @return digest ready to be updated
+     * @throws NoSuchAlgorithmException if the algorithm is not supported by its provider
+     * @throws NoSuchProviderException  if the algorithm's provider is not available
+     */
+    static MessageDigest acquire(Algs algo) throws NoSuchAlgorithmException, NoSuchProviderException {
+
+        MessageDigest digest = queueFor(algo).poll();
+
+        return digest != null ? digest : algo.newDigest();
+    }
+
+    /**
+     * Resets a digest and gives it back to the pool of the calling thread. Digests exceeding the
+     * pool's capacity are left to the garbage collector.
+     *
+     * @param algo   algorithm of the digest
+     * @param digest digest previously returned by {@link #acquire(Algs)}, possibly on another thread
+     */
+    static void release(Algs algo, MessageDigest digest) {
+
+        Deque<MessageDigest> queue = queueFor(algo);
+
+        if (queue.size() < MAX_POOLED_PER_ALGORITHM) {
+            digest.reset();
+            queue.push(digest);
+        }
+    }
+
+    private static Deque<MessageDigest> queueFor(Algs algo) {
+        return POOL.get().computeIfAbsent(algo, a -> new ArrayDeque<>());
+    }
+
+}
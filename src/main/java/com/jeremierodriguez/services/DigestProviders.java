@@ -0,0 +1,276 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.AppFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Class with static methods choosing between the JDK and BouncyCastle for the algorithms both
+ * implement. Depending on the JVM and the processor, intrinsics make the JDK's SHA1 and SHA2
+ * several times faster than BouncyCastle, or the other way round, so each algorithm is calibrated
+ * the first time it is used: both providers digest the same data for less than half a second and
+ * the fastest one is kept. Choices are saved in {@code ~/CSCheck/providers.properties} along with
+ * the JVM and architecture they were measured on, so that calibration only runs again, and
+ * BouncyCastle only gets loaded for it, after the JVM changes. A choice may also be forced, such
+ * as from the command line.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class DigestProviders {
+
+    /**
+     * Provider of a digest.
+     */
+    public enum Provider {
+        JDK, BC
+    }
+
+    private static final Set<Algs> SHARED = Collections.unmodifiableSet(
+        EnumSet.of(Algs.MD5, Algs.SHA1, Algs.SHA224, Algs.SHA256, Algs.SHA384, Algs.SHA512));
+
+    private static final String FILE_NAME = "providers.properties";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String JVM_KEY = "jvm";
+
+    private static final int CALIBRATION_SIZE = 262144;
+    private static final long CALIBRATION_NANOS = 400000000L;
+    private static final int MIN_ROUNDS = 5;
+
+    private static final Map<Algs, Provider> OVERRIDES = new ConcurrentHashMap<>();
+    private static final Map<Algs, Provider> CHOICES = new ConcurrentHashMap<>();
+    private static Properties saved = null;
+
+    private DigestProviders() {
+    }
+
+    /**
+     * Returns the algorithms implemented by both providers.
+     *
+     * @return algorithms whose provider may be chosen
+     */
+    public static Set<Algs> getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Forces the provider of an algorithm instead of calibrating it. Digests already pooled keep
+     * their provider, so this is meant to be called before hashing starts.
+     *
+     * @param algo     algorithm implemented by both providers
+     * @param provider provider to use
+     * @throws IllegalArgumentException if the algorithm is implemented by a single provider
+     */
+    public static void override(Algs algo, Provider provider) {
+
+        if (!SHARED.contains(algo)) {
+            throw new IllegalArgumentException("Provider of " + algo + " cannot be chosen");
+        }
+
+        OVERRIDES.put(algo, provider);
+    }
+
+    /**
+     * Returns the provider of an algorithm implemented by both, calibrating it if it was never
+     * calibrated on this JVM.
+     *
+     * @param algo algorithm implemented by both providers
+     * @return forced provider, otherwise the fastest one
+     */
+    public static Provider providerOf(Algs algo) {
+
+        Provider provider = OVERRIDES.get(algo);
+
+        if (provider == null) {
+            provider = CHOICES.get(algo);
+        }
+
+        return provider != null ? provider : resolve(algo);
+    }
+
+    /**
+     * Resolves the provider of every algorithm implemented by both, calibrating those that need
+     * it, and describes the choices, such as for a log at startup.
+     *
+     * @return a line per algorithm telling its provider and why
+     */
+    public static List<String> describeAll() {
+
+        List<String> lines = new ArrayList<>();
+
+        for (Algs algo : SHARED) {
+            Provider provider = providerOf(algo);
+
+            if (OVERRIDES.containsKey(algo)) {
+                lines.add(algo + ": " + provider + ", forced");
+                continue;
+            }
+
+            String[] fields = savedFields(algo);
+            lines.add(fields == null ? algo + ": " + provider
+                : algo + ": " + provider + " (JDK " + fields[1] + " MB/s, BC " + fields[2] + " MB/s)");
+        }
+
+        return lines;
+    }
+
+    private static synchronized Provider resolve(Algs algo) {
+
+        Provider provider = CHOICES.get(algo);
+
+        if (provider != null) {
+            return provider;
+        }
+
+        String[] fields = savedFields(algo);
+
+        if (fields != null) {
+            provider = Provider.valueOf(fields[0]);
+
+        } else {
+            provider = calibrate(algo);
+            save();
+        }
+
+        CHOICES.put(algo, provider);
+
+        return provider;
+    }
+
+    /**
+     * Returns the saved provider and throughputs of an algorithm, null if not calibrated on this
+     * JVM.
+     */
+    private static synchronized String[] savedFields(Algs algo) {
+
+        if (saved == null) {
+            saved = load();
+        }
+
+        String value = saved.getProperty(algo.name());
+        String[] fields = value == null ? null : value.split(" ");
+
+        if (fields == null || fields.length != 3) {
+            return null;
+        }
+
+        try {
+            Provider.valueOf(fields[0]);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        return fields;
+    }
+
+    /**
+     * Times both providers on the same data in alternating rounds, so that both get compiled
+     * alike, and keeps the best round of each.
+     */
+    private static Provider calibrate(Algs algo) {
+
+        byte[] data = new byte[CALIBRATION_SIZE];
+        new Random(0).nextBytes(data);
+
+        MessageDigest[] digests = new MessageDigest[2];
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE};
+
+        try {
+            digests[0] = Digests.newDigest(algo, Provider.JDK);
+            digests[1] = Digests.newDigest(algo, Provider.BC);
+        } catch (NoSuchAlgorithmException e) {
+            saved.setProperty(algo.name(), Provider.JDK + " 0 0");
+            return Provider.JDK;
+        }
+
+        long deadline = System.nanoTime() + CALIBRATION_NANOS;
+
+        for (int round = 0; round < MIN_ROUNDS || System.nanoTime() < deadline; round++) {
+            for (int i = 0; i < digests.length; i++) {
+                long start = System.nanoTime();
+                digests[i].update(data);
+                digests[i].digest();
+                best[i] = Math.min(best[i], System.nanoTime() - start);
+            }
+        }
+
+        Provider provider = best[1] < best[0] ? Provider.BC : Provider.JDK;
+        saved.setProperty(algo.name(), provider + " " + throughput(best[0]) + " " + throughput(best[1]));
+
+        return provider;
+    }
+
+    private static long throughput(long nanos) {
+        return Math.round(CALIBRATION_SIZE / 1048576.0 / Math.max(1, nanos) * 1e9);
+    }
+
+    /**
+     * Loads saved choices, or none if they were measured on another JVM.
+     */
+    private static Properties load() {
+
+        Properties properties = new Properties();
+
+        try (InputStream in = Files.newInputStream(AppFolder.resolve(FILE_NAME))) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            // Never calibrated
+        } catch (IOException | IllegalArgumentException e) {
+            properties.clear();
+        }
+
+        if (!jvm().equals(properties.getProperty(JVM_KEY))) {
+            properties.clear();
+            properties.setProperty(JVM_KEY, jvm());
+        }
+
+        return properties;
+    }
+
+    /**
+     * Saves choices, keeping them in memory only if they cannot be written.
+     */
+    private static void save() {
+
+        try {
+            Path file = AppFolder.resolve(FILE_NAME);
+            Path temp = Files.createTempFile(file.getParent(), FILE_NAME, TEMP_SUFFIX);
+
+            try {
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    saved.store(out, "Fastest provider of each algorithm, with JDK and BC throughputs in MB/s");
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+
+        } catch (IOException e) {
+            // Calibrated again next time
+        }
+    }
+
+    private static String jvm() {
+        return String.format(Locale.ROOT, "%s %s %s", System.getProperty("java.vm.name"),
+            System.getProperty("java.vm.version"), System.getProperty("os.arch"));
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.jeremierodriguez.services;
+
+import org.bouncycastle.jcajce.provider.digest.GOST3411;
+import org.bouncycastle.jcajce.provider.digest.MD4;
+import org.bouncycastle.jcajce.provider.digest.MD5;
+import org.bouncycastle.jcajce.provider.digest.RIPEMD128;
+import org.bouncycastle.jcajce.provider.digest.RIPEMD160;
+import org.bouncycastle.jcajce.provider.digest.RIPEMD256;
+import org.bouncycastle.jcajce.provider.digest.RIPEMD320;
+import org.bouncycastle.jcajce.provider.digest.SHA1;
+import org.bouncycastle.jcajce.provider.digest.SHA224;
+import org.bouncycastle.jcajce.provider.digest.SHA256;
+import org.bouncycastle.jcajce.provider.digest.SHA384;
+import org.bouncycastle.jcajce.provider.digest.SHA512;
+import org.bouncycastle.jcajce.provider.digest.SM3;
+import org.bouncycastle.jcajce.provider.digest.Tiger;
+import org.bouncycastle.jcajce.provider.digest.Whirlpool;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * Class with static methods creating the {@code MessageDigest} of each {@code Algs} value, without
+ * registering any provider.
+ * <p>
+ * Algorithms the JDK implements come from its own provider, or from BouncyCastle when
+ * {@link DigestProviders} found it faster for MD5, SHA1 and SHA2. Loading the first class of the
+ * signed BouncyCastle jar costs a few hundred milliseconds of signature verification, which would
+ * dominate a command-line call hashing a few files, so BouncyCastle is only loaded for the other
+ * algorithms, when chosen, or to calibrate. Its digests are then instantiated directly, registering
+ * its whole provider would cost as much again.
+ * <p>
+ * Creating a digest looks its provider up, so hashing code takes digests from
+ * {@link DigestPool} instead.
+ *
+ * @author Jeremie Rodriguez
+ */
+class Digests {
+
+    private Digests() {
+    }
+
+    static MessageDigest newDigest(Algs algo) throws NoSuchAlgorithmException {
+
+        if (DigestProviders.getShared().contains(algo)) {
+            return newDigest(algo, DigestProviders.providerOf(algo));
+        }
+
+        switch (algo) {
+            case MD2:
+                return MessageDigest.getInstance("MD2");
+            case BLAKE3:
+                return new Blake3Digest();
+            case CRC32:
+            case CRC32C:
+            case ADLER32:
+                return ChecksumDigest.of(algo);
+            case XXH64:
+                return new XxHash64Digest();
+            case XXH3:
+                return new Xxh3Digest();
+            case MURMUR3_128:
+                return new Murmur3Digest();
+            default:
+                return BouncyCastle.newDigest(algo);
+        }
+    }
+
+    /**
+     * Creates the digest of an algorithm implemented by both the JDK and BouncyCastle.
+     */
+    static MessageDigest newDigest(Algs algo, DigestProviders.Provider provider) throws NoSuchAlgorithmException {
+
+        if (provider == DigestProviders.Provider.BC) {
+            return BouncyCastle.newDigest(algo);
+        }
+
+        return MessageDigest.getInstance(algo.name().startsWith("SHA") ? "SHA-" + algo.name().substring(3) : algo.name());
+    }
+
+    /**
+     * Kept apart so that BouncyCastle classes are only loaded when one of its digests is needed.
+     */
+    private static class BouncyCastle {
+
+        static MessageDigest newDigest(Algs algo) throws NoSuchAlgorithmException {
+
+            switch (algo) {
+                case MD4:
+                    return new MD4.Digest();
+                case MD5:
+                    return new MD5.Digest();
+                case SHA1:
+                    return new SHA1.Digest();
+                case SHA224:
+                    return new SHA224.Digest();
+                case SHA256:
+                    return new SHA256.Digest();
+                case SHA384:
+                    return new SHA384.Digest();
+                case SHA512:
+                    return new SHA512.Digest();
+                case GOST3411:
+                    return new GOST3411.Digest();
+                case SM3:
+                    return new SM3.Digest();
+                case RIPEMD128:
+                    return new RIPEMD128.Digest();
+                case RIPEMD160:
+                    return new RIPEMD160.Digest();
+                case RIPEMD256:
+                    return new RIPEMD256.Digest();
+                case RIPEMD320:
+                    return new RIPEMD320.Digest();
+                case TIGER:
+                    return new Tiger.Digest();
+                case WHIRLPOOL:
+                    return new Whirlpool.Digest();
+                default:
+                    throw new NoSuchAlgorithmException("Unknown algorithm: " + algo);
+            }
+        }
+    }
+
+}
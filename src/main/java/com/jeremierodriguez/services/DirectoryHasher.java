@@ -0,0 +1,441 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.ConsoleWriter;
+import com.jeremierodriguez.util.DigestFormat;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * This class computes a single digest of a whole directory tree, as a Merkle tree of its
+ * directories. The digest of a directory covers, for each of its entries sorted by the bytes of
+ * their UTF-8 names:
+ * <ul>
+ * <li>a type byte: {@code f} for a regular file, {@code d} for a directory, {@code l} for a
+ * symbolic link, which is not followed</li>
+ * <li>if file modes are included, the permission bits as a 4-byte big-endian integer</li>
+ * <li>the length of the UTF-8 name as a 4-byte big-endian integer, then the name</li>
+ * <li>the digest of the file's content, of the target of the link as UTF-8 text, or of the
+ * subdirectory</li>
+ * </ul>
+ * Other special files are skipped. The name and mode of the root directory itself are not part of
+ * its digest, so a copy of the tree has the same digest wherever it is.
+ * <p>
+ * Every directory also gets a signature of the metadata below it: names, sizes, modification
+ * times and file keys. Its digest is cached under that signature, so that only directories in
+ * which something changed are hashed again, and files within them only if their own cached digest
+ * is stale. Directories holding a file modified in the last couple of seconds are not cached, as
+ * it may still change without its metadata telling. The walk is sequential, file digests are
+ * computed on an {@link IoScheduler} and each directory is combined by the thread finishing its
+ * last child.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class DirectoryHasher {
+
+    /**
+     * Prefix of the labels of directory digests, followed by the name of their algorithm.
+     */
+    public static final String LABEL_PREFIX = "DIR-";
+
+    private static final String MODES_SUFFIX = "-MODES";
+
+    private static final byte FILE = 'f';
+    private static final byte DIRECTORY = 'd';
+    private static final byte LINK = 'l';
+
+    private final Algs algo;
+    private final boolean modes;
+    private final String label;
+    private final CachingHasher hasher;
+    private final IoScheduler scheduler;
+    private final AtomicBoolean failed = new AtomicBoolean();
+    private final AtomicBoolean rootFailed = new AtomicBoolean();
+    private final AtomicLong filesRead = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final MessageDigest signer = new XxHash64Digest();
+    private ConsoleWriter err = null;
+
+    private long files = 0;
+    private long directories = 0;
+    private long reused = 0;
+
+    /**
+     * Entry of a tree, whose children are only kept while its digest has to be computed.
+     */
+    private static final class Node {
+
+        final Node parent;
+        final Path path;
+        final byte[] name;
+        final byte type;
+        final int mode;
+        final AtomicInteger pending = new AtomicInteger();
+        List<Node> children = null;
+        volatile byte[] digest = null;
+        long signature = 0;
+        boolean racy = false;
+
+        Node(Node parent, Path path, byte[] name, byte type, int mode) {
+            this.parent = parent;
+            this.path = path;
+            this.name = name;
+            this.type = type;
+            this.mode = mode;
+        }
+    }
+
+    /**
+     * Constructor needing the algorithm of the digests.
+     *
+     * @param algo      algorithm of file and directory digests
+     * @param modes     whether permission bits are part of the digest
+     * @param hasher    hasher of files, also caching directory digests
+     * @param scheduler scheduler of the reads of files
+     */
+    public DirectoryHasher(Algs algo, boolean modes, CachingHasher hasher, IoScheduler scheduler) {
+        this.algo = algo;
+        this.modes = modes;
+        this.label = label(algo, modes);
+        this.hasher = hasher;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Returns the label of the digests of directories, such as {@code DIR-SHA256}.
+     *
+     * @param algo  algorithm of the digests
+     * @param modes whether permission bits are part of the digests
+     * @return label telling both
+     */
+    public static String label(Algs algo, boolean modes) {
+        return LABEL_PREFIX + algo.name() + (modes ? MODES_SUFFIX : "");
+    }
+
+    /**
+     * Computes the digest of given directories and prints a tagged line for each, along with
+     * statistics on the standard error.
+     *
+     * @param roots paths of the directories
+     * @return 0 if every directory could be hashed, 1 otherwise
+     */
+    public int run(List<String> roots) {
+
+        try (ConsoleWriter out = new ConsoleWriter(); ConsoleWriter errWriter = new ConsoleWriter(FileDescriptor.err)) {
+            err = errWriter;
+
+            for (String root : roots) {
+                byte[] digest = hashTree(Paths.get(root));
+
+                if (digest != null) {
+                    out.println(ManifestLine.format(label, root, DigestFormat.toHex(digest), true));
+                }
+            }
+
+            err.println(files + " files, " + directories + " directories, " + reused
+                + " reused from cache, " + filesRead.get() + " files read ("
+                + String.format(Locale.ROOT, "%.1f MB", bytesRead.get() / 1048576.0) + ")");
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            scheduler.shutdownNow();
+            failed.set(true);
+        }
+
+        return failed.get() ? 1 : 0;
+    }
+
+    /**
+     * Returns the digest of a tree, null if any of it could not be read.
+     */
+    private byte[] hashTree(Path root) throws InterruptedException {
+
+        rootFailed.set(false);
+        Node node;
+
+        try {
+            if (!Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+                throw new IOException("Not a directory");
+            }
+            node = walk(root, null, new byte[0], 0);
+        } catch (IOException | GeneralSecurityException e) {
+            fail(root, e);
+            return null;
+        }
+
+        if (node.digest == null) {
+            schedule(node);
+            scheduler.awaitCompletion();
+        }
+
+        return rootFailed.get() ? null : node.digest;
+    }
+
+    /**
+     * Reads the metadata of a directory and, unless its digest is cached under its signature,
+     * keeps its children for hashing.
+     */
+    private Node walk(Path dir, Node parent, byte[] name, int mode) throws IOException, GeneralSecurityException {
+
+        Node node = new Node(parent, dir, name, DIRECTORY, mode);
+        List<Node> children = new ArrayList<>();
+        long racyFrom = System.currentTimeMillis() - DigestCache.RACY_MILLIS;
+        directories++;
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                BasicFileAttributes attrs = readAttributes(path);
+                byte[] childName = path.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+                int childMode = modes ? modeOf((PosixFileAttributes) attrs) : 0;
+                Node child;
+
+                if (attrs.isDirectory()) {
+                    child = walk(path, node, childName, childMode);
+
+                } else if (attrs.isRegularFile()) {
+                    child = new Node(node, path, childName, FILE, childMode);
+                    child.signature = fileSignature(attrs);
+                    child.racy = attrs.lastModifiedTime().toMillis() > racyFrom;
+                    files++;
+
+                } else if (attrs.isSymbolicLink()) {
+                    child = new Node(node, path, childName, LINK, childMode);
+                    child.digest = digestOf(Files.readSymbolicLink(path).toString().getBytes(StandardCharsets.UTF_8));
+
+                } else {
+                    continue;
+                }
+
+                node.racy |= child.racy;
+                children.add(child);
+            }
+        }
+
+        Collections.sort(children, (a, b) -> compareNames(a.name, b.name));
+        node.signature = signature(children);
+        byte[] cached = node.racy ? null : hasher.getTree(dir, label, node.signature);
+
+        if (cached != null) {
+            node.digest = cached;
+            reused++;
+        } else {
+            node.children = children;
+        }
+
+        return node;
+    }
+
+    private BasicFileAttributes readAttributes(Path path) throws IOException {
+
+        if (!modes) {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+
+        try {
+            return Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (UnsupportedOperationException e) {
+            throw new IOException("File modes are not supported on this file system", e);
+        }
+    }
+
+    /**
+     * Submits the files of a directory and of its subdirectories whose digest is not cached.
+     */
+    private void schedule(Node dir) throws InterruptedException {
+
+        int pending = 0;
+
+        for (Node child : dir.children) {
+            if (child.digest == null) {
+                pending++;
+            }
+        }
+
+        // Held until every child is submitted, so that the last one finishing combines
+        dir.pending.set(pending + 1);
+
+        for (Node child : dir.children) {
+            if (child.digest != null) {
+                continue;
+            }
+
+            if (child.type == DIRECTORY) {
+                schedule(child);
+            } else {
+                scheduler.submit(child.path, null, () -> {
+                    try {
+                        hashFile(child);
+                    } finally {
+                        childDone(child.parent);
+                    }
+                });
+            }
+        }
+
+        childDone(dir);
+    }
+
+    private void hashFile(Node file) {
+
+        boolean[] read = {false};
+        long[] counted = {0};
+
+        try {
+            file.digest = hasher.hash(file.path, Collections.singletonList(algo), (bytes, length) -> {
+                read[0] = true;
+                bytesRead.addAndGet(bytes - counted[0]);
+                counted[0] = bytes;
+            }, err::println).get(algo);
+
+            if (read[0]) {
+                filesRead.incrementAndGet();
+            }
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            fail(file.path, e);
+        }
+    }
+
+    /**
+     * Counts a child of a directory as done, combining the directory, then its parents, once all
+     * their children are.
+     */
+    private void childDone(Node dir) {
+
+        for (Node node = dir; node != null && node.pending.decrementAndGet() == 0; node = node.parent) {
+            try {
+                combine(node);
+            } catch (GeneralSecurityException | RuntimeException e) {
+                fail(node.path, e);
+            }
+        }
+    }
+
+    private void combine(Node dir) throws GeneralSecurityException {
+
+        MessageDigest digest = DigestPool.acquire(algo);
+        ByteBuffer header = ByteBuffer.allocate(8);
+
+        try {
+            for (Node child : dir.children) {
+                if (child.digest == null) {
+                    // Failed, the tree gets no digest
+                    return;
+                }
+
+                digest.update(child.type);
+                header.clear();
+                if (modes) {
+                    header.putInt(child.mode);
+                }
+                header.putInt(child.name.length);
+                digest.update(header.array(), 0, header.position());
+                digest.update(child.name);
+                digest.update(child.digest);
+            }
+
+            byte[] result = digest.digest();
+
+            if (!dir.racy) {
+                hasher.putTree(dir.path, label, dir.signature, result, err::println);
+            }
+
+            dir.children = null;
+            dir.digest = result;
+
+        } finally {
+            DigestPool.release(algo, digest);
+        }
+    }
+
+    private byte[] digestOf(byte[] data) throws GeneralSecurityException {
+
+        MessageDigest digest = DigestPool.acquire(algo);
+
+        try {
+            return digest.digest(data);
+        } finally {
+            DigestPool.release(algo, digest);
+        }
+    }
+
+    /**
+     * Returns the signature of the sorted entries of a directory, which changes whenever an entry
+     * is added, removed, renamed or changes anywhere below.
+     */
+    private long signature(List<Node> children) {
+
+        ByteBuffer buffer = ByteBuffer.allocate(13);
+
+        for (Node child : children) {
+            buffer.clear();
+            buffer.put(child.type).putInt(child.mode).putLong(child.digest != null && child.type == LINK
+                ? ByteBuffer.wrap(child.digest).getLong() : child.signature);
+            signer.update(buffer.array());
+            signer.update(child.name);
+            signer.update((byte) 0);
+        }
+
+        return ByteBuffer.wrap(signer.digest()).getLong();
+    }
+
+    private long fileSignature(BasicFileAttributes attrs) {
+
+        ByteBuffer buffer = ByteBuffer.allocate(24);
+        buffer.putLong(attrs.size()).putLong(attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS))
+            .putLong(DigestCache.fileKey(attrs));
+
+        return ByteBuffer.wrap(signer.digest(buffer.array())).getLong();
+    }
+
+    private static int modeOf(PosixFileAttributes attrs) {
+
+        int mode = 0;
+
+        // Declared from owner read, 0400, down to others execute, 0001
+        for (PosixFilePermission permission : attrs.permissions()) {
+            mode |= 1 << (8 - permission.ordinal());
+        }
+
+        return mode;
+    }
+
+    private static int compareNames(byte[] a, byte[] b) {
+
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+
+        return a.length - b.length;
+    }
+
+    private void fail(Path path, Exception e) {
+        failed.set(true);
+        rootFailed.set(true);
+        err.println(path + ": " + e.getMessage());
+    }
+
+}
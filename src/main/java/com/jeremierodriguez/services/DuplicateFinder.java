@@ -0,0 +1,482 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.ConsoleWriter;
+import com.jeremierodriguez.util.DigestFormat;
+import com.jeremierodriguez.util.LongIntMap;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+
+/**
+ * This class finds files with identical contents in directory trees, reading as little of them as
+ * possible. Files go through three stages, each only keeping those that may still have a
+ * duplicate:
+ * <ol>
+ * <li>size: trees are walked once to count files of each size, then again to keep those whose
+ * size is shared, so that memory holds a counter per distinct size rather than every path</li>
+ * <li>partial hash: an XXH3 of the first and last 4 KiB of each file</li>
+ * <li>full hash: a digest of the whole file with the requested algorithm, through the digest
+ * cache</li>
+ * </ol>
+ * Hashing stages run on an {@link IoScheduler}. Duplicate groups are printed as CSV or JSON along
+ * with how many bytes each stage avoided reading. Empty files and symbolic links are ignored, hard
+ * links to the same file are reported as duplicates.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class DuplicateFinder {
+
+    /**
+     * Output format of duplicate groups.
+     */
+    public enum Format {
+        CSV, JSON
+    }
+
+    // Bytes hashed at each end of a file by the partial stage
+    private static final int EDGE_SIZE = 4096;
+
+    private final Algs algo;
+    private final CachingHasher hasher;
+    private final IoScheduler scheduler;
+    private final Format format;
+    private final AtomicBoolean failed = new AtomicBoolean();
+    private final AtomicLong partialRead = new AtomicLong();
+    private final AtomicLong fullRead = new AtomicLong();
+    private ConsoleWriter out = null;
+    private ConsoleWriter err = null;
+
+    // Files sharing their size with another one, contiguous by size, with the attributes the
+    // scheduler orders their reads by
+    private String[] paths = null;
+    private long[] sizes = null;
+    private BasicFileAttributes[] attributes = null;
+
+    private long filesScanned = 0;
+    private long bytesScanned = 0;
+    private long sizeAvoided = 0;
+    private long partialAvoided = 0;
+    private int partialCandidates = 0;
+
+    /**
+     * Constructor needing the algorithm confirming duplicates.
+     *
+     * @param algo      algorithm of the full hash
+     * @param hasher    hasher of full hashes, possibly through a digest cache
+     * @param scheduler scheduler of the reads of files
+     * @param format    output format of duplicate groups
+     */
+    public DuplicateFinder(Algs algo, CachingHasher hasher, IoScheduler scheduler, Format format) {
+        this.algo = algo;
+        this.hasher = hasher;
+        this.scheduler = scheduler;
+        this.format = format;
+    }
+
+    /**
+     * Finds duplicate files in given trees and prints them, as groups of paths sharing a size and
+     * a hash.
+     *
+     * @param roots paths of the directories, or files, to search
+     * @return 0 if every file could be read, 1 otherwise
+     */
+    public int run(List<String> roots) {
+
+        try (ConsoleWriter outWriter = new ConsoleWriter(); ConsoleWriter errWriter = new ConsoleWriter(FileDescriptor.err)) {
+            out = outWriter;
+            err = errWriter;
+
+            groupBySize(roots);
+
+            long[] partial = new long[paths.length];
+            hashEdges(partial);
+
+            BitSet survivors = keepSharedEdges(partial);
+            byte[][] digests = new byte[paths.length][];
+            hashFully(survivors, digests);
+
+            printGroups(digests);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            scheduler.shutdownNow();
+            failed.set(true);
+        }
+
+        return failed.get() ? 1 : 0;
+    }
+
+    /**
+     * Keeps files whose size is shared, with two walks holding no path until the second one.
+     */
+    private void groupBySize(List<String> roots) {
+
+        LongIntMap counts = new LongIntMap();
+
+        walk(roots, (file, attrs) -> {
+            counts.increment(attrs.size());
+            filesScanned++;
+            bytesScanned += attrs.size();
+        });
+
+        // Gives each shared size a range of slots, filled by the second walk
+        LongIntMap cursors = new LongIntMap();
+        int[] total = {0};
+
+        counts.forEach((size, count) -> {
+            if (count > 1) {
+                cursors.put(size, total[0]);
+                total[0] += count;
+            } else {
+                sizeAvoided += size;
+            }
+        });
+
+        paths = new String[total[0]];
+        sizes = new long[total[0]];
+        attributes = new BasicFileAttributes[total[0]];
+
+        counts.forEach((size, count) -> {
+            if (count > 1) {
+                int start = cursors.get(size, 0);
+                for (int slot = start; slot < start + count; slot++) {
+                    sizes[slot] = size;
+                }
+            }
+        });
+
+        walk(roots, (file, attrs) -> {
+            long size = attrs.size();
+            int slot = cursors.get(size, -1);
+
+            // Files created since the first walk may not fit in the range of their size
+            if (slot >= 0 && slot < sizes.length && sizes[slot] == size) {
+                paths[slot] = file.toString();
+                attributes[slot] = attrs;
+                cursors.put(size, slot + 1);
+            }
+        });
+    }
+
+    private void hashEdges(long[] partial) throws InterruptedException {
+
+        for (int slot = 0; slot < paths.length; slot++) {
+
+            if (paths[slot] == null) {
+                continue;
+            }
+
+            int index = slot;
+            Path file = Paths.get(paths[index]);
+
+            scheduler.submit(file, attributes[index], () -> {
+                try {
+                    partial[index] = edgeHash(file, sizes[index]);
+                    partialRead.addAndGet(Math.min(sizes[index], 2 * EDGE_SIZE));
+                } catch (IOException e) {
+                    fail(index, e);
+                }
+            });
+        }
+
+        scheduler.awaitCompletion();
+    }
+
+    /**
+     * Keeps files sharing both their size and their partial hash with another one.
+     */
+    private BitSet keepSharedEdges(long[] partial) {
+
+        BitSet survivors = new BitSet(paths.length);
+        int start = 0;
+
+        while (start < paths.length) {
+
+            int end = endOfGroup(start);
+            LongIntMap counts = new LongIntMap();
+
+            for (int slot = start; slot < end; slot++) {
+                if (paths[slot] != null) {
+                    counts.increment(partial[slot]);
+                }
+            }
+
+            for (int slot = start; slot < end; slot++) {
+                if (paths[slot] == null) {
+                    continue;
+                }
+                if (counts.get(partial[slot], 0) > 1) {
+                    survivors.set(slot);
+                    partialCandidates++;
+                } else {
+                    // Edges were read already
+                    partialAvoided += sizes[slot] - Math.min(sizes[slot], 2 * EDGE_SIZE);
+                }
+            }
+
+            start = end;
+        }
+
+        return survivors;
+    }
+
+    private void hashFully(BitSet survivors, byte[][] digests) throws InterruptedException {
+
+        List<Algs> algos = Collections.singletonList(algo);
+
+        for (int slot = survivors.nextSetBit(0); slot >= 0; slot = survivors.nextSetBit(slot + 1)) {
+
+            int index = slot;
+            Path file = Paths.get(paths[index]);
+
+            scheduler.submit(file, attributes[index], () -> {
+                try {
+                    digests[index] = hasher.hash(file, algos, HashListener.NONE, err::println).get(algo);
+                    fullRead.addAndGet(sizes[index]);
+                } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                    fail(index, e);
+                }
+            });
+        }
+
+        scheduler.awaitCompletion();
+    }
+
+    private void printGroups(byte[][] digests) {
+
+        long groups = 0;
+        long duplicates = 0;
+        long duplicateBytes = 0;
+
+        if (format == Format.CSV) {
+            out.println("group,size,hash,path");
+        } else {
+            out.println("{\"algorithm\":" + jsonString(algo.name()) + ",\"groups\":[");
+        }
+
+        int start = 0;
+
+        while (start < paths.length) {
+
+            int end = endOfGroup(start);
+            // Wrapped digests compare by content, only those of duplicates are formatted
+            Map<ByteBuffer, List<String>> byHash = new LinkedHashMap<>();
+
+            for (int slot = start; slot < end; slot++) {
+                if (digests[slot] != null) {
+                    byHash.computeIfAbsent(ByteBuffer.wrap(digests[slot]), key -> new ArrayList<>()).add(paths[slot]);
+                }
+            }
+
+            for (Map.Entry<ByteBuffer, List<String>> entry : byHash.entrySet()) {
+                List<String> group = entry.getValue();
+
+                if (group.size() > 1) {
+                    groups++;
+                    duplicates += group.size() - 1;
+                    duplicateBytes += sizes[start] * (group.size() - 1);
+                    printGroup(groups, sizes[start], DigestFormat.toHex(entry.getKey().array()), group);
+                }
+            }
+
+            start = end;
+        }
+
+        long sizeCandidates = filesScanned - paths.length;
+        String[][] stats = {
+            {"filesScanned", String.valueOf(filesScanned)},
+            {"bytesScanned", String.valueOf(bytesScanned)},
+            {"filesWithSharedSize", String.valueOf(paths.length)},
+            {"bytesAvoidedBySize", String.valueOf(sizeAvoided)},
+            {"filesWithSharedEdges", String.valueOf(partialCandidates)},
+            {"bytesReadByPartialHash", String.valueOf(partialRead.get())},
+            {"bytesAvoidedByPartialHash", String.valueOf(partialAvoided)},
+            {"bytesReadByFullHash", String.valueOf(fullRead.get())},
+            {"duplicateGroups", String.valueOf(groups)},
+            {"duplicateFiles", String.valueOf(duplicates)},
+            {"duplicateBytes", String.valueOf(duplicateBytes)}
+        };
+
+        if (format == Format.JSON) {
+            out.println("],\"stats\":{");
+            for (int i = 0; i < stats.length; i++) {
+                out.println(jsonString(stats[i][0]) + ":" + stats[i][1] + (i < stats.length - 1 ? "," : ""));
+            }
+            out.println("}}");
+
+        } else {
+            err.println(filesScanned + " files, " + sizeCandidates + " ruled out by size ("
+                + megabytes(sizeAvoided) + " not read), " + (paths.length - partialCandidates)
+                + " by partial hash (" + megabytes(partialRead.get()) + " read, " + megabytes(partialAvoided)
+                + " not read), " + megabytes(fullRead.get()) + " fully hashed");
+            err.println(groups + " duplicate groups, " + duplicates + " duplicate files, "
+                + megabytes(duplicateBytes) + " duplicated");
+        }
+    }
+
+    private void printGroup(long group, long size, String hash, List<String> files) {
+
+        if (format == Format.CSV) {
+            for (String file : files) {
+                out.println(group + "," + size + "," + hash + "," + csvField(file));
+            }
+            return;
+        }
+
+        StringBuilder json = new StringBuilder(group > 1 ? "," : "")
+            .append("{\"size\":").append(size)
+            .append(",\"hash\":").append(jsonString(hash))
+            .append(",\"paths\":[");
+
+        for (int i = 0; i < files.size(); i++) {
+            json.append(i > 0 ? "," : "").append(jsonString(files.get(i)));
+        }
+
+        out.println(json.append("]}").toString());
+    }
+
+    private int endOfGroup(int start) {
+
+        int end = start + 1;
+
+        while (end < sizes.length && sizes[end] == sizes[start]) {
+            end++;
+        }
+
+        return end;
+    }
+
+    private void walk(List<String> roots, BiConsumer<Path, BasicFileAttributes> consumer) {
+
+        for (String root : roots) {
+            try {
+                Files.walkFileTree(Paths.get(root), new SimpleFileVisitor<Path>() {
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+
+                        if (attrs.isRegularFile() && attrs.size() > 0) {
+                            consumer.accept(file, attrs);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        failed.set(true);
+                        err.println(file + ": " + message(e));
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+
+            } catch (IOException e) {
+                failed.set(true);
+                err.println(root + ": " + message(e));
+            }
+        }
+    }
+
+    /**
+     * Hashes the first and last bytes of a file, all of them if it is small.
+     */
+    private static long edgeHash(Path file, long size) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, 2 * EDGE_SIZE));
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            if (size <= 2 * EDGE_SIZE) {
+                readFully(channel, buffer, 0);
+            } else {
+                buffer.limit(EDGE_SIZE);
+                readFully(channel, buffer, 0);
+                buffer.limit(2 * EDGE_SIZE);
+                readFully(channel, buffer, size - EDGE_SIZE);
+            }
+        }
+
+        buffer.flip();
+
+        Xxh3Digest digest = new Xxh3Digest();
+        digest.update(buffer);
+
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+
+        long offset = position;
+
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+
+            // Shrunk since walked, its hash then differs from that of any complete file
+            if (read < 0) {
+                return;
+            }
+            offset += read;
+        }
+    }
+
+    private void fail(int slot, Exception e) {
+        failed.set(true);
+        err.println(paths[slot] + ": " + message(e));
+    }
+
+    private static String message(Exception e) {
+        return e instanceof NoSuchFileException ? "No such file or directory" : e.getMessage();
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format(Locale.ROOT, "%.1f MB", bytes / 1048576.0);
+    }
+
+    private static String csvField(String value) {
+
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String jsonString(String value) {
+
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+
+        return json.append('"').toString();
+    }
+
+}
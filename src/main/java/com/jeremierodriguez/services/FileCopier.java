@@ -0,0 +1,425 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.BufferPool;
+import com.jeremierodriguez.util.ConsoleWriter;
+import com.jeremierodriguez.util.DigestFormat;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * This class copies files while hashing them, so that their digests cost no read of their own.
+ * Every chunk read from the source is handed to the digests and then written from the same buffer
+ * to the destination, with the read of the next chunk overlapped as when hashing. A file is
+ * written next to its destination under a temporary name, forced to disk and renamed once
+ * complete.
+ * <p>
+ * Copies may then be verified by reading them again and comparing their digests. That read opens
+ * them with {@code O_DIRECT}, so that it checks what reached the disk rather than what is still in
+ * the page cache, on JVMs and file systems supporting it. Elsewhere it falls back to a plain read,
+ * and says so. Digests of sources, and of verified destinations, are printed or written to a
+ * manifest and stored in the digest cache.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class FileCopier {
+
+    private static final int BUFFER_SIZE = 1048576;
+    private static final String PART_SUFFIX = ".cscheck-part";
+
+    // Available from Java 10 on, null before
+    private static final OpenOption DIRECT = directOption();
+    private static final MethodHandle BLOCK_SIZE = handle(FileStore.class, "getBlockSize", long.class);
+    private static final MethodHandle ALIGNED_SLICE = handle(ByteBuffer.class, "alignedSlice", ByteBuffer.class, int.class);
+
+    private final List<Algs> algos;
+    private final boolean verify;
+    private final CachingHasher hasher;
+    private final IoScheduler scheduler;
+    private final AtomicBoolean failed = new AtomicBoolean();
+    private final AtomicLong filesCopied = new AtomicLong();
+    private final AtomicLong bytesCopied = new AtomicLong();
+    private final AtomicLong filesVerified = new AtomicLong();
+    private final AtomicLong cachedReads = new AtomicLong();
+    private Writer manifest = null;
+    private ConsoleWriter out = null;
+    private ConsoleWriter err = null;
+
+    /**
+     * Constructor needing the algorithms of the digests.
+     *
+     * @param algos     algorithms computed while copying
+     * @param verify    whether copies are read again and checked
+     * @param hasher    hasher caching the digests, possibly without a cache
+     * @param scheduler scheduler of the copies
+     */
+    public FileCopier(List<Algs> algos, boolean verify, CachingHasher hasher, IoScheduler scheduler) {
+        this.algos = algos;
+        this.verify = verify;
+        this.hasher = hasher;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Copies files or directory trees like {@code cp -r}: a single source to a destination
+     * path, or any number of them into an existing directory. Symbolic links are copied as links.
+     *
+     * @param paths        sources followed by the destination
+     * @param manifestPath file receiving the digests, null to print them
+     * @return 0 if every file was copied, and verified if asked, 1 otherwise
+     */
+    public int run(List<String> paths, String manifestPath) {
+
+        try (ConsoleWriter outWriter = new ConsoleWriter(); ConsoleWriter errWriter = new ConsoleWriter(FileDescriptor.err)) {
+            out = outWriter;
+            err = errWriter;
+
+            Path destination = Paths.get(paths.get(paths.size() - 1));
+            boolean intoDirectory = Files.isDirectory(destination);
+
+            if (paths.size() > 2 && !intoDirectory) {
+                err.println(destination + ": Not a directory");
+                return 1;
+            }
+
+            if (manifestPath != null) {
+                manifest = Files.newBufferedWriter(Paths.get(manifestPath), StandardCharsets.UTF_8);
+            }
+
+            try {
+                for (String path : paths.subList(0, paths.size() - 1)) {
+                    Path source = Paths.get(path);
+                    copy(source, intoDirectory ? destination.resolve(source.getFileName()) : destination);
+                }
+                scheduler.awaitCompletion();
+
+            } finally {
+                if (manifest != null) {
+                    manifest.close();
+                }
+            }
+
+            err.println(filesCopied.get() + " files copied ("
+                + String.format(Locale.ROOT, "%.1f MB", bytesCopied.get() / 1048576.0) + ")"
+                + (verify ? ", " + filesVerified.get() + " verified" : "")
+                + (cachedReads.get() > 0 ? ", " + cachedReads.get() + " of them possibly from the page cache" : ""));
+
+        } catch (IOException e) {
+            err.println("Manifest could not be written: " + e.getMessage());
+            failed.set(true);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            scheduler.shutdownNow();
+            failed.set(true);
+        }
+
+        return failed.get() ? 1 : 0;
+    }
+
+    private void copy(Path source, Path target) throws InterruptedException {
+
+        BasicFileAttributes attrs;
+
+        try {
+            attrs = Files.readAttributes(source, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            fail(source, e);
+            return;
+        }
+
+        if (!attrs.isDirectory()) {
+            submit(source, target, attrs);
+            return;
+        }
+
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes dirAttrs) throws IOException {
+                    Files.createDirectories(target.resolve(source.relativize(dir)));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes fileAttrs) {
+                    try {
+                        submit(file, target.resolve(source.relativize(file)), fileAttrs);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return FileVisitResult.TERMINATE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    fail(file, e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            fail(source, e);
+        }
+
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    private void submit(Path source, Path target, BasicFileAttributes attrs) throws InterruptedException {
+
+        if (attrs.isSymbolicLink()) {
+            try {
+                Files.deleteIfExists(target);
+                Files.createSymbolicLink(target, Files.readSymbolicLink(source));
+            } catch (IOException | UnsupportedOperationException e) {
+                fail(source, e);
+            }
+            return;
+        }
+
+        if (!attrs.isRegularFile()) {
+            err.println(source + ": Not a regular file, skipped");
+            return;
+        }
+
+        try {
+            if (Files.exists(target) && Files.isSameFile(source, target)) {
+                fail(source, "Source and destination are the same file");
+                return;
+            }
+        } catch (IOException e) {
+            fail(source, e);
+            return;
+        }
+
+        scheduler.submit(source, attrs, () -> {
+            try {
+                copyFile(source, target, attrs);
+            } catch (NoSuchFileException e) {
+                fail(source, "No such file");
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                fail(source, e);
+            }
+        });
+    }
+
+    private void copyFile(Path source, Path target, BasicFileAttributes attrs)
+        throws IOException, GeneralSecurityException {
+
+        Path part = target.resolveSibling("." + target.getFileName() + PART_SUFFIX);
+        MultiDigester digester = new MultiDigester(algos);
+        long length;
+
+        try {
+            try (FileChannel in = FileChannel.open(source);
+                 FileChannel outChannel = FileChannel.open(part, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+                length = in.size();
+                IoStrategy strategy = IoStrategy.forLength(length) == IoStrategy.MAPPED
+                    ? IoStrategy.MAPPED : IoStrategy.DIRECT;
+                int bufferSize = strategy == IoStrategy.MAPPED ? strategy.bufferSize(length) : BUFFER_SIZE;
+
+                ChannelReader.read(in, length, strategy, bufferSize, ChannelReader.isPipelined(strategy), chunk -> {
+                    int start = chunk.position();
+                    digester.accept(chunk);
+                    chunk.position(start);
+                    try {
+                        while (chunk.hasRemaining()) {
+                            outChannel.write(chunk);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, () -> false);
+
+                outChannel.force(true);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } finally {
+            Files.deleteIfExists(part);
+        }
+
+        Map<Algs, byte[]> digests = digester.digest();
+        filesCopied.incrementAndGet();
+        bytesCopied.addAndGet(length);
+        hasher.put(source, attrs, digests, err::println);
+        write(source, digests);
+
+        if (verify) {
+            verify(target, digests);
+        }
+    }
+
+    private void verify(Path target, Map<Algs, byte[]> expected) throws IOException, GeneralSecurityException {
+
+        BasicFileAttributes attrs = Files.readAttributes(target, BasicFileAttributes.class);
+        Map<Algs, byte[]> actual = readUncached(target);
+
+        for (Map.Entry<Algs, byte[]> entry : expected.entrySet()) {
+            if (!MessageDigest.isEqual(entry.getValue(), actual.get(entry.getKey()))) {
+                fail(target, entry.getKey() + " digest differs from the source's after copy");
+                return;
+            }
+        }
+
+        filesVerified.incrementAndGet();
+        hasher.put(target, attrs, actual, err::println);
+        write(target, actual);
+    }
+
+    /**
+     * Digests a file without going through the page cache when possible.
+     */
+    private Map<Algs, byte[]> readUncached(Path file) throws IOException, GeneralSecurityException {
+
+        MultiDigester digester = new MultiDigester(algos);
+
+        if (DIRECT != null && BLOCK_SIZE != null && ALIGNED_SLICE != null) {
+            FileChannel channel = null;
+            int blockSize = 0;
+
+            try {
+                blockSize = (int) (long) BLOCK_SIZE.invoke(Files.getFileStore(file));
+                channel = FileChannel.open(file, StandardOpenOption.READ, DIRECT);
+            } catch (IOException | UnsupportedOperationException e) {
+                // File system without direct I/O
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+
+            if (channel != null) {
+                try (FileChannel direct = channel) {
+                    readAligned(direct, blockSize, digester);
+                    return digester.digest();
+                }
+            }
+        }
+
+        cachedReads.incrementAndGet();
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            long length = channel.size();
+            IoStrategy strategy = IoStrategy.forLength(length);
+            ChannelReader.read(channel, length, strategy, digester, () -> false);
+        }
+
+        return digester.digest();
+    }
+
+    /**
+     * Reads a channel opened for direct I/O, whose buffer, position and read sizes must all be
+     * multiples of the block size.
+     */
+    private static void readAligned(FileChannel channel, int blockSize, MultiDigester digester) throws IOException {
+
+        ByteBuffer pooled = BufferPool.acquire(BUFFER_SIZE + blockSize);
+
+        try {
+            ByteBuffer buffer = (ByteBuffer) ALIGNED_SLICE.invoke(pooled, blockSize);
+            buffer.limit(BUFFER_SIZE / blockSize * blockSize);
+            int capacity = buffer.limit();
+            long length = channel.size();
+            long position = 0;
+            int read;
+
+            // Only the last read may be short, leaving the position unaligned
+            while (position < length && (read = channel.read(buffer)) > 0) {
+                position += read;
+                buffer.flip();
+                digester.accept(buffer);
+                buffer.clear().limit(capacity);
+            }
+
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        } finally {
+            BufferPool.release(pooled);
+        }
+    }
+
+    private void write(Path path, Map<Algs, byte[]> digests) throws IOException {
+
+        StringBuilder lines = new StringBuilder();
+
+        for (Map.Entry<Algs, byte[]> entry : digests.entrySet()) {
+            lines.append(ManifestLine.format(entry.getKey().name(), path.toString(),
+                DigestFormat.toHex(entry.getValue()), true)).append('\n');
+        }
+
+        if (manifest == null) {
+            out.print(lines.toString());
+            return;
+        }
+
+        synchronized (manifest) {
+            manifest.write(lines.toString());
+        }
+    }
+
+    private static OpenOption directOption() {
+
+        try {
+            Class<?> type = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            return (OpenOption) type.getField("DIRECT").get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle handle(Class<?> owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+
+        try {
+            return MethodHandles.publicLookup().findVirtual(owner, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private void fail(Path path, Exception e) {
+        fail(path, e.getMessage());
+    }
+
+    private void fail(Path path, String message) {
+        failed.set(true);
+        err.println(path + ": " + message);
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.jeremierodriguez.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.time.Duration;
+import java.util.List;
+
+
+/**
+ * This class hashes a file with one or several algorithms, reading it only once. It is the
+ * hashing core shared by the GUI and the command line, and as such depends on no GUI toolkit:
+ * progress goes to a {@code HashListener} and results come back as a {@code HashResult}.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class FileHasher {
+
+    private File file = null;
+    private List<Algs> algos = null;
+    private volatile boolean isInterrupted = false;
+    private long readLength = 0;
+
+    /**
+     * Constructor needing parameters as seen below.
+     *
+     * @param file  {@code File} object that is going to be hashed
+     * @param algos {@code Algs} enumerations representing the desired hash algorithms
+     */
+    public FileHasher(File file, List<Algs> algos) {
+        this.file = file;
+        this.algos = algos;
+    }
+
+    /**
+     * Hashes the file, blocking until it is fully read or until {@link #interrupt()} is called.
+     *
+     * @param listener notified after every chunk, on the calling thread
+     * @return generated hashes and statistics about how they were computed
+     * @throws IOException              if the file could not be read
+     * @throws NoSuchAlgorithmException if an algorithm is not supported
+     * @throws NoSuchProviderException  if an algorithm's provider is not available
+     */
+    public HashResult hash(HashListener listener)
+        throws IOException, NoSuchAlgorithmException, NoSuchProviderException {
+
+        MultiDigester digester = new MultiDigester(algos);
+        readLength = 0;
+
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+
+            long length = channel.size();
+            IoStrategy strategy = IoStrategy.forLength(length);
+            boolean pipelined = ChannelReader.isPipelined(strategy);
+            long startTime = System.nanoTime();
+
+            ChannelReader.read(channel, length, strategy, pipelined, chunk -> {
+                readLength += chunk.remaining();
+                digester.accept(chunk);
+                listener.progress(readLength, length);
+            }, () -> isInterrupted);
+
+            Duration duration = Duration.ofNanos(System.nanoTime() - startTime);
+
+            return new HashResult(digester.digest(), readLength, length, strategy, pipelined, duration,
+                isInterrupted);
+        }
+    }
+
+    /**
+     * Used to interrupt hashing, which then returns as soon as the current chunk is digested.
+     */
+    public void interrupt() {
+        this.isInterrupted = true;
+    }
+
+}
@@ -0,0 +1,470 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.AppFolder;
+import com.jeremierodriguez.util.DaemonThreadFactory;
+import com.jeremierodriguez.util.DigestFormat;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class keeps a warm JVM hashing files for other processes, such as build systems hashing
+ * every artifact, which would otherwise pay for a JVM start, interpreted hashing code and an
+ * unloaded digest cache on every call. It listens on the loopback interface and writes its port
+ * and a random token to {@code ~/CSCheck/daemon.properties}, readable by its user only. Every
+ * client has to send the token before any request, within ten seconds of connecting.
+ * <p>
+ * Requests and replies are lines of UTF-8 text. Clients may send any number of requests without
+ * waiting for replies, which come back in the order of the requests while files are hashed
+ * concurrently on the shared {@link IoScheduler}:
+ * <ul>
+ * <li>{@code AUTH <token>}, answered by {@code OK}</li>
+ * <li>{@code HASH <algo>[,<algo>]... <absolute path>}, answered by {@code OK <hex>...} with a
+ * digest per algorithm</li>
+ * <li>{@code VERIFY <algo> <digest> <absolute path>}, answered by {@code OK} or
+ * {@code FAILED <hex>}</li>
+ * <li>{@code PING}, answered by {@code OK}</li>
+ * <li>{@code QUIT}, answered by {@code OK} before the connection is closed</li>
+ * <li>{@code STOP}, answered by {@code OK} before the daemon stops</li>
+ * </ul>
+ * Any request may be answered by {@code ERR <message>} instead.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class HashDaemon {
+
+    public static final String FILE_NAME = "daemon.properties";
+    public static final String PORT_KEY = "port";
+    public static final String TOKEN_KEY = "token";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BACKLOG = 64;
+    private static final int TOKEN_LENGTH = 16;
+    private static final int CONNECT_TIMEOUT_MILLIS = 500;
+
+    // Time a client has to authenticate before its connection is closed
+    private static final int AUTH_TIMEOUT_MILLIS = 10000;
+
+    // Time given to connections to write the replies they owe once stopped
+    private static final long DRAIN_SECONDS = 60;
+
+    // Replies a connection may owe before it stops reading requests
+    private static final int MAX_PIPELINED = 4096;
+
+    private static final String OK = "OK";
+    private static final CompletableFuture<String> END = CompletableFuture.completedFuture(null);
+
+    private final int port;
+    private final CachingHasher hasher;
+    private final IoScheduler scheduler;
+    private final ExecutorService connections = Executors.newCachedThreadPool(new DaemonThreadFactory("Daemon Connection"));
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private ServerSocket server = null;
+    private byte[] token = null;
+    private Path file = null;
+
+    /**
+     * Constructor needing the port to listen on.
+     *
+     * @param port      port of the loopback interface, 0 for any free one
+     * @param hasher    hasher of files, possibly through a digest cache
+     * @param scheduler scheduler of the reads of files
+     */
+    public HashDaemon(int port, CachingHasher hasher, IoScheduler scheduler) {
+        this.port = port;
+        this.hasher = hasher;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Serves clients until a {@code STOP} request or the end of the JVM.
+     *
+     * @return 0 once stopped, 1 if the daemon could not start
+     */
+    public int run() {
+
+        try {
+            file = AppFolder.resolve(FILE_NAME);
+            checkNotRunning();
+
+            // Calibrates providers now rather than on the first request
+            DigestProviders.describeAll();
+
+            server = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+            token = new byte[TOKEN_LENGTH];
+            new SecureRandom().nextBytes(token);
+            writeProperties();
+
+        } catch (IOException e) {
+            System.err.println("Daemon could not start: " + e.getMessage());
+            return 1;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+        System.err.println("Listening on " + server.getInetAddress().getHostAddress() + ":" + server.getLocalPort()
+            + ", see " + file);
+
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                // Known before served, so that stop() reaches it whatever the thread is doing
+                clients.add(socket);
+                connections.execute(() -> serve(socket));
+            }
+        } catch (IOException e) {
+            // Closed by stop()
+        } finally {
+            stop();
+            drain();
+        }
+
+        return 0;
+    }
+
+    /**
+     * Stops accepting clients and reading requests. Replies owed to clients are still written,
+     * such as the {@code OK} of a {@code STOP}.
+     */
+    public synchronized void stop() {
+
+        if (server == null || server.isClosed()) {
+            return;
+        }
+
+        try {
+            server.close();
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Stopping anyway
+        }
+
+        // Connections then read the end of their requests, write what they owe and close
+        for (Socket client : clients) {
+            try {
+                client.shutdownInput();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    /**
+     * Waits for connections to write the replies they owe, then interrupts those still running.
+     */
+    private void drain() {
+
+        connections.shutdown();
+
+        try {
+            if (!connections.awaitTermination(DRAIN_SECONDS, TimeUnit.SECONDS)) {
+                connections.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            connections.shutdownNow();
+        }
+    }
+
+    private void checkNotRunning() throws IOException {
+
+        Properties properties = readProperties(file);
+
+        if (properties == null) {
+            return;
+        }
+
+        boolean answered;
+        String existing = properties.getProperty(PORT_KEY, "");
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(existing)),
+                CONNECT_TIMEOUT_MILLIS);
+            answered = true;
+        } catch (IOException | IllegalArgumentException e) {
+            // Left over by a daemon that was killed
+            answered = false;
+        }
+
+        if (answered) {
+            throw new IOException("A daemon already listens on port " + existing);
+        }
+    }
+
+    /**
+     * Reads the port and token of the running daemon.
+     *
+     * @param file path of the daemon's properties
+     * @return properties, null if no daemon ran
+     * @throws IOException if the file could not be read
+     */
+    public static Properties readProperties(Path file) throws IOException {
+
+        Properties properties = new Properties();
+
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        return properties;
+    }
+
+    private void writeProperties() throws IOException {
+
+        Properties properties = new Properties();
+        properties.setProperty(PORT_KEY, String.valueOf(server.getLocalPort()));
+        properties.setProperty(TOKEN_KEY, DigestFormat.toHex(token));
+
+        Path temp;
+
+        try {
+            temp = Files.createTempFile(file.getParent(), FILE_NAME, TEMP_SUFFIX,
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system, the folder of the user has to protect it
+            temp = Files.createTempFile(file.getParent(), FILE_NAME, TEMP_SUFFIX);
+        }
+
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "Port and token of the running daemon");
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads the requests of a client, while a second thread writes their replies in order as soon
+     * as each is ready.
+     */
+    private void serve(Socket socket) {
+
+        BlockingQueue<CompletableFuture<String>> replies = new ArrayBlockingQueue<>(MAX_PIPELINED);
+
+        try (Socket client = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8))) {
+
+            client.setTcpNoDelay(true);
+
+            // Keeps no thread for a client that never authenticates
+            client.setSoTimeout(AUTH_TIMEOUT_MILLIS);
+
+            if (!authenticate(in.readLine())) {
+                out.write("ERR Unauthorized\n");
+                return;
+            }
+
+            client.setSoTimeout(0);
+            out.write(OK + "\n");
+            out.flush();
+
+            CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> writeReplies(replies, out), connections);
+
+            try {
+                String line;
+
+                while ((line = in.readLine()) != null) {
+                    CompletableFuture<String> reply = new CompletableFuture<>();
+                    replies.put(reply);
+                    if (!dispatch(line, reply)) {
+                        break;
+                    }
+                }
+            } finally {
+                replies.put(END);
+            }
+
+            writer.get();
+
+        } catch (IOException | ExecutionException | RejectedExecutionException e) {
+            // Client gone, timed out or daemon stopped
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            clients.remove(socket);
+        }
+    }
+
+    private boolean authenticate(String line) {
+
+        String prefix = "AUTH ";
+
+        if (line == null || !line.startsWith(prefix)) {
+            return false;
+        }
+
+        byte[] given = DigestFormat.parseHex(line.substring(prefix.length()).trim());
+
+        return given != null && MessageDigest.isEqual(given, token);
+    }
+
+    private void writeReplies(BlockingQueue<CompletableFuture<String>> replies, Writer out) {
+
+        try {
+            CompletableFuture<String> reply;
+
+            while ((reply = replies.take()) != END) {
+                out.write(reply.get());
+                out.write('\n');
+
+                // Replies ready together go out together
+                if (replies.isEmpty()) {
+                    out.flush();
+                }
+            }
+
+            out.flush();
+
+        } catch (IOException | ExecutionException e) {
+            // Client gone, its socket is closed by the reading thread
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Handles a request, returning false if the connection must be closed after its reply.
+     */
+    private boolean dispatch(String line, CompletableFuture<String> reply) throws InterruptedException {
+
+        String[] parts = line.split(" ", 2);
+
+        switch (parts[0]) {
+            case "PING":
+                reply.complete(OK);
+                return true;
+            case "QUIT":
+                reply.complete(OK);
+                return false;
+            case "STOP":
+                reply.complete(OK);
+                stop();
+                return false;
+            case "HASH":
+                hash(parts.length > 1 ? parts[1].split(" ", 2) : new String[0], null, reply);
+                return true;
+            case "VERIFY":
+                String[] args = parts.length > 1 ? parts[1].split(" ", 3) : new String[0];
+                if (args.length == 3) {
+                    hash(new String[]{args[0], args[2]}, args[1], reply);
+                } else {
+                    reply.complete("ERR Usage: VERIFY <algo> <digest> <absolute path>");
+                }
+                return true;
+            default:
+                reply.complete(error("Unknown request " + parts[0]));
+                return true;
+        }
+    }
+
+    /**
+     * Hashes a file on the scheduler, comparing its digest to an expected one if given.
+     */
+    private void hash(String[] args, String expected, CompletableFuture<String> reply) throws InterruptedException {
+
+        if (args.length != 2) {
+            reply.complete("ERR Usage: HASH <algo>[,<algo>]... <absolute path>");
+            return;
+        }
+
+        List<Algs> algos = new ArrayList<>();
+        Path path;
+
+        try {
+            for (String name : args[0].split(",")) {
+                algos.add(Algs.valueOf(name.toUpperCase()));
+            }
+            path = Paths.get(args[1]);
+        } catch (IllegalArgumentException e) {
+            reply.complete(error(e.getMessage()));
+            return;
+        }
+
+        if (!path.isAbsolute()) {
+            reply.complete(error("Path must be absolute: " + path));
+            return;
+        }
+
+        if (expected != null && algos.size() > 1) {
+            reply.complete(error("A single algorithm can be verified"));
+            return;
+        }
+
+        scheduler.submit(path, null, () -> {
+            try {
+                Map<Algs, byte[]> digests = hasher.hash(path, algos, HashListener.NONE, System.err::println);
+                reply.complete(expected == null ? format(algos, digests) : compare(expected, digests.get(algos.get(0))));
+            } catch (NoSuchFileException e) {
+                reply.complete(error("No such file: " + path));
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                reply.complete(error(e.getMessage()));
+            }
+        });
+    }
+
+    private static String format(List<Algs> algos, Map<Algs, byte[]> digests) {
+
+        StringBuilder builder = new StringBuilder(OK);
+
+        for (Algs algo : algos) {
+            DigestFormat.appendHex(builder.append(' '), digests.get(algo));
+        }
+
+        return builder.toString();
+    }
+
+    private static String compare(String expected, byte[] digest) {
+
+        byte[] parsed = DigestFormat.parse(expected, digest.length);
+
+        if (parsed == null) {
+            return error("Not a digest of " + digest.length + " bytes: " + expected);
+        }
+
+        return MessageDigest.isEqual(parsed, digest) ? OK : "FAILED " + DigestFormat.toHex(digest);
+    }
+
+    private static String error(String message) {
+        return "ERR " + String.valueOf(message).replace('\n', ' ').replace('\r', ' ');
+    }
+
+}
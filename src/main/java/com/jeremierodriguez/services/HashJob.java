@@ -0,0 +1,182 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.DigestFormat;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class is a file queued in a {@link JobQueue}. Its state is written by the worker hashing it
+ * and read by the GUI whenever it refreshes, so that progress costs a field write per chunk rather
+ * than an event per chunk.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class HashJob {
+
+    /**
+     * Stage a job is at, only ever moving forward.
+     */
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    private final Path file;
+    private final long length;
+    private final List<Algs> algos;
+    private final Runnable onChange;
+    private volatile State state = State.QUEUED;
+    private volatile long bytesRead = 0;
+    private volatile String result = null;
+    private volatile boolean cancelled = false;
+    private volatile FileHasher hasher = null;
+
+    /**
+     * Constructor needing the file to hash.
+     *
+     * @param file     path of the file
+     * @param length   length of the file in bytes, as walked
+     * @param algos    algorithms to compute, all of them with a single read of the file
+     * @param onChange called on the worker thread whenever the state or progress changes
+     */
+    HashJob(Path file, long length, List<Algs> algos, Runnable onChange) {
+        this.file = file;
+        this.length = length;
+        this.algos = algos;
+        this.onChange = onChange;
+    }
+
+    /**
+     * Hashes the file, unless the job was cancelled while queued.
+     */
+    void run() {
+
+        if (cancelled) {
+            return;
+        }
+
+        state = State.RUNNING;
+        onChange.run();
+
+        try {
+            hasher = new FileHasher(file.toFile(), algos);
+
+            // Cancelled between the check above and the hasher being visible
+            if (cancelled) {
+                hasher.interrupt();
+            }
+
+            HashResult hashResult = hasher.hash((read, total) -> {
+                bytesRead = read;
+                onChange.run();
+            });
+
+            if (hashResult.isInterrupted()) {
+                state = State.CANCELLED;
+            } else {
+                result = format(hashResult.getHashes());
+                state = State.DONE;
+            }
+
+        } catch (NoSuchFileException e) {
+            fail("No such file");
+
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            fail(e.getMessage());
+
+        } finally {
+            hasher = null;
+            onChange.run();
+        }
+    }
+
+    /**
+     * Cancels the job: a queued job is skipped, a running one stops after its current chunk.
+     */
+    public void cancel() {
+
+        cancelled = true;
+
+        FileHasher running = hasher;
+        if (running != null) {
+            running.interrupt();
+        }
+
+        if (state == State.QUEUED) {
+            state = State.CANCELLED;
+            onChange.run();
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Returns how much of the file has been hashed.
+     *
+     * @return fraction between 0 and 1
+     */
+    public double getFraction() {
+
+        if (state == State.DONE) {
+            return 1;
+        }
+
+        return length > 0 ? Math.min(1, (double) bytesRead / length) : 0;
+    }
+
+    /**
+     * Returns the hashes once done, the reason of the failure once failed, null otherwise.
+     *
+     * @return hex hash, preceded by its algorithm if several were computed, or error message
+     */
+    public String getResult() {
+        return result;
+    }
+
+    /**
+     * Tells whether the job is over, whatever its outcome.
+     *
+     * @return true if done, failed or cancelled
+     */
+    public boolean isFinished() {
+        return state != State.QUEUED && state != State.RUNNING;
+    }
+
+    private void fail(String message) {
+        result = message;
+        state = State.FAILED;
+    }
+
+    private String format(Map<Algs, byte[]> hashes) {
+
+        StringBuilder text = new StringBuilder();
+
+        for (Map.Entry<Algs, byte[]> entry : hashes.entrySet()) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            if (hashes.size() > 1) {
+                text.append(entry.getKey().name()).append(' ');
+            }
+            DigestFormat.appendHex(text, entry.getValue());
+        }
+
+        return text.toString();
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.jeremierodriguez.services;
+
+
+/**
+ * Listener notified of the progress of a {@code FileHasher}, on the thread doing the hashing.
+ *
+ * @author Jeremie Rodriguez
+ */
+@FunctionalInterface
+public interface HashListener {
+
+    /**
+     * Listener ignoring all notifications.
+     */
+    HashListener NONE = (bytesRead, length) -> {
+    };
+
+    /**
+     * Called after every chunk of the file has been digested.
+     *
+     * @param bytesRead number of bytes digested so far
+     * @param length    length of the file in bytes
+     */
+    void progress(long bytesRead, long length);
+
+}
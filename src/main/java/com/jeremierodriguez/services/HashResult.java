@@ -0,0 +1,78 @@
+package com.jeremierodriguez.services;
+
+import java.time.Duration;
+import java.util.Map;
+
+
+/**
+ * Immutable result of a {@code FileHasher}: generated hashes along with how they were computed.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class HashResult {
+
+    private final Map<Algs, byte[]> hashes;
+    private final long bytesRead;
+    private final long length;
+    private final IoStrategy strategy;
+    private final boolean pipelined;
+    private final Duration duration;
+    private final boolean interrupted;
+
+    HashResult(Map<Algs, byte[]> hashes, long bytesRead, long length, IoStrategy strategy, boolean pipelined,
+               Duration duration, boolean interrupted) {
+        this.hashes = hashes;
+        this.bytesRead = bytesRead;
+        this.length = length;
+        this.strategy = strategy;
+        this.pipelined = pipelined;
+        this.duration = duration;
+        this.interrupted = interrupted;
+    }
+
+    /**
+     * Returns generated hashes, meaningless if hashing was interrupted.
+     *
+     * @return raw hashes mapped to their algorithm, in requested order
+     */
+    public Map<Algs, byte[]> getHashes() {
+        return hashes;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public IoStrategy getStrategy() {
+        return strategy;
+    }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    public boolean isInterrupted() {
+        return interrupted;
+    }
+
+    /**
+     * Returns the number of megabytes read per second.
+     *
+     * @return throughput in MB/s
+     */
+    public double getThroughput() {
+
+        long millis = Math.max(duration.toMillis(), 1);
+
+        return bytesRead / 1048576.0 / (millis / 1000.0);
+    }
+
+}
@@ -0,0 +1,462 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.AppFolder;
+import com.jeremierodriguez.util.DigestFormat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+
+/**
+ * This class looks digests up in a set of known hashes, such as an NSRL list of known files or a
+ * list of indicators of compromise, of hundreds of millions of entries. The text list is indexed
+ * once into a file of the application folder holding an open-addressing table of raw digests,
+ * which is memory-mapped rather than loaded: lookups read its pages straight from the page cache,
+ * cost no heap whatever the size of the list, allocate nothing and may run from any number of
+ * threads at the same time.
+ * <p>
+ * The index is built again whenever the list changes size or modification time. A list holds a
+ * hexadecimal digest per line, either alone, first in a comma or whitespace separated line such as
+ * a {@code sha256sum} manifest or an NSRL CSV, or last in a tagged manifest line. Lines without a
+ * digest of the expected length, such as CSV headers, are skipped.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class HashSetIndex implements AutoCloseable {
+
+    private static final String FOLDER = "hashsets";
+    private static final String SUFFIX = ".index";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x43534853;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    // Digests per slot, more slots making probe sequences shorter
+    private static final double LOAD_FACTOR = 0.7;
+
+    // Mapped buffers cannot exceed 2 GB, slots are mapped by segments of about 1 GB
+    private static final int SEGMENT_SIZE = 1 << 30;
+
+    private static final long ENTRIES_PER_REPORT = 100000000L;
+
+    private final Algs algo;
+    private final int digestLength;
+    private final long entries;
+    private final int capacity;
+    private final boolean hasZero;
+    private final int segmentSlots;
+    private final MappedByteBuffer[] segments;
+    private final FileChannel channel;
+
+    private HashSetIndex(Algs algo, int digestLength, long entries, int capacity, boolean hasZero,
+                         FileChannel channel, FileChannel.MapMode mode) throws IOException {
+        this.algo = algo;
+        this.digestLength = digestLength;
+        this.entries = entries;
+        this.capacity = capacity;
+        this.hasZero = hasZero;
+        this.channel = channel;
+
+        segmentSlots = SEGMENT_SIZE / digestLength;
+        segments = new MappedByteBuffer[(int) ((capacity + (long) segmentSlots - 1) / segmentSlots)];
+
+        for (int i = 0; i < segments.length; i++) {
+            long slots = Math.min(segmentSlots, capacity - (long) i * segmentSlots);
+            segments[i] = channel.map(mode, HEADER_SIZE + (long) i * segmentSlots * digestLength, slots * digestLength);
+        }
+    }
+
+    /**
+     * Opens the index of a hash list, building it first if the list has none or has changed since.
+     *
+     * @param list     path of the text list of digests
+     * @param algo     algorithm of the digests, null to infer it from the length of the first one
+     * @param messages consumer of the messages telling how the index was built or opened
+     * @return index to close once done
+     * @throws IOException if the list could not be read, has no digest, or the index could not
+     *                     be written
+     */
+    public static HashSetIndex open(Path list, Algs algo, Consumer<String> messages) throws IOException {
+
+        BasicFileAttributes attrs = Files.readAttributes(list, BasicFileAttributes.class);
+        Path index = indexOf(list);
+
+        if (Files.exists(index)) {
+            FileChannel channel = FileChannel.open(index);
+
+            try {
+                HashSetIndex opened = read(channel, attrs, algo);
+                if (opened != null) {
+                    messages.accept("Hash set " + list.getFileName() + ": " + opened.entries + " " + opened.algo
+                        + " digests");
+                    return opened;
+                }
+            } catch (IOException | RuntimeException e) {
+                messages.accept("Hash set index of " + list.getFileName() + " unreadable, built again: " + e.getMessage());
+            }
+
+            channel.close();
+        }
+
+        long start = System.nanoTime();
+        build(list, attrs, algo, index);
+
+        FileChannel channel = FileChannel.open(index);
+        HashSetIndex built = read(channel, attrs, algo);
+
+        if (built == null) {
+            channel.close();
+            throw new IOException("Hash list changed while indexed");
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long size = channel.size();
+        messages.accept(String.format(Locale.ROOT, "Indexed %d %s digests of %s in %.1f s, %.1f MB (%.2f GB per %dM digests)",
+            built.entries, built.algo, list.getFileName(), seconds, size / 1048576.0,
+            size * (double) ENTRIES_PER_REPORT / built.entries / 1073741824.0,
+            ENTRIES_PER_REPORT / 1000000));
+
+        return built;
+    }
+
+    /**
+     * Tells whether a digest belongs to the set, without allocating anything.
+     *
+     * @param digest raw digest computed with the algorithm of the set
+     * @return true if the list holds the digest
+     */
+    public boolean contains(byte[] digest) {
+
+        if (digest == null || digest.length != digestLength) {
+            return false;
+        }
+
+        if (isZero(digest)) {
+            return hasZero;
+        }
+
+        int slot = slotOf(digest, capacity);
+
+        while (true) {
+            ByteBuffer segment = segments[slot / segmentSlots];
+            int position = (slot % segmentSlots) * digestLength;
+
+            if (matches(segment, position, digest)) {
+                return true;
+            }
+            if (isFree(segment, position)) {
+                return false;
+            }
+
+            slot = slot + 1 == capacity ? 0 : slot + 1;
+        }
+    }
+
+    /**
+     * Returns the algorithm of the digests of the set.
+     *
+     * @return algorithm to hash files with
+     */
+    public Algs getAlgo() {
+        return algo;
+    }
+
+    /**
+     * Returns the number of distinct digests of the set.
+     *
+     * @return number of digests
+     */
+    public long getEntries() {
+        return entries;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads the header of an index, returning null if it is not the index of the list as it is.
+     */
+    private static HashSetIndex read(FileChannel channel, BasicFileAttributes attrs, Algs algo) throws IOException {
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                break;
+            }
+        }
+
+        header.flip();
+
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            return null;
+        }
+
+        int digestLength = header.getInt();
+        boolean hasZero = header.getInt() != 0;
+        int capacity = header.getInt();
+        long entries = header.getLong();
+        long listSize = header.getLong();
+        long listModified = header.getLong();
+        byte[] name = new byte[header.get()];
+        header.get(name);
+        Algs indexed = Algs.valueOf(new String(name, StandardCharsets.US_ASCII));
+
+        if (listSize != attrs.size() || listModified != attrs.lastModifiedTime().toMillis()
+            || algo != null && algo != indexed
+            || channel.size() != HEADER_SIZE + (long) capacity * digestLength) {
+            return null;
+        }
+
+        return new HashSetIndex(indexed, digestLength, entries, capacity, hasZero, channel, FileChannel.MapMode.READ_ONLY);
+    }
+
+    /**
+     * Writes the index of a list to a temporary file moved over the index once complete.
+     */
+    private static void build(Path list, BasicFileAttributes attrs, Algs algo, Path index) throws IOException {
+
+        // A first read infers the algorithm and counts digests to size the table
+        Algs listAlgo = algo;
+        long count = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(list, StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String hex = hexOf(line, listAlgo == null ? 0 : digestLengthOf(listAlgo) * 2);
+                if (hex != null) {
+                    if (listAlgo == null) {
+                        listAlgo = ManifestVerifier.algorithmOfLength(hex.length());
+                    }
+                    count++;
+                }
+            }
+        }
+
+        if (count == 0) {
+            throw new IOException("No " + (algo == null ? "" : algo + " ") + "digest found in " + list);
+        }
+
+        int digestLength = digestLengthOf(listAlgo);
+        long slots = (long) Math.ceil(count / LOAD_FACTOR) + 1;
+
+        if (slots >= Integer.MAX_VALUE) {
+            throw new IOException("Too many digests in " + list + ": " + count);
+        }
+
+        int capacity = (int) slots;
+        Path temp = Files.createTempFile(index.getParent(), index.getFileName().toString(), TEMP_SUFFIX);
+
+        try {
+            try (RandomAccessFile file = new RandomAccessFile(temp.toFile(), "rw")) {
+                file.setLength(HEADER_SIZE + (long) capacity * digestLength);
+
+                HashSetIndex table = new HashSetIndex(listAlgo, digestLength, 0, capacity, false, file.getChannel(),
+                    FileChannel.MapMode.READ_WRITE);
+                long entries = 0;
+                boolean hasZero = false;
+                byte[] digest = new byte[digestLength];
+
+                try (BufferedReader reader = Files.newBufferedReader(list, StandardCharsets.ISO_8859_1)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String hex = hexOf(line, digestLength * 2);
+
+                        if (hex == null || !DigestFormat.parseHex(hex, digest)) {
+                            continue;
+                        }
+
+                        if (isZero(digest)) {
+                            entries += hasZero ? 0 : 1;
+                            hasZero = true;
+                        } else if (table.insert(digest)) {
+                            // Stops before a list grown since counted overfills the table
+                            if (++entries == capacity) {
+                                throw new IOException("Hash list changed while indexed");
+                            }
+                        }
+                    }
+                }
+
+                for (MappedByteBuffer segment : table.segments) {
+                    segment.force();
+                }
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                byte[] name = listAlgo.name().getBytes(StandardCharsets.US_ASCII);
+                header.putInt(MAGIC).putInt(VERSION).putInt(digestLength).putInt(hasZero ? 1 : 0).putInt(capacity)
+                    .putLong(entries).putLong(attrs.size()).putLong(attrs.lastModifiedTime().toMillis())
+                    .put((byte) name.length).put(name);
+                header.rewind();
+
+                while (header.hasRemaining()) {
+                    file.getChannel().write(header, header.position());
+                }
+            }
+
+            Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Adds a non-zero digest to the table, returning false if it was already there.
+     */
+    private boolean insert(byte[] digest) {
+
+        int slot = slotOf(digest, capacity);
+
+        while (true) {
+            ByteBuffer segment = segments[slot / segmentSlots];
+            int position = (slot % segmentSlots) * digestLength;
+
+            if (matches(segment, position, digest)) {
+                return false;
+            }
+
+            if (isFree(segment, position)) {
+                for (int i = 0; i < digestLength; i++) {
+                    segment.put(position + i, digest[i]);
+                }
+                return true;
+            }
+
+            slot = slot + 1 == capacity ? 0 : slot + 1;
+        }
+    }
+
+    private boolean matches(ByteBuffer segment, int position, byte[] digest) {
+
+        for (int i = 0; i < digestLength; i++) {
+            if (segment.get(position + i) != digest[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isFree(ByteBuffer segment, int position) {
+
+        for (int i = 0; i < digestLength; i++) {
+            if (segment.get(position + i) != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Maps the first bytes of a digest, uniformly distributed, to a slot of a table of any
+     * capacity with a multiplication rather than a division.
+     */
+    private static int slotOf(byte[] digest, int capacity) {
+
+        long prefix = 0;
+
+        for (int i = 0; i < 4; i++) {
+            prefix = prefix << 8 | (i < digest.length ? digest[i] & 0xFF : 0);
+        }
+
+        return (int) (prefix * capacity >>> 32);
+    }
+
+    private static boolean isZero(byte[] digest) {
+
+        for (byte b : digest) {
+            if (b != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Finds the digest of a line of a list: its last field if tagged, its first one otherwise.
+     *
+     * @param hexLength expected number of hexadecimal digits, 0 for any length of a known algorithm
+     * @return digits of the digest, null if the line has none
+     */
+    private static String hexOf(String line, int hexLength) {
+
+        int tag = line.lastIndexOf(" = ");
+        String hex;
+
+        if (tag >= 0) {
+            hex = line.substring(tag + 3).trim();
+        } else {
+            int end = 0;
+            while (end < line.length() && !Character.isWhitespace(line.charAt(end)) && line.charAt(end) != ',') {
+                end++;
+            }
+            hex = line.substring(0, end);
+        }
+
+        if (hex.length() > 1 && hex.charAt(0) == '"' && hex.charAt(hex.length() - 1) == '"') {
+            hex = hex.substring(1, hex.length() - 1);
+        }
+
+        if (hexLength == 0 ? ManifestVerifier.algorithmOfLength(hex.length()) == null : hex.length() != hexLength) {
+            return null;
+        }
+
+        for (int i = 0; i < hex.length(); i++) {
+            if (Character.digit(hex.charAt(i), 16) < 0) {
+                return null;
+            }
+        }
+
+        return hex;
+    }
+
+    private static int digestLengthOf(Algs algo) throws IOException {
+        try {
+            return algo.newDigest().getDigestLength();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unsupported algorithm " + algo, e);
+        }
+    }
+
+    /**
+     * Returns the index file of a list, named after the MD5 of its absolute path.
+     */
+    private static Path indexOf(Path list) throws IOException {
+
+        MessageDigest md5;
+
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        String name = DigestFormat.toHex(md5.digest(list.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8)));
+
+        Path folder = AppFolder.resolve(FOLDER);
+        Files.createDirectories(folder);
+
+        return folder.resolve(name + SUFFIX);
+    }
+
+}
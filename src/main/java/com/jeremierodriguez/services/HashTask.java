@@ -6,33 +6,41 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.xml.bind.DatatypeConverter;
+import com.jeremierodriguez.util.DigestFormat;
+import org.apache.logging.log4j.util.Unbox;
+
 import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 
 /**
- * This {@code Task} class hashes given String using the selected algorithm and returns an integer
- * to indicate if hashes are equal or not. Integer 0 is returned if hashes are different, 1 if
- * equal or -1 if task was interrupted before end of its process.
+ * This {@code Task} class hashes given file using the selected algorithms, all computed with a
+ * single read, and returns an integer to indicate if given hash equals one of the generated ones.
+ * Integer 0 is returned if hashes are different, 1 if equal or -1 if task was interrupted before
+ * end of its process. Hashing itself is done by a {@code FileHasher}, this class only adapts it
+ * to JavaFX.
+ * <p>
+ * The given hash may be hexadecimal of any case or Base64, it is compared as raw bytes with each
+ * generated digest and only the displayed digest is formatted as text.
  *
  * @author Jeremie Rodriguez
  */
 public class HashTask extends Task<Integer> {
 
     private static final Logger LOGGER = LogManager.getLogger(HashTask.class);
-    private static final String PROVIDER = "BC";
-    private MessageDigest digest = null;
+    private static final long PROGRESS_MILLIS = 100;
+    private FileHasher hasher = null;
+    private ResumableHasher resumableHasher = null;
     private File file = null;
-    private Algs algo = null;
     private Integer hashEquals = 0;
-    private boolean isInterrupted = false;
     private String hash = null;
     private ReadOnlyStringWrapper readOnlyGenHash = new ReadOnlyStringWrapper();
 
@@ -44,89 +52,111 @@ public class HashTask extends Task<Integer> {
      * @param algo {@code Algs} enumeration representing the desired hash algorithm
      */
     public HashTask(String hash, File file, Algs algo) {
+        this(hash, file, Collections.singletonList(algo));
+    }
+
+    /**
+     * Constructor computing several algorithms with a single read of the file.
+     *
+     * @param hash  the one that is going to be compared to the generated ones
+     * @param file  {@code File} object that is going to be hashed
+     * @param algos {@code Algs} enumerations representing the desired hash algorithms
+     */
+    public HashTask(String hash, File file, List<Algs> algos) {
+        this(hash, file, algos, false);
+    }
+
+    /**
+     * Constructor optionally checkpointing large files, so that a cancelled hash resumes where it
+     * stopped.
+     *
+     * @param hash   the one that is going to be compared to the generated ones
+     * @param file   {@code File} object that is going to be hashed
+     * @param algos  {@code Algs} enumerations representing the desired hash algorithms
+     * @param resume true to hash large files with a {@code ResumableHasher}, see its conditions
+     */
+    public HashTask(String hash, File file, List<Algs> algos, boolean resume) {
         this.file = file;
-        this.algo = algo;
         this.hash = hash;
+
+        if (resume && ResumableHasher.supports(algos) && file.length() >= ResumableHasher.MIN_LENGTH) {
+            this.resumableHasher = new ResumableHasher(file, algos);
+        } else {
+            this.hasher = new FileHasher(file, algos);
+        }
     }
 
     @Override
     protected Integer call() throws Exception {
 
-        return digestFile(file, algo);
+        return digestFile(file);
     }
 
-    private Integer digestFile(File file, Algs algo) {
-
-        Long fileLength = file.length();
-
-        try {
-            digest = MessageDigest.getInstance(algo.toString(), PROVIDER);
-        } catch (NoSuchAlgorithmException | NoSuchProviderException e1) {
-            LOGGER.log(Level.ERROR, e1.getMessage(), e1);
-        }
+    private Integer digestFile(File file) {
 
         hashEquals = 0;
 
-        LOGGER.log(Level.INFO, "File length: " + fileLength + " bytes");
-
-        int bufferSize;
-
-        // less than 10 Mb
-        if (fileLength < 10485760) {
-            bufferSize = 1024;
-
-            // less than 500 Mb
-        } else if (fileLength <= 524288000) {
-            bufferSize = 102400;
-
-            // more than 500 Mb
-        } else {
-            bufferSize = 2048000;
-        }
-
-        LOGGER.log(Level.INFO, "Buffer size: " + bufferSize + " bytes");
-
-        long startTime = System.currentTimeMillis();
-
-        try (FileChannel channel = FileChannel.open(file.toPath())) {
-
-            int read = 0;
-            long readLength = 0;
+        LOGGER.log(Level.INFO, "File length: {} bytes", Unbox.box(file.length()));
 
-            ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        try {
+            HashResult result;
+
+            // Reports at a fixed rate, however small the chunks are
+            try (ProgressTracker tracker = new ProgressTracker(PROGRESS_MILLIS, progress -> {
+                updateProgress(progress.getFraction(), 1);
+                updateMessage(progress.formatThroughput() + ", " + progress.formatTimeLeft() + " left");
+            })) {
+                tracker.expect(file.length());
+                HashListener listener = tracker.startFile();
+                result = resumableHasher != null ? resumableHasher.hash(listener) : hasher.hash(listener);
+            }
 
-            while (read != -1 && !isInterrupted) {
+            long fileLength = result.getLength();
+            long readLength = result.getBytesRead();
+            IoStrategy strategy = result.getStrategy();
 
-                read = channel.read(buffer);
-                buffer.flip();
+            LOGGER.log(Level.INFO, "I/O strategy: {}", strategy);
+            LOGGER.log(Level.INFO, "Buffer size: {} bytes", Unbox.box(strategy.bufferSize(fileLength)));
+            LOGGER.log(Level.INFO, "Pipelined read: {}", Unbox.box(result.isPipelined()));
 
-                if (read != -1) {
-                    digest.update(buffer.array(), 0, read);
-                    readLength += read;
+            if (resumableHasher != null && !result.isInterrupted() && readLength < fileLength) {
+                LOGGER.log(Level.INFO, "Resumed from checkpoint at byte {}", Unbox.box(fileLength - readLength));
+            }
 
-                    double progress = (readLength * 100 / Double.valueOf(fileLength)) / 100;
-                    updateProgress(progress, 1);
+            // Displays the hash matching the given one, or the first one if none does
+            byte[] generatedHash = null;
+            boolean matched = false;
+            Map<Integer, byte[]> expected = new HashMap<>();
+
+            for (byte[] digest : result.getHashes().values()) {
+                if (!matched && compareHash(hash, digest, expected)) {
+                    generatedHash = digest;
+                    matched = true;
+                } else if (generatedHash == null) {
+                    generatedHash = digest;
                 }
-                buffer.clear();
             }
+            readOnlyGenHash.set(generatedHash == null ? null : DigestFormat.toHex(generatedHash));
 
-            byte[] hashBytes = digest.digest();
-            String generatedHash = DatatypeConverter.printHexBinary(hashBytes).toLowerCase();
-            readOnlyGenHash.set(generatedHash);
-
-            Duration duration = Duration.ofMillis(System.currentTimeMillis() - startTime);
+            Duration duration = result.getDuration();
 
             this.updateTitle("Bytes read: " + readLength + " / " + fileLength);
 
-            hashEquals = compareHash(hash, generatedHash);
+            hashEquals = matched ? 1 : 0;
+            this.set(hashEquals);
 
-            LOGGER.log(Level.INFO, "Given hash: " + hash);
-            LOGGER.log(Level.INFO, "Gen " + algo + ": " + generatedHash);
-            LOGGER.log(Level.INFO, "Bytes read: " + readLength + " / " + fileLength);
+            LOGGER.log(Level.INFO, "Given hash: {}", hash);
+            if (LOGGER.isInfoEnabled()) {
+                for (Map.Entry<Algs, byte[]> entry : result.getHashes().entrySet()) {
+                    LOGGER.log(Level.INFO, "Gen {}: {}", entry.getKey(), DigestFormat.toHex(entry.getValue()));
+                }
+            }
+            LOGGER.log(Level.INFO, "Bytes read: {} / {}", Unbox.box(readLength), Unbox.box(fileLength));
+            LOGGER.log(Level.INFO, "{} throughput: {} MB/s", strategy, Unbox.box(result.getThroughput()));
 
             String message = "Operation achieved in ";
 
-            if (isInterrupted) {
+            if (result.isInterrupted()) {
                 this.updateMessage("Operation interrupted");
                 hashEquals = -1;
 
@@ -143,10 +173,10 @@ public class HashTask extends Task<Integer> {
                 }
 
                 this.updateMessage(message);
-                LOGGER.log(Level.INFO, message);
+                LOGGER.log(Level.INFO, "{}", message);
             }
 
-        } catch (IOException e) {
+        } catch (IOException | NoSuchAlgorithmException | NoSuchProviderException e) {
             LOGGER.log(Level.ERROR, e.getMessage(), e);
         }
 
@@ -154,30 +184,35 @@ public class HashTask extends Task<Integer> {
     }
 
     /**
-     * Compares given hash and generated hash.
+     * Compares given hash and generated hash, parsing the given hash once per digest length.
      *
-     * @param hash          User provided hash
+     * @param hash          User provided hash, hexadecimal or Base64
      * @param generatedHash Programatically generated hash
-     * @return 1 if hashes match, 0 if don't and -1 if process was interrupted
+     * @param parsed        User provided hash already parsed for each length, null if it holds
+     *                      no digest of that length
+     * @return true if hashes match
      */
-    private Integer compareHash(String hash, String generatedHash) {
-
-        if (hash.equals(generatedHash)) {
-            hashEquals = 1;
-            this.set(hashEquals);
+    private static boolean compareHash(String hash, byte[] generatedHash, Map<Integer, byte[]> parsed) {
 
-        } else {
-            this.set(hashEquals);
+        if (!parsed.containsKey(generatedHash.length)) {
+            parsed.put(generatedHash.length, DigestFormat.parse(hash, generatedHash.length));
         }
 
-        return hashEquals;
+        byte[] expected = parsed.get(generatedHash.length);
+
+        return expected != null && MessageDigest.isEqual(expected, generatedHash);
     }
 
     /**
      * Used to interrupt process of this task.
      */
     public void interrupt() {
-        this.isInterrupted = true;
+
+        if (resumableHasher != null) {
+            resumableHasher.interrupt();
+        } else {
+            hasher.interrupt();
+        }
     }
 
     /**
@@ -0,0 +1,637 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.AppFolder;
+import com.jeremierodriguez.util.ConsoleWriter;
+import com.jeremierodriguez.util.DaemonThreadFactory;
+import com.jeremierodriguez.util.DigestFormat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * This class watches directory trees and reports every change of the contents of their files as
+ * it happens, against a baseline of their digests kept in the application folder from one run to
+ * the next:
+ * <ul>
+ * <li>{@code ADDED}, {@code MODIFIED} and {@code DELETED} files</li>
+ * <li>{@code DRIFT} when the contents of a file changed while its size and modification time did
+ * not, which no legitimate write does</li>
+ * </ul>
+ * Changes are told by a {@code WatchService}, and by scans comparing the size and modification
+ * time of every file with the baseline at a fixed period, for file systems that do not deliver
+ * events, such as network shares, and for events lost on overflow. A changed file is only hashed
+ * once it has had no event for a while, so a burst of events on a file being written gives a
+ * single read, and never by two threads at a time.
+ * <p>
+ * Files are always read, never taken from the digest cache, which is updated with what is read.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class IntegrityWatcher {
+
+    public static final int DEFAULT_SCAN_SECONDS = 300;
+
+    private static final int MAGIC = 0x43535742;
+    private static final int VERSION = 1;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // A file is hashed once it had no event for the quiet delay, or after the maximum delay if it
+    // keeps changing, such as a log
+    private static final long QUIET_MILLIS = 500;
+    private static final long MAX_DELAY_MILLIS = 30000;
+    private static final long DISPATCH_MILLIS = 100;
+    private static final long SAVE_SECONDS = 10;
+
+    // Modification time stored for files modified right before being hashed, which may have
+    // changed again without their modification time telling so
+    private static final long RACY = -1;
+
+    private final List<Path> roots = new ArrayList<>();
+    private final Algs algo;
+    private final long scanSeconds;
+    private final CachingHasher hasher;
+    private final CachingHasher reader = new CachingHasher(null, false);
+    private final IoScheduler scheduler;
+    private final Map<Path, Entry> baseline = new ConcurrentHashMap<>();
+    private final Map<Path, long[]> pending = new HashMap<>();
+    private final Set<Path> checking = ConcurrentHashMap.newKeySet();
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final ScheduledExecutorService timer = Executors.newScheduledThreadPool(2,
+        new DaemonThreadFactory("Watch Timer"));
+    private Path file = null;
+    private WatchService watcher = null;
+    private ConsoleWriter out = null;
+    private ConsoleWriter err = null;
+    private volatile boolean reportAdded = false;
+    private boolean watchFailed = false;
+
+    /**
+     * State of a file when last hashed.
+     */
+    private static final class Entry {
+
+        final long size;
+        final long modified;
+        final byte[] digest;
+
+        Entry(long size, long modified, byte[] digest) {
+            this.size = size;
+            this.modified = modified;
+            this.digest = digest;
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size() && modified == attrs.lastModifiedTime().toMillis();
+        }
+    }
+
+    /**
+     * Constructor needing the trees to watch.
+     *
+     * @param roots       paths of the directories to watch
+     * @param algo        algorithm of the digests
+     * @param scanSeconds period of the scans in seconds
+     * @param hasher      hasher whose digest cache is updated with the files read
+     * @param scheduler   scheduler of the reads of files
+     */
+    public IntegrityWatcher(List<String> roots, Algs algo, long scanSeconds, CachingHasher hasher,
+                            IoScheduler scheduler) {
+
+        for (String root : roots) {
+            this.roots.add(Paths.get(root).toAbsolutePath().normalize());
+        }
+        this.algo = algo;
+        this.scanSeconds = scanSeconds;
+        this.hasher = hasher;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Hashes the files that changed since the baseline was saved, then watches them until the end
+     * of the JVM.
+     *
+     * @return 1 if watching could not start, never returns otherwise
+     */
+    public int run() {
+
+        for (Path root : roots) {
+            if (!Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+                System.err.println(root + ": Not a directory");
+                return 1;
+            }
+        }
+
+        try {
+            file = AppFolder.resolve(baselineName());
+            reportAdded = load();
+        } catch (IOException e) {
+            System.err.println("Baseline could not be read: " + e.getMessage());
+            return 1;
+        }
+
+        try (ConsoleWriter outWriter = new ConsoleWriter(); ConsoleWriter errWriter = new ConsoleWriter(FileDescriptor.err)) {
+            out = outWriter;
+            err = errWriter;
+
+            Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+
+            try {
+                watcher = FileSystems.getDefault().newWatchService();
+            } catch (IOException | UnsupportedOperationException e) {
+                warnWatchFailed("file system", e.getMessage());
+            }
+
+            // Watched before the first scan so that no change is missed between both
+            for (Path root : roots) {
+                register(root);
+            }
+
+            int known = baseline.size();
+            scan(true);
+            scheduler.awaitCompletion();
+            save();
+            reportAdded = true;
+
+            err.println((known == 0 ? "Baseline of " : "Watching ") + baseline.size() + " files, saved to " + file
+                + ", scanned every " + scanSeconds + " s");
+
+            timer.scheduleWithFixedDelay(this::dispatch, DISPATCH_MILLIS, DISPATCH_MILLIS, TimeUnit.MILLISECONDS);
+            timer.scheduleWithFixedDelay(() -> scan(false), scanSeconds, scanSeconds, TimeUnit.SECONDS);
+            timer.scheduleWithFixedDelay(this::save, SAVE_SECONDS, SAVE_SECONDS, TimeUnit.SECONDS);
+
+            if (watcher == null) {
+                timer.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            } else {
+                watch();
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return 0;
+    }
+
+    private void watch() throws InterruptedException {
+
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Path dir = keys.get(key);
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        timer.execute(() -> scan(false));
+
+                    } else if (dir != null) {
+                        Path child = dir.resolve((Path) event.context());
+
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                            && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                            register(child);
+                            queueTree(child);
+                        } else {
+                            queue(child);
+                        }
+                    }
+                }
+
+                if (!key.reset()) {
+                    keys.remove(key);
+                }
+            }
+
+        } catch (ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    /**
+     * Watches a directory and every directory below it.
+     */
+    private void register(Path dir) {
+
+        if (watcher == null) {
+            return;
+        }
+
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) throws IOException {
+                    keys.put(subDir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), subDir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path path, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+        } catch (IOException e) {
+            warnWatchFailed(dir.toString(), e.getMessage());
+        }
+    }
+
+    private void warnWatchFailed(String what, String message) {
+
+        // Once, a full inotify table failing every later directory the same way
+        synchronized (this) {
+            if (watchFailed) {
+                return;
+            }
+            watchFailed = true;
+        }
+
+        System.err.println("Cannot watch " + what + ": " + message + ", changes there are found by scans only");
+    }
+
+    // Scans
+
+    /**
+     * Walks every tree, looking for files whose size or modification time differ from the
+     * baseline, and files of the baseline that are gone.
+     *
+     * @param immediate true to hash them right away, false to queue them like changes told by
+     *                  events
+     */
+    private void scan(boolean immediate) {
+
+        Set<Path> seen = new HashSet<>();
+
+        for (Path root : roots) {
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+                    @Override
+                    public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+
+                        if (attrs.isRegularFile()) {
+                            seen.add(path);
+                            Entry entry = baseline.get(path);
+                            if (entry == null || !entry.matches(attrs)) {
+                                changed(path, immediate);
+                            }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path path, IOException e) {
+                        err.println(path + ": " + e.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+
+            } catch (IOException e) {
+                err.println(root + ": " + e.getMessage());
+            }
+        }
+
+        for (Path path : baseline.keySet()) {
+            if (!seen.contains(path) && isBelowRoots(path)) {
+                changed(path, immediate);
+            }
+        }
+    }
+
+    private void changed(Path path, boolean immediate) {
+
+        if (!immediate) {
+            queue(path);
+            return;
+        }
+
+        try {
+            checking.add(path);
+            scheduler.submit(path, null, () -> check(path));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean isBelowRoots(Path path) {
+
+        for (Path root : roots) {
+            if (path.startsWith(root)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void queueTree(Path dir) {
+
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                    queue(path);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path path, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+        } catch (IOException e) {
+            err.println(dir + ": " + e.getMessage());
+        }
+    }
+
+    // Debounced checks
+
+    /**
+     * Queues a path to be checked once it had no event for the quiet delay. A path already queued
+     * only has its delay restarted.
+     */
+    private void queue(Path path) {
+
+        long now = System.currentTimeMillis();
+
+        synchronized (pending) {
+            long[] times = pending.get(path);
+            if (times == null) {
+                pending.put(path, new long[]{now, now});
+            } else {
+                times[1] = now;
+            }
+        }
+    }
+
+    /**
+     * Submits the queued paths that are due, except those being checked, which stay queued.
+     */
+    private void dispatch() {
+
+        long now = System.currentTimeMillis();
+        List<Path> due = new ArrayList<>();
+
+        synchronized (pending) {
+            Iterator<Map.Entry<Path, long[]>> iterator = pending.entrySet().iterator();
+
+            while (iterator.hasNext()) {
+                Map.Entry<Path, long[]> entry = iterator.next();
+                long[] times = entry.getValue();
+
+                if ((now - times[1] >= QUIET_MILLIS || now - times[0] >= MAX_DELAY_MILLIS)
+                    && checking.add(entry.getKey())) {
+                    due.add(entry.getKey());
+                    iterator.remove();
+                }
+            }
+        }
+
+        try {
+            for (Path path : due) {
+                scheduler.submit(path, null, () -> check(path));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hashes a file and reports how it differs from the baseline, which is updated.
+     */
+    private void check(Path path) {
+
+        try {
+            BasicFileAttributes before = readAttributes(path);
+
+            if (before == null || !before.isRegularFile()) {
+                removed(path);
+                return;
+            }
+
+            Map<Algs, byte[]> digests = reader.hash(path, Collections.singletonList(algo), HashListener.NONE,
+                err::println);
+            BasicFileAttributes after = readAttributes(path);
+
+            // Changed while being read, checked again once done
+            if (after == null || after.size() != before.size()
+                || !after.lastModifiedTime().equals(before.lastModifiedTime())) {
+                queue(path);
+                return;
+            }
+
+            hasher.put(path, before, digests, err::println);
+
+            byte[] digest = digests.get(algo);
+            long modified = before.lastModifiedTime().toMillis();
+            boolean racy = System.currentTimeMillis() - modified < DigestCache.RACY_MILLIS;
+            Entry previous = baseline.put(path, new Entry(before.size(), racy ? RACY : modified, digest));
+            dirty.set(true);
+
+            if (previous == null) {
+                if (reportAdded) {
+                    report(path, "ADDED", digest);
+                }
+            } else if (!Arrays.equals(previous.digest, digest)) {
+                report(path, previous.matches(before) ? "DRIFT" : "MODIFIED", digest);
+            }
+
+        } catch (IOException | GeneralSecurityException e) {
+            err.println(path + ": " + e.getMessage());
+
+        } finally {
+            checking.remove(path);
+        }
+    }
+
+    private void removed(Path path) {
+
+        if (baseline.remove(path) != null) {
+            dirty.set(true);
+            report(path, "DELETED", null);
+            return;
+        }
+
+        // A deleted directory, whose files got no event of their own
+        for (Path known : baseline.keySet()) {
+            if (known.startsWith(path)) {
+                queue(known);
+            }
+        }
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) throws IOException {
+
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private void report(Path path, String status, byte[] digest) {
+
+        String time = LocalDateTime.now().withNano(0).toString();
+        out.println(time + " " + path + ": " + status + (digest == null ? "" : " " + DigestFormat.toHex(digest)));
+        out.flush();
+    }
+
+    // Baseline
+
+    private String baselineName() {
+
+        List<String> names = new ArrayList<>();
+        for (Path root : roots) {
+            names.add(root.toString());
+        }
+        Collections.sort(names);
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(algo.name().getBytes(StandardCharsets.UTF_8));
+            for (String name : names) {
+                digest.update((byte) 0);
+                digest.update(name.getBytes(StandardCharsets.UTF_8));
+            }
+            return "watch-" + DigestFormat.toHex(digest.digest()).substring(0, 16) + ".baseline";
+
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the baseline saved by a previous run, if any.
+     *
+     * @return true if there was one
+     */
+    private boolean load() throws IOException {
+
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+
+            // Starts over from an empty baseline if of another version
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !algo.name().equals(in.readUTF())) {
+                return false;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Path path = Paths.get(in.readUTF());
+                long size = in.readLong();
+                long modified = in.readLong();
+                byte[] digest = new byte[in.readUnsignedByte()];
+                in.readFully(digest);
+                baseline.put(path, new Entry(size, modified, digest));
+            }
+
+        } catch (EOFException e) {
+            baseline.clear();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the baseline to a temporary file moved over the previous one once complete, if it
+     * changed since last saved.
+     */
+    private synchronized void save() {
+
+        if (!dirty.getAndSet(false) && Files.exists(file)) {
+            return;
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        Map<Path, Entry> entries = new HashMap<>(baseline);
+
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeUTF(algo.name());
+                output.writeInt(entries.size());
+
+                for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+                    output.writeUTF(entry.getKey().toString());
+                    output.writeLong(entry.getValue().size);
+                    output.writeLong(entry.getValue().modified);
+                    output.writeByte(entry.getValue().digest.length);
+                    output.write(entry.getValue().digest);
+                }
+            }
+
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException e) {
+            dirty.set(true);
+            err.println("Baseline could not be saved: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops watching and saves the baseline, called on the end of the JVM.
+     */
+    private void stop() {
+
+        timer.shutdownNow();
+
+        try {
+            if (watcher != null) {
+                watcher.close();
+            }
+        } catch (IOException e) {
+            // Ending anyway
+        }
+
+        save();
+        out.flush();
+    }
+
+}
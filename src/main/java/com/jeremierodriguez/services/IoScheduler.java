@@ -0,0 +1,191 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.DaemonThreadFactory;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+
+/**
+ * This class runs file hashing tasks on a pool of worker threads, scheduling them per storage
+ * device. The pool bounds how many files are hashed at the same time, while each device bounds
+ * how many of its files are read at the same time: a single one for a spinning disk so that its
+ * heads do not seek back and forth, a few for a network share, as many as there are threads for
+ * a solid state drive. Devices take turns for free threads, so that hashing a tree spanning
+ * several devices keeps all of them busy instead of queueing behind the slowest one.
+ * <p>
+ * Waiting files of a device are read in the order of their inode, or of their path if unknown,
+ * which on most file systems is close to the order of their blocks. Submissions block once a
+ * given number of tasks are pending, so that a producer walking millions of entries never gets
+ * more than that far ahead of the workers.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class IoScheduler implements AutoCloseable {
+
+    private static final Comparator<Job> READ_ORDER = Comparator.comparingLong((Job job) -> job.inode)
+        .thenComparing(job -> job.file);
+
+    private final int threads;
+    private final int deviceThreads;
+    private final int maxPending;
+    private final ExecutorService workers;
+    private final Semaphore pending;
+    private final Map<String, DeviceQueue> devices = new HashMap<>();
+    private final List<DeviceQueue> turns = new ArrayList<>();
+    private int nextTurn = 0;
+    private int running = 0;
+
+    /**
+     * Constructor needing the scheduler's dimensions.
+     *
+     * @param threads       number of files hashed at the same time
+     * @param deviceThreads number of files read at the same time from a single device, 0 to tell
+     *                      from the kind of each device
+     * @param maxPending    number of tasks submitted but not finished above which submission blocks
+     * @param name          base name of the worker threads
+     */
+    public IoScheduler(int threads, int deviceThreads, int maxPending, String name) {
+        this.threads = threads;
+        this.deviceThreads = deviceThreads;
+        this.maxPending = maxPending;
+        workers = Executors.newFixedThreadPool(threads, new DaemonThreadFactory(name));
+        pending = new Semaphore(maxPending);
+    }
+
+    /**
+     * Submits the task reading a file, waiting for a pending one to finish if too many are
+     * pending already.
+     *
+     * @param file  path of the file the task reads
+     * @param attrs attributes of the file, may be null if unknown
+     * @param task  task to run on a worker thread once the file's device is free
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void submit(Path file, BasicFileAttributes attrs, Runnable task) throws InterruptedException {
+
+        // Done before locking since the device may have to be looked at
+        String id = StorageDevices.idOf(file, attrs);
+        StorageDevices.Kind kind = StorageDevices.kindOf(id, file);
+        Job job = new Job(file.toString(), StorageDevices.inodeOf(attrs), task);
+
+        pending.acquire();
+
+        synchronized (this) {
+            DeviceQueue device = devices.get(id);
+
+            if (device == null) {
+                device = new DeviceQueue(deviceThreads > 0 ? deviceThreads : kind.getConcurrency());
+                devices.put(id, device);
+                turns.add(device);
+            }
+
+            device.waiting.add(job);
+            dispatch();
+        }
+    }
+
+    /**
+     * Waits for every submitted task to finish. Tasks can still be submitted afterwards.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitCompletion() throws InterruptedException {
+        pending.acquire(maxPending);
+        pending.release(maxPending);
+    }
+
+    /**
+     * Stops every task as soon as possible, after which nothing can be submitted anymore.
+     */
+    public void shutdownNow() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Lets worker threads end once their tasks are done, after which nothing can be submitted
+     * anymore.
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+    }
+
+    /**
+     * Hands waiting tasks to free threads, giving each device its turn. Must be called with the
+     * lock held.
+     */
+    private void dispatch() {
+
+        int skipped = 0;
+
+        while (running < threads && skipped < turns.size() && !workers.isShutdown()) {
+
+            DeviceQueue device = turns.get(nextTurn);
+            nextTurn = (nextTurn + 1) % turns.size();
+
+            if (device.running < device.threads && !device.waiting.isEmpty()) {
+                Job job = device.waiting.poll();
+                device.running++;
+                running++;
+                skipped = 0;
+                workers.execute(() -> run(device, job));
+
+            } else {
+                skipped++;
+            }
+        }
+    }
+
+    private void run(DeviceQueue device, Job job) {
+
+        try {
+            job.task.run();
+
+        } finally {
+            synchronized (this) {
+                device.running--;
+                running--;
+                dispatch();
+            }
+            pending.release();
+        }
+    }
+
+    /**
+     * Tasks of a single device, waiting or running.
+     */
+    private static class DeviceQueue {
+
+        private final int threads;
+        private final PriorityQueue<Job> waiting = new PriorityQueue<>(READ_ORDER);
+        private int running = 0;
+
+        private DeviceQueue(int threads) {
+            this.threads = threads;
+        }
+    }
+
+    private static class Job {
+
+        private final String file;
+        private final long inode;
+        private final Runnable task;
+
+        private Job(String file, long inode, Runnable task) {
+            this.file = file;
+            this.inode = inode;
+            this.task = task;
+        }
+    }
+
+}
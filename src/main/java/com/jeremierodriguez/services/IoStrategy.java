@@ -0,0 +1,71 @@
+package com.jeremierodriguez.services;
+
+
+/**
+ * Enumeration regrouping all the ways a file can be read before its bytes are handed to a
+ * {@code MessageDigest}.
+ * <ul>
+ * <li>{@code HEAP}: reads into a heap buffer, then updates the digest from its backing array</li>
+ * <li>{@code DIRECT}: reads into a pooled direct buffer, avoiding the native to heap copy</li>
+ * <li>{@code MAPPED}: maps successive windows of the file and feeds them to the digest</li>
+ * </ul>
+ *
+ * @author Jeremie Rodriguez
+ */
+public enum IoStrategy {
+
+    HEAP, DIRECT, MAPPED;
+
+    // less than 10 Mb
+    private static final long DIRECT_THRESHOLD = 10485760;
+
+    // more than 500 Mb
+    private static final long MAPPED_THRESHOLD = 524288000;
+
+    /**
+     * Picks the most suited strategy for a file of given length.
+     *
+     * @param fileLength length of the file in bytes
+     * @return HEAP for small files, DIRECT for medium ones and MAPPED for huge ones
+     */
+    public static IoStrategy forLength(long fileLength) {
+
+        if (fileLength < DIRECT_THRESHOLD) {
+            return HEAP;
+
+        } else if (fileLength <= MAPPED_THRESHOLD) {
+            return DIRECT;
+
+        } else {
+            return MAPPED;
+        }
+    }
+
+    /**
+     * Returns the buffer size used by this strategy for a file of given length. For {@code MAPPED}
+     * this is the size of each mapped window.
+     *
+     * @param fileLength length of the file in bytes
+     * @return buffer size in bytes
+     */
+    public int bufferSize(long fileLength) {
+
+        if (this == MAPPED) {
+            return 67108864;
+        }
+
+        // less than 10 Mb
+        if (fileLength < DIRECT_THRESHOLD) {
+            return 1024;
+
+            // less than 500 Mb
+        } else if (fileLength <= MAPPED_THRESHOLD) {
+            return 102400;
+
+            // more than 500 Mb
+        } else {
+            return 2048000;
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.DaemonThreadFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+
+/**
+ * This class hashes any number of dropped files and folders as separate {@link HashJob}s. Folders
+ * are walked on a background thread and files are hashed by an {@link IoScheduler}, so adding a
+ * tree of a hundred thousand files returns at once. Rather than being notified of every new job
+ * and every chunk, the GUI polls this queue at its own pace for the jobs added and whether any
+ * job changed since, then updates its views in a single batch.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class JobQueue implements AutoCloseable {
+
+    // Files walked ahead of the workers, bounds memory while leaving every device enough of its
+    // own files to wait for a free thread
+    private static final int MAX_PENDING = 16384;
+
+    private final IoScheduler scheduler = new IoScheduler(Runtime.getRuntime().availableProcessors(), 0,
+        MAX_PENDING, "Job Worker");
+    private final ExecutorService walker = Executors.newSingleThreadExecutor(new DaemonThreadFactory("Job Walker"));
+    private final Queue<HashJob> added = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean changed = new AtomicBoolean();
+
+    /**
+     * Queues every regular file among given ones and inside given folders.
+     *
+     * @param files    files or folders, such as dropped ones
+     * @param algos    algorithms to compute for each file
+     * @param failures called on the walking thread with a message for every entry that could not
+     *                 be walked
+     */
+    public void add(List<File> files, List<Algs> algos, Consumer<String> failures) {
+
+        List<Algs> jobAlgos = new ArrayList<>(algos);
+
+        walker.execute(() -> {
+            for (File file : files) {
+                try {
+                    walk(file.toPath(), jobAlgos, failures);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes the jobs added since the last call.
+     *
+     * @return jobs in the order they were queued
+     */
+    public List<HashJob> drainAdded() {
+
+        List<HashJob> jobs = new ArrayList<>();
+        HashJob job;
+
+        while ((job = added.poll()) != null) {
+            jobs.add(job);
+        }
+
+        return jobs;
+    }
+
+    /**
+     * Tells whether any job changed since the last call.
+     *
+     * @return true if a job started, progressed or finished
+     */
+    public boolean pollChanged() {
+        return changed.getAndSet(false);
+    }
+
+    /**
+     * Stops walking and hashing, jobs not finished yet are abandoned.
+     */
+    @Override
+    public void close() {
+        walker.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    private void walk(Path root, List<Algs> algos, Consumer<String> failures) throws InterruptedException {
+
+        try {
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>() {
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+
+                        if (attrs.isRegularFile()) {
+                            HashJob job = new HashJob(file, attrs.size(), algos, () -> changed.set(true));
+                            added.add(job);
+
+                            try {
+                                scheduler.submit(file, attrs, job::run);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return FileVisitResult.TERMINATE;
+                            }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        failures.accept(file + ": "
+                            + (e instanceof NoSuchFileException ? "No such file or directory" : e.getMessage()));
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+
+        } catch (IOException e) {
+            failures.accept(root + ": " + e.getMessage());
+        }
+
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.DigestFormat;
+
+/**
+ * A line of a checksum manifest, in one of the formats written by {@code sha256sum} and alike:
+ * <ul>
+ * <li>untagged: {@code <hex>  <path>}, or {@code <hex> *<path>} for files read in binary mode</li>
+ * <li>BSD-style tagged: {@code <label> (<path>) = <hex>}, where the label names the algorithm so
+ * that a single manifest can mix several of them</li>
+ * </ul>
+ * Either way a leading backslash tells that backslashes and new lines of the path are escaped.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class ManifestLine {
+
+    private static final String TAG_SEPARATOR = ") = ";
+
+    private final String label;
+    private final String path;
+    private final byte[] digest;
+
+    private ManifestLine(String label, String path, byte[] digest) {
+        this.label = label;
+        this.path = path;
+        this.digest = digest;
+    }
+
+    /**
+     * Parses a manifest line.
+     *
+     * @param line line without its line separator
+     * @return parsed line, or null if blank or a comment
+     * @throws IllegalArgumentException if the line is not properly formatted
+     */
+    public static ManifestLine parse(String line) {
+
+        if (line.trim().isEmpty() || line.startsWith("#")) {
+            return null;
+        }
+
+        boolean escaped = line.startsWith("\\");
+        String content = escaped ? line.substring(1) : line;
+
+        int tagEnd = content.lastIndexOf(TAG_SEPARATOR);
+        int tagStart = content.indexOf(" (");
+
+        // Labels hold no space, unlike the start of an untagged line whose path looks like a tag
+        if (tagEnd > 0 && tagStart > 0 && tagStart < tagEnd && content.lastIndexOf(' ', tagStart - 1) < 0) {
+            String label = content.substring(0, tagStart);
+            String path = content.substring(tagStart + 2, tagEnd);
+            byte[] digest = parseDigest(content.substring(tagEnd + TAG_SEPARATOR.length()));
+
+            if (digest != null) {
+                return new ManifestLine(label, unescape(path, escaped), digest);
+            }
+        }
+
+        int space = content.indexOf(' ');
+        byte[] digest = space > 0 ? parseDigest(content.substring(0, space)) : null;
+
+        if (digest != null && content.length() > space + 2
+            && (content.charAt(space + 1) == ' ' || content.charAt(space + 1) == '*')) {
+            String path = content.substring(space + 2);
+            return new ManifestLine(null, unescape(path, escaped), digest);
+        }
+
+        throw new IllegalArgumentException("Improperly formatted checksum line");
+    }
+
+    /**
+     * Formats a manifest line.
+     *
+     * @param label  name of the algorithm, used by tagged lines only
+     * @param path   path of the hashed file
+     * @param hex    lowercase hexadecimal hash
+     * @param tagged true for a tagged line, false for an untagged one
+     * @return formatted line without line separator
+     */
+    public static String format(String label, String path, String hex, boolean tagged) {
+
+        // Like sha256sum, a leading backslash tells that the file name is escaped
+        String prefix = "";
+        if (path.indexOf('\\') >= 0 || path.indexOf('\n') >= 0) {
+            prefix = "\\";
+            path = path.replace("\\", "\\\\").replace("\n", "\\n");
+        }
+
+        if (tagged) {
+            return prefix + label + " (" + path + TAG_SEPARATOR + hex;
+        }
+
+        return prefix + hex + "  " + path;
+    }
+
+    /**
+     * Returns the algorithm label of a tagged line.
+     *
+     * @return label such as SHA256, or null if the line is untagged
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the expected hash.
+     *
+     * @return raw digest
+     */
+    public byte[] getDigest() {
+        return digest;
+    }
+
+    private static byte[] parseDigest(String hex) {
+        return hex.isEmpty() ? null : DigestFormat.parseHex(hex);
+    }
+
+    private static String unescape(String path, boolean escaped) {
+
+        if (!escaped) {
+            return path;
+        }
+
+        StringBuilder builder = new StringBuilder(path.length());
+
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+
+            if (c == '\\' && i + 1 < path.length()) {
+                char next = path.charAt(++i);
+                builder.append(next == 'n' ? '\n' : next);
+            } else {
+                builder.append(c);
+            }
+        }
+
+        return builder.toString();
+    }
+
+}
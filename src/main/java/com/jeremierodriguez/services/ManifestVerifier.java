@@ -0,0 +1,279 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.ConsoleWriter;
+
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * This class checks files against checksum manifests such as {@code SHA256SUMS}, like
+ * {@code sha256sum --check} does. Manifests are read line by line on the calling thread while
+ * files are hashed by an {@link IoScheduler}, so that a manifest of millions of lines
+ * is checked with constant memory and each result is printed as soon as its file is done.
+ * <p>
+ * Lines can be untagged or tagged, see {@link ManifestLine}. Tagged lines name their algorithm,
+ * which may be any {@code Algs} value or a tree hash label such as {@code MERKLE-SHA256-1048576},
+ * so a single manifest may mix algorithms. Untagged lines use the algorithm given by the user,
+ * otherwise the one named by the manifest file, such as MD5 for {@code MD5SUMS}, otherwise the
+ * usual algorithm producing hashes of that length. Relative paths are resolved against the
+ * working directory, as {@code sha256sum} does.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class ManifestVerifier {
+
+    private static final String STDIN = "-";
+    private static final String MERKLE_PREFIX = "MERKLE-";
+
+    private final Algs defaultAlgo;
+    private final CachingHasher hasher;
+    private final IoScheduler scheduler;
+    private final AtomicInteger mismatches = new AtomicInteger();
+    private final AtomicInteger unreadable = new AtomicInteger();
+    private final AtomicInteger malformed = new AtomicInteger();
+    private final AtomicInteger unreadableManifests = new AtomicInteger();
+    private ConsoleWriter out = null;
+    private ConsoleWriter err = null;
+
+    /**
+     * Constructor needing the algorithm of untagged lines.
+     *
+     * @param defaultAlgo algorithm of untagged lines, null to infer it from each manifest
+     * @param hasher      hasher of regular hashes, possibly through a digest cache
+     * @param scheduler   scheduler of the reads of listed files
+     */
+    public ManifestVerifier(Algs defaultAlgo, CachingHasher hasher, IoScheduler scheduler) {
+        this.defaultAlgo = defaultAlgo;
+        this.hasher = hasher;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Checks every file listed by given manifests and prints, as they come, one line per file
+     * ending with OK, FAILED or MISSING.
+     *
+     * @param manifests paths of the manifests, - standing for the standard input
+     * @return 0 if every file matched, 1 otherwise
+     */
+    public int run(List<String> manifests) {
+
+        try (ConsoleWriter outWriter = new ConsoleWriter(); ConsoleWriter errWriter = new ConsoleWriter(FileDescriptor.err)) {
+            out = outWriter;
+            err = errWriter;
+
+            for (String manifest : manifests) {
+                check(manifest);
+            }
+
+            scheduler.awaitCompletion();
+
+            report(unreadableManifests.get(), "manifest could not be read", "manifests could not be read");
+            report(malformed.get(), "line is improperly formatted", "lines are improperly formatted");
+            report(unreadable.get(), "listed file could not be read", "listed files could not be read");
+            report(mismatches.get(), "computed checksum did NOT match", "computed checksums did NOT match");
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            scheduler.shutdownNow();
+            return 1;
+        }
+
+        return mismatches.get() + unreadable.get() + malformed.get() + unreadableManifests.get() > 0 ? 1 : 0;
+    }
+
+    private void check(String manifest) throws InterruptedException {
+
+        Algs manifestAlgo = defaultAlgo != null ? defaultAlgo : algorithmOfName(manifest);
+
+        try (InputStream input = STDIN.equals(manifest) ? System.in : Files.newInputStream(Paths.get(manifest));
+             BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+
+            String line;
+            int number = 0;
+
+            while ((line = reader.readLine()) != null) {
+                number++;
+
+                try {
+                    ManifestLine entry = ManifestLine.parse(line);
+
+                    if (entry != null) {
+                        Algs algo = entry.getLabel() != null ? null : manifestAlgo != null ? manifestAlgo
+                            : algorithmOfLength(entry.getDigest().length * 2);
+                        Path file = Paths.get(entry.getPath());
+                        scheduler.submit(file, attributesOf(file), () -> verify(entry, algo));
+                    }
+
+                } catch (IllegalArgumentException e) {
+                    malformed.incrementAndGet();
+                    err.println(manifest + ": " + number + ": " + e.getMessage());
+                }
+            }
+
+        } catch (NoSuchFileException e) {
+            unreadableManifests.incrementAndGet();
+            err.println(manifest + ": No such file");
+
+        } catch (IOException e) {
+            unreadableManifests.incrementAndGet();
+            err.println(manifest + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the attributes telling the device of a listed file, null if it cannot be read since
+     * the worker reports it.
+     */
+    private static BasicFileAttributes attributesOf(Path file) {
+
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void verify(ManifestLine entry, Algs untaggedAlgo) {
+
+        Path file = Paths.get(entry.getPath());
+
+        try {
+            byte[] digest = entry.getLabel() == null ? hash(file, untaggedAlgo) : hash(file, entry.getLabel());
+
+            if (MessageDigest.isEqual(entry.getDigest(), digest)) {
+                out.println(entry.getPath() + ": OK");
+            } else {
+                mismatches.incrementAndGet();
+                out.println(entry.getPath() + ": FAILED");
+            }
+
+        } catch (NoSuchFileException e) {
+            unreadable.incrementAndGet();
+            out.println(entry.getPath() + ": MISSING");
+
+        } catch (IOException e) {
+            unreadable.incrementAndGet();
+            out.println(entry.getPath() + ": FAILED open or read");
+            err.println(entry.getPath() + ": " + e.getMessage());
+
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            unreadable.incrementAndGet();
+            out.println(entry.getPath() + ": FAILED");
+            err.println(entry.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    private byte[] hash(Path file, Algs algo) throws IOException, GeneralSecurityException {
+
+        if (algo == null) {
+            throw new IllegalArgumentException("Cannot tell the algorithm, use --algorithm");
+        }
+
+        Map<Algs, byte[]> hashes = hasher.hash(file, Collections.singletonList(algo), HashListener.NONE, err::println);
+
+        return hashes.get(algo);
+    }
+
+    private byte[] hash(Path file, String label) throws IOException, GeneralSecurityException {
+
+        if (!label.startsWith(MERKLE_PREFIX)) {
+            return hash(file, algorithmOfLabel(label));
+        }
+
+        // MERKLE-<algorithm>-<leaf size>, as printed by TreeHasher.label
+        int separator = label.lastIndexOf('-');
+        Algs algo = algorithmOfLabel(label.substring(MERKLE_PREFIX.length(), Math.max(MERKLE_PREFIX.length(), separator)));
+        int leafSize;
+
+        try {
+            leafSize = Integer.parseInt(label.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unknown hashing algorithm " + label);
+        }
+
+        if (leafSize <= 0) {
+            throw new IllegalArgumentException("Unknown hashing algorithm " + label);
+        }
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            return TreeHasher.hash(channel, channel.size(), algo, leafSize);
+        }
+    }
+
+    private static Algs algorithmOfLabel(String label) {
+
+        // Accepts the names used by coreutils, such as SHA-256 or SHA1
+        try {
+            return Algs.valueOf(label.replace("-", "").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown hashing algorithm " + label);
+        }
+    }
+
+    /**
+     * Finds the algorithm named by a manifest file, such as SHA256 for {@code SHA256SUMS} or
+     * {@code release.sha256}, preferring the longest name so that SHA256 is not taken for SHA2.
+     */
+    private static Algs algorithmOfName(String manifest) {
+
+        String name = Paths.get(manifest).getFileName().toString().replace("-", "").toUpperCase(Locale.ROOT);
+        Algs found = null;
+
+        for (Algs algo : Algs.values()) {
+            if (name.contains(algo.name()) && (found == null || algo.name().length() > found.name().length())) {
+                found = algo;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Returns the usual algorithm of hashes of a given hexadecimal length, null if there is none.
+     */
+    static Algs algorithmOfLength(int hexLength) {
+
+        switch (hexLength) {
+            case 32:
+                return Algs.MD5;
+            case 40:
+                return Algs.SHA1;
+            case 56:
+                return Algs.SHA224;
+            case 64:
+                return Algs.SHA256;
+            case 96:
+                return Algs.SHA384;
+            case 128:
+                return Algs.SHA512;
+            default:
+                return null;
+        }
+    }
+
+    private void report(int count, String singular, String plural) {
+
+        if (count > 0) {
+            err.println("WARNING: " + count + " " + (count == 1 ? singular : plural));
+        }
+    }
+
+}
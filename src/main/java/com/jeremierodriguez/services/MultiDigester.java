@@ -0,0 +1,121 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.DaemonThreadFactory;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+
+/**
+ * This class feeds every chunk it receives to one {@code MessageDigest} per requested algorithm,
+ * so that several hashes of a file are computed with a single read. When more than one algorithm
+ * is requested and chunks are large enough, digests are updated on separate cores.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class MultiDigester implements Consumer<ByteBuffer> {
+
+    // Below this size, handing a chunk to another thread costs more than digesting it
+    private static final int PARALLEL_THRESHOLD = 65536;
+
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(PROCESSORS,
+        new DaemonThreadFactory("Digest Thread"));
+
+    private final Map<Algs, MessageDigest> digests = new LinkedHashMap<>();
+    private boolean parallel = false;
+
+    /**
+     * Constructor needing the algorithms to compute, duplicates are ignored.
+     *
+     * @param algos {@code Algs} values in the order results are wanted
+     * @throws NoSuchAlgorithmException if an algorithm is not supported by the provider
+     * @throws NoSuchProviderException  if BouncyCastle provider is not registered
+     */
+    public MultiDigester(Collection<Algs> algos) throws NoSuchAlgorithmException, NoSuchProviderException {
+
+        for (Algs algo : algos) {
+            if (!digests.containsKey(algo)) {
+                digests.put(algo, DigestPool.acquire(algo));
+            }
+        }
+
+        parallel = digests.size() > 1 && PROCESSORS > 1;
+    }
+
+    /**
+     * Updates every digest with the remaining bytes of given chunk. The chunk's position is at its
+     * limit once this method returns.
+     *
+     * @param chunk bytes to digest
+     */
+    @Override
+    public void accept(ByteBuffer chunk) {
+
+        if (!parallel || chunk.remaining() < PARALLEL_THRESHOLD) {
+            int start = chunk.position();
+
+            for (MessageDigest digest : digests.values()) {
+                chunk.position(start);
+                digest.update(chunk);
+            }
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(digests.size());
+        MessageDigest first = null;
+
+        for (MessageDigest digest : digests.values()) {
+            if (first == null) {
+                first = digest;
+            } else {
+                ByteBuffer view = chunk.duplicate();
+                futures.add(EXECUTOR.submit(() -> digest.update(view)));
+            }
+        }
+
+        first.update(chunk);
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while digesting", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Completes every digest and gives them back to the pool, after which this object must not be
+     * used anymore.
+     *
+     * @return generated hashes mapped to their algorithm, in requested order
+     */
+    public Map<Algs, byte[]> digest() {
+
+        Map<Algs, byte[]> hashes = new LinkedHashMap<>();
+
+        for (Map.Entry<Algs, MessageDigest> entry : digests.entrySet()) {
+            hashes.put(entry.getKey(), entry.getValue().digest());
+            DigestPool.release(entry.getKey(), entry.getValue());
+        }
+
+        return hashes;
+    }
+
+}
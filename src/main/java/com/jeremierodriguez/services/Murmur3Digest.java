@@ -0,0 +1,138 @@
+package com.jeremierodriguez.services;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/**
+ * MurmurHash3 {@code MessageDigest} producing the 128-bit x64 variant with seed 0. It is not
+ * cryptographic. Its 16-byte output is both 64-bit halves in little-endian order, as printed by
+ * Guava and by most other implementations.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class Murmur3Digest extends ByteBufferDigest {
+
+    private static final long C1 = 0x87C37B91114253D5L;
+    private static final long C2 = 0x4CF5AD432745937FL;
+
+    private static final int BLOCK_LEN = 16;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_LEN).order(ByteOrder.LITTLE_ENDIAN);
+    private int buffered = 0;
+    private long total = 0;
+    private long h1 = 0;
+    private long h2 = 0;
+
+    /**
+     * Creates a digest ready to be updated.
+     */
+    public Murmur3Digest() {
+        super(Algs.MURMUR3_128.name());
+    }
+
+    @Override
+    void update(ByteBuffer input, int offset, int length) {
+
+        int position = offset;
+        int end = offset + length;
+        total += length;
+
+        if (buffered > 0) {
+            int copied = Math.min(BLOCK_LEN - buffered, length);
+            copy(input, position, copied);
+            position += copied;
+
+            if (buffered < BLOCK_LEN) {
+                return;
+            }
+            block(buffer.getLong(0), buffer.getLong(8));
+            buffered = 0;
+        }
+
+        while (end - position >= BLOCK_LEN) {
+            block(input.getLong(position), input.getLong(position + 8));
+            position += BLOCK_LEN;
+        }
+
+        copy(input, position, end - position);
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+
+        long k1 = 0;
+        long k2 = 0;
+
+        for (int i = buffered - 1; i >= 0; i--) {
+            if (i >= Long.BYTES) {
+                k2 = k2 << 8 | buffer.get(i) & 0xFFL;
+            } else {
+                k1 = k1 << 8 | buffer.get(i) & 0xFFL;
+            }
+        }
+
+        if (buffered > Long.BYTES) {
+            h2 ^= Long.rotateLeft(k2 * C2, 33) * C1;
+        }
+        if (buffered > 0) {
+            h1 ^= Long.rotateLeft(k1 * C1, 31) * C2;
+        }
+
+        h1 ^= total;
+        h2 ^= total;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+
+        byte[] output = ByteBuffer.allocate(2 * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN)
+            .putLong(h1).putLong(h2).array();
+
+        engineReset();
+
+        return output;
+    }
+
+    @Override
+    protected void engineReset() {
+        h1 = 0;
+        h2 = 0;
+        buffered = 0;
+        total = 0;
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 2 * Long.BYTES;
+    }
+
+    private void block(long k1, long k2) {
+
+        h1 ^= Long.rotateLeft(k1 * C1, 31) * C2;
+        h1 = Long.rotateLeft(h1, 27) + h2;
+        h1 = h1 * 5 + 0x52DCE729;
+
+        h2 ^= Long.rotateLeft(k2 * C2, 33) * C1;
+        h2 = Long.rotateLeft(h2, 31) + h1;
+        h2 = h2 * 5 + 0x38495AB5;
+    }
+
+    private void copy(ByteBuffer input, int offset, int length) {
+
+        for (int i = 0; i < length; i++) {
+            buffer.put(buffered++, input.get(offset + i));
+        }
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xFF51AFD7ED558CCDL;
+        k ^= k >>> 33;
+        k *= 0xC4CEB9FE1A85EC53L;
+        return k ^ k >>> 33;
+    }
+
+}
@@ -0,0 +1,202 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.BufferPool;
+import com.jeremierodriguez.util.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+
+/**
+ * This class reads a {@code FileChannel} on a reader thread while the calling thread digests
+ * what has already been read, so that disk and CPU are busy at the same time. Buffered strategies
+ * cycle through a small ring of reusable buffers, the mapped one loads a bounded number of
+ * windows ahead. Either way the reader blocks as soon as it is that far ahead of the digester.
+ *
+ * @author Jeremie Rodriguez
+ */
+class PipelinedReader {
+
+    private static final int RING_SIZE = 4;
+    private static final int MAPPED_AHEAD = 2;
+    private static final long POLL_MILLIS = 100;
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+    private static final ExecutorService READERS = Executors.newCachedThreadPool(
+        new DaemonThreadFactory("Reader Thread"));
+
+    private final FileChannel channel;
+    private final long length;
+    private final IoStrategy strategy;
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(RING_SIZE);
+    private final BlockingQueue<ByteBuffer> filled;
+    private volatile boolean stopped = false;
+    private volatile IOException failure = null;
+
+    private PipelinedReader(FileChannel channel, long length, IoStrategy strategy, int bufferSize) {
+        this.channel = channel;
+        this.length = length;
+        this.strategy = strategy;
+        this.bufferSize = bufferSize;
+
+        // Buffers get one extra slot so the end marker fits behind a full ring. Windows get one
+        // less than the read-ahead, the reader holding a loaded one while it waits for room
+        this.filled = new ArrayBlockingQueue<>(strategy == IoStrategy.MAPPED ? MAPPED_AHEAD - 1 : RING_SIZE + 1);
+    }
+
+    /**
+     * Reads the whole channel on a reader thread, handing every chunk to the consumer on the
+     * calling thread until end of file or until interrupted.
+     *
+     * @see ChannelReader#read(FileChannel, long, IoStrategy, int, boolean, Consumer, BooleanSupplier)
+     */
+    static long read(FileChannel channel, long length, IoStrategy strategy, int bufferSize,
+                     Consumer<ByteBuffer> consumer, BooleanSupplier interrupted) throws IOException {
+
+        return new PipelinedReader(channel, length, strategy, bufferSize).digest(consumer, interrupted);
+    }
+
+    private long digest(Consumer<ByteBuffer> consumer, BooleanSupplier interrupted) throws IOException {
+
+        List<ByteBuffer> ring = new ArrayList<>(RING_SIZE);
+
+        if (strategy != IoStrategy.MAPPED) {
+            for (int i = 0; i < RING_SIZE; i++) {
+                ring.add(strategy == IoStrategy.DIRECT
+                    ? BufferPool.acquire(bufferSize) : ByteBuffer.allocate(bufferSize));
+            }
+            free.addAll(ring);
+        }
+
+        Future<?> reader = READERS.submit(this::fill);
+        long readLength = 0;
+
+        try {
+            while (!interrupted.getAsBoolean()) {
+
+                ByteBuffer chunk = filled.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (chunk == END) {
+                    break;
+
+                } else if (chunk != null && strategy == IoStrategy.MAPPED) {
+                    readLength += ChannelReader.acceptSliced(chunk, consumer, interrupted);
+
+                } else if (chunk != null) {
+                    readLength += chunk.remaining();
+                    consumer.accept(chunk);
+                    chunk.clear();
+                    free.offer(chunk);
+                }
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+
+        } finally {
+            stopped = true;
+            awaitReader(reader);
+            ring.forEach(BufferPool::release);
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+
+        return readLength;
+    }
+
+    private void fill() {
+
+        long position = 0;
+
+        try {
+            while (position < length && !stopped) {
+
+                ByteBuffer buffer;
+
+                if (strategy == IoStrategy.MAPPED) {
+                    long size = Math.min(bufferSize, length - position);
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                    window.load();
+                    buffer = window;
+                    position += size;
+
+                } else {
+                    buffer = free.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (buffer == null) {
+                        continue;
+                    }
+
+                    int read = 0;
+                    while (buffer.hasRemaining() && read != -1) {
+                        read = channel.read(buffer, position);
+                        if (read > 0) {
+                            position += read;
+                        }
+                    }
+                    buffer.flip();
+
+                    // File got shorter than announced
+                    if (read == -1) {
+                        position = length;
+                    }
+                }
+
+                while (!stopped && !filled.offer(buffer, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    // Waits for the digester to catch up
+                }
+            }
+
+        } catch (IOException e) {
+            failure = e;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = new InterruptedIOException(e.getMessage());
+
+        } finally {
+            offerEnd();
+        }
+    }
+
+    private void offerEnd() {
+
+        // Mapped windows are not bounded by a ring and may fill the queue, so waits for room
+        try {
+            while (!stopped && !filled.offer(END, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                // Waits for the digester to catch up
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitReader(Future<?> reader) throws IOException {
+
+        try {
+            reader.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.jeremierodriguez.services;
+
+import java.time.Duration;
+
+
+/**
+ * Immutable snapshot of the progress of a hashing job, which may cover a single file or a whole
+ * batch of them. Totals of a batch grow as its files are found, so its fraction and estimated
+ * time left are only final once every file is.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class Progress {
+
+    private final long bytesDone;
+    private final long bytesTotal;
+    private final long filesDone;
+    private final long filesTotal;
+    private final double bytesPerSecond;
+    private final Duration elapsed;
+
+    Progress(long bytesDone, long bytesTotal, long filesDone, long filesTotal, double bytesPerSecond,
+             Duration elapsed) {
+        this.bytesDone = bytesDone;
+        this.bytesTotal = bytesTotal;
+        this.filesDone = filesDone;
+        this.filesTotal = filesTotal;
+        this.bytesPerSecond = bytesPerSecond;
+        this.elapsed = elapsed;
+    }
+
+    public long getBytesDone() {
+        return bytesDone;
+    }
+
+    public long getBytesTotal() {
+        return bytesTotal;
+    }
+
+    public long getFilesDone() {
+        return filesDone;
+    }
+
+    public long getFilesTotal() {
+        return filesTotal;
+    }
+
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * Returns the part of the bytes already hashed.
+     *
+     * @return value from 0 to 1, 1 if there is nothing to hash
+     */
+    public double getFraction() {
+        return bytesTotal <= 0 ? 1 : Math.min(1, bytesDone / (double) bytesTotal);
+    }
+
+    /**
+     * Estimates the time left from the current throughput.
+     *
+     * @return estimated time left, null while the throughput is unknown
+     */
+    public Duration getTimeLeft() {
+
+        if (bytesPerSecond <= 0) {
+            return null;
+        }
+
+        long bytesLeft = Math.max(0, bytesTotal - bytesDone);
+
+        return Duration.ofMillis((long) (bytesLeft / bytesPerSecond * 1000));
+    }
+
+    /**
+     * Formats the throughput, in the unit used by {@code HashResult}.
+     *
+     * @return throughput such as {@code 123.4 MB/s}
+     */
+    public String formatThroughput() {
+        return String.format("%.1f MB/s", bytesPerSecond / 1048576.0);
+    }
+
+    /**
+     * Formats the estimated time left.
+     *
+     * @return time left such as {@code 1:05:09} or {@code 4:02}, or {@code --:--} while unknown
+     */
+    public String formatTimeLeft() {
+
+        Duration left = getTimeLeft();
+
+        if (left == null) {
+            return "--:--";
+        }
+
+        long seconds = left.getSeconds();
+        long hours = seconds / 3600;
+
+        if (hours > 0) {
+            return String.format("%d:%02d:%02d", hours, seconds / 60 % 60, seconds % 60);
+        }
+
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.jeremierodriguez.services;
+
+
+/**
+ * Listener notified by a {@code ProgressTracker} at most once per reporting interval, on the
+ * tracker's own thread.
+ *
+ * @author Jeremie Rodriguez
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    /**
+     * Called with the latest progress, unless nothing moved since the previous call.
+     *
+     * @param progress snapshot of the progress
+     */
+    void progress(Progress progress);
+
+}
@@ -0,0 +1,145 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.DaemonThreadFactory;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * This class gathers the progress of one or many files being hashed, possibly on several threads,
+ * and reports it to a {@code ProgressListener} at a fixed interval instead of after every chunk.
+ * Hashing threads only add to counters, so reporting costs them nothing whatever the chunk size
+ * and the listener may be as slow as a GUI update. Throughput is smoothed from one report to the
+ * next, so that the estimated time left does not jump around.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class ProgressTracker implements AutoCloseable {
+
+    // Weight of the latest interval in the smoothed throughput
+    private static final double SMOOTHING = 0.3;
+
+    private static final ScheduledExecutorService TICKER = Executors.newSingleThreadScheduledExecutor(
+        new DaemonThreadFactory("Progress Ticker"));
+
+    private final ProgressListener listener;
+    private final LongAdder bytesDone = new LongAdder();
+    private final LongAdder bytesTotal = new LongAdder();
+    private final LongAdder filesDone = new LongAdder();
+    private final LongAdder filesTotal = new LongAdder();
+    private final long startNanos = System.nanoTime();
+    private final ScheduledFuture<?> ticks;
+
+    // Guarded by this
+    private boolean closed = false;
+    private long lastNanos = startNanos;
+    private long lastBytes = 0;
+    private long lastFiles = 0;
+    private double bytesPerSecond = 0;
+
+    /**
+     * Starts tracking.
+     *
+     * @param intervalMillis minimum time between two reports, in milliseconds
+     * @param listener       receives reports, on the tracker's thread
+     */
+    public ProgressTracker(long intervalMillis, ProgressListener listener) {
+        this.listener = listener;
+        this.ticks = TICKER.scheduleAtFixedRate(() -> report(false), intervalMillis, intervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds a file to the totals, before or while it is hashed.
+     *
+     * @param length length of the file in bytes
+     */
+    public void expect(long length) {
+        bytesTotal.add(length);
+        filesTotal.increment();
+    }
+
+    /**
+     * Creates the listener of a file's progress, to be given to the {@code FileHasher} hashing it.
+     *
+     * @return listener of a single file
+     */
+    public FileProgress startFile() {
+        return new FileProgress();
+    }
+
+    /**
+     * Stops tracking and reports the final progress, even if it did not move.
+     */
+    @Override
+    public void close() {
+        ticks.cancel(false);
+        report(true);
+    }
+
+    private synchronized void report(boolean last) {
+
+        // A tick that was already running when closed must not report after the last report
+        if (closed) {
+            return;
+        }
+        closed = last;
+
+        long now = System.nanoTime();
+        long bytes = bytesDone.sum();
+        long files = filesDone.sum();
+
+        if (!last && bytes == lastBytes && files == lastFiles) {
+            return;
+        }
+
+        double seconds = (now - lastNanos) / 1e9;
+        if (seconds > 0) {
+            double latest = (bytes - lastBytes) / seconds;
+            bytesPerSecond = lastNanos == startNanos ? latest : SMOOTHING * latest + (1 - SMOOTHING) * bytesPerSecond;
+        }
+
+        lastNanos = now;
+        lastBytes = bytes;
+        lastFiles = files;
+
+        listener.progress(new Progress(bytes, bytesTotal.sum(), files, filesTotal.sum(), bytesPerSecond,
+            Duration.ofNanos(now - startNanos)));
+    }
+
+    /**
+     * Listener of a single file, turning the running totals of a {@code FileHasher} into
+     * increments of the tracker's counters. It must be used by one thread at a time.
+     */
+    public final class FileProgress implements HashListener {
+
+        private long counted = 0;
+
+        private FileProgress() {
+        }
+
+        @Override
+        public void progress(long bytesRead, long length) {
+            bytesDone.add(bytesRead - counted);
+            counted = bytesRead;
+        }
+
+        /**
+         * Marks the file as done, counting whatever was not read, as happens when its digest comes
+         * from a cache.
+         *
+         * @param length length of the file in bytes
+         */
+        public void done(long length) {
+            bytesDone.add(length - counted);
+            counted = length;
+            filesDone.increment();
+        }
+    }
+
+}
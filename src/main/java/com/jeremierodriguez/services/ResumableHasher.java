@@ -0,0 +1,417 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.AppFolder;
+import com.jeremierodriguez.util.DigestFormat;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.EncodableDigest;
+import org.bouncycastle.crypto.digests.MD5Digest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.digests.SHA224Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA384Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+
+/**
+ * This class hashes a file like {@code FileHasher} does, but saves the internal state of its
+ * digests to a checkpoint of the application folder every few seconds, when interrupted and once
+ * done. Hashing the same file again continues from its checkpoint, so that an interrupted hash of
+ * a huge file, or one whose process died, loses a few seconds of work at most.
+ * <p>
+ * A checkpoint is only used while the file keeps the file key (the inode on Unix), size and last
+ * modification time it had when the checkpoint was written, and still has the same bytes just
+ * before the checkpointed offset. Like cached digests, checkpoints of files modified less than two
+ * seconds before being hashed are not used, as such files may have changed again without their
+ * modification time telling so.
+ * <p>
+ * Only digests whose state BouncyCastle can encode are supported: MD5, SHA1, SHA224, SHA256,
+ * SHA384 and SHA512. They are computed by BouncyCastle rather than by the JDK, results being
+ * identical.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class ResumableHasher {
+
+    // Below this length, hashing again costs less than keeping checkpoints around
+    public static final long MIN_LENGTH = 67108864;
+
+    private static final Set<Algs> SUPPORTED = EnumSet.of(Algs.MD5, Algs.SHA1, Algs.SHA224, Algs.SHA256,
+        Algs.SHA384, Algs.SHA512);
+
+    private static final String FOLDER = "checkpoints";
+    private static final String SUFFIX = ".checkpoint";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x43534350;
+    private static final int VERSION = 2;
+
+    private static final int BUFFER_SIZE = 1048576;
+    private static final long CHECKPOINT_MILLIS = 10000;
+
+    // Bytes before the checkpointed offset that must be unchanged for the checkpoint to be used
+    private static final int GUARD_SIZE = 4096;
+
+    private static final int MAX_IDLE_DAYS = 90;
+    private static final AtomicBoolean PRUNED = new AtomicBoolean();
+
+    private File file = null;
+    private List<Algs> algos = null;
+    private volatile boolean isInterrupted = false;
+
+    /**
+     * Constructor needing parameters as seen below.
+     *
+     * @param file  {@code File} object that is going to be hashed
+     * @param algos {@code Algs} enumerations representing the desired hash algorithms, all of
+     *              them supported
+     * @throws IllegalArgumentException if an algorithm is not supported
+     */
+    public ResumableHasher(File file, List<Algs> algos) {
+
+        if (!supports(algos)) {
+            throw new IllegalArgumentException("Hashing cannot be resumed for " + algos);
+        }
+
+        this.file = file;
+        this.algos = algos;
+    }
+
+    /**
+     * Tells whether the state of every given algorithm can be checkpointed.
+     *
+     * @param algos algorithms to compute
+     * @return true if a file can be hashed with all of them by this class
+     */
+    public static boolean supports(Collection<Algs> algos) {
+        return SUPPORTED.containsAll(algos);
+    }
+
+    /**
+     * Hashes the file from its checkpoint if it has a usable one, from its start otherwise,
+     * blocking until it is fully read or until {@link #interrupt()} is called. A checkpoint that
+     * cannot be written is not an error, it only prevents resuming from it.
+     *
+     * @param listener notified after every chunk, on the calling thread, with the number of bytes
+     *                 digested since the start of the file
+     * @return generated hashes and statistics about how they were computed, the number of bytes
+     * read not including those digested before the checkpoint
+     * @throws IOException              if the file could not be read
+     * @throws NoSuchAlgorithmException if the application folder cannot be keyed
+     */
+    public HashResult hash(HashListener listener) throws IOException, NoSuchAlgorithmException {
+
+        Path path = file.toPath();
+        Path checkpoint = checkpointOf(path);
+
+        try (FileChannel channel = FileChannel.open(path)) {
+
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            long length = channel.size();
+            FileState fileState = new FileState(String.valueOf(attrs.fileKey()), length,
+                attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+            long startTime = System.nanoTime();
+
+            Digest[] digests = new Digest[algos.size()];
+            long offset = restore(checkpoint, channel, fileState, digests);
+            long position = offset;
+            long checkpointTime = System.nanoTime();
+
+            byte[] bytes = new byte[BUFFER_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+            while (position < length && !isInterrupted) {
+
+                buffer.clear();
+                buffer.limit((int) Math.min(bytes.length, length - position));
+
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+
+                for (Digest digest : digests) {
+                    digest.update(bytes, 0, read);
+                }
+                position += read;
+                listener.progress(position, length);
+
+                if (System.nanoTime() - checkpointTime >= TimeUnit.MILLISECONDS.toNanos(CHECKPOINT_MILLIS)) {
+                    save(checkpoint, channel, position, fileState, digests);
+                    checkpointTime = System.nanoTime();
+                }
+            }
+
+            if (position > offset || offset == 0) {
+                save(checkpoint, channel, position, fileState, digests);
+            } else {
+                touch(checkpoint);
+            }
+
+            Map<Algs, byte[]> hashes = new LinkedHashMap<>();
+
+            if (!isInterrupted) {
+                for (int i = 0; i < digests.length; i++) {
+                    byte[] hash = new byte[digests[i].getDigestSize()];
+                    digests[i].doFinal(hash, 0);
+                    hashes.put(algos.get(i), hash);
+                }
+            }
+
+            Duration duration = Duration.ofNanos(System.nanoTime() - startTime);
+
+            return new HashResult(hashes, position - offset, length, IoStrategy.HEAP, false, duration,
+                isInterrupted);
+        }
+    }
+
+    /**
+     * Used to interrupt hashing, which then saves a checkpoint and returns as soon as the current
+     * chunk is digested.
+     */
+    public void interrupt() {
+        this.isInterrupted = true;
+    }
+
+    /**
+     * Fills given array with the digests saved by the checkpoint if it is usable, with new ones
+     * otherwise.
+     *
+     * @return offset to continue from
+     */
+    private long restore(Path checkpoint, FileChannel channel, FileState fileState, Digest[] digests) {
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint)))) {
+
+            if (input.readInt() == MAGIC && input.readInt() == VERSION && fileState.matches(input)) {
+
+                long offset = input.readLong();
+                long guard = input.readLong();
+                Digest[] restored = new Digest[digests.length];
+                boolean usable = offset <= fileState.length && input.readInt() == digests.length;
+
+                for (int i = 0; usable && i < digests.length; i++) {
+                    usable = input.readUTF().equals(algos.get(i).name());
+                    byte[] state = new byte[input.readInt()];
+                    input.readFully(state);
+                    restored[i] = newDigest(algos.get(i), state);
+                }
+
+                if (usable && guard(channel, offset) == guard) {
+                    System.arraycopy(restored, 0, digests, 0, digests.length);
+                    return offset;
+                }
+            }
+
+        } catch (NoSuchFileException e) {
+            // Never hashed, or not since its checkpoint was pruned
+
+        } catch (IOException | RuntimeException e) {
+            // Written by another version or truncated, started over
+        }
+
+        for (int i = 0; i < digests.length; i++) {
+            digests[i] = newDigest(algos.get(i), null);
+        }
+
+        return 0;
+    }
+
+    private void save(Path checkpoint, FileChannel channel, long offset, FileState fileState, Digest[] digests) {
+
+        Path temp = null;
+
+        try {
+            temp = Files.createTempFile(checkpoint.getParent(), checkpoint.getFileName().toString(), TEMP_SUFFIX);
+
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                fileState.write(output);
+                output.writeLong(offset);
+                output.writeLong(guard(channel, offset));
+                output.writeInt(digests.length);
+
+                for (int i = 0; i < digests.length; i++) {
+                    byte[] state = ((EncodableDigest) digests[i]).getEncodedState();
+                    output.writeUTF(algos.get(i).name());
+                    output.writeInt(state.length);
+                    output.write(state);
+                }
+            }
+
+            // Readers see either the previous checkpoint or this one, never a partial one
+            Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException e) {
+            try {
+                if (temp != null) {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException ignored) {
+                // Pruned later
+            }
+        }
+    }
+
+    /**
+     * Keeps a checkpoint that is still used from being pruned.
+     */
+    private static void touch(Path checkpoint) {
+
+        try {
+            Files.setLastModifiedTime(checkpoint, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Only written again sooner
+        }
+    }
+
+    /**
+     * Checksums the bytes just before given offset, telling whether what was hashed up to it is
+     * still there.
+     */
+    private static long guard(FileChannel channel, long offset) throws IOException {
+
+        int size = (int) Math.min(GUARD_SIZE, offset);
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset - size + buffer.position()) < 0) {
+                return -1;
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, size);
+
+        return crc.getValue();
+    }
+
+    /**
+     * Returns the checkpoint of the file for the algorithms of this hasher, keyed by the MD5 of
+     * the file's absolute path and of the algorithms' names.
+     */
+    private Path checkpointOf(Path path) throws IOException, NoSuchAlgorithmException {
+
+        Path folder = AppFolder.resolve(FOLDER);
+        Files.createDirectories(folder);
+
+        if (PRUNED.compareAndSet(false, true)) {
+            prune(folder);
+        }
+
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        md5.update(path.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+
+        for (Algs algo : algos) {
+            md5.update((byte) 0);
+            md5.update(algo.name().getBytes(StandardCharsets.UTF_8));
+        }
+
+        return folder.resolve(DigestFormat.toHex(md5.digest()) + SUFFIX);
+    }
+
+    /**
+     * Deletes checkpoints not written for 90 days, and temporary files left by a process that died.
+     */
+    private static void prune(Path folder) {
+
+        long oldest = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(MAX_IDLE_DAYS);
+        long oldestTemp = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+            for (Path file : files) {
+                long modified = Files.getLastModifiedTime(file).toMillis();
+
+                if (modified < oldest || file.toString().endsWith(TEMP_SUFFIX) && modified < oldestTemp) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            // Tried again by the next process
+        }
+    }
+
+    /**
+     * State of the file when its hash started, which a checkpoint must have been written for.
+     */
+    private static final class FileState {
+
+        private final String fileKey;
+        private final long length;
+        private final long modified;
+
+        FileState(String fileKey, long length, long modified) {
+            this.fileKey = fileKey;
+            this.length = length;
+            this.modified = modified;
+        }
+
+        void write(DataOutputStream output) throws IOException {
+            output.writeUTF(fileKey);
+            output.writeLong(length);
+            output.writeLong(modified);
+            output.writeLong(System.currentTimeMillis());
+        }
+
+        boolean matches(DataInputStream input) throws IOException {
+
+            String savedKey = input.readUTF();
+            long savedLength = input.readLong();
+            long savedModified = input.readLong();
+            long written = input.readLong();
+
+            return savedKey.equals(fileKey) && savedLength == length && savedModified == modified
+                && TimeUnit.NANOSECONDS.toMillis(modified) + DigestCache.RACY_MILLIS <= written;
+        }
+    }
+
+    private static Digest newDigest(Algs algo, byte[] state) {
+
+        switch (algo) {
+            case MD5:
+                return state == null ? new MD5Digest() : new MD5Digest(state);
+            case SHA1:
+                return state == null ? new SHA1Digest() : new SHA1Digest(state);
+            case SHA224:
+                return state == null ? new SHA224Digest() : new SHA224Digest(state);
+            case SHA256:
+                return state == null ? new SHA256Digest() : new SHA256Digest(state);
+            case SHA384:
+                return state == null ? new SHA384Digest() : new SHA384Digest(state);
+            case SHA512:
+                return state == null ? new SHA512Digest() : new SHA512Digest(state);
+            default:
+                throw new IllegalArgumentException("Hashing cannot be resumed for " + algo);
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.jeremierodriguez.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Class with static methods hashing small files with as little work per file as possible. Below a
+ * few dozen kilobytes, opening and reading a file costs more than digesting it, so a small file is
+ * read whole with a single call into a buffer its thread reuses, then handed to pooled digests,
+ * without the chunking, pipelining and statistics {@code FileHasher} sets up for every file.
+ * Digests are the same as those of {@code FileHasher}, only how bytes reach them differs.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class SmallFileHasher {
+
+    /**
+     * Length up to which a file is hashed by this class.
+     */
+    public static final int MAX_LENGTH = 65536;
+
+    // One byte more than the largest file, to tell whether a file grew
+    private static final ThreadLocal<ByteBuffer> BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAX_LENGTH + 1));
+
+    private SmallFileHasher() {
+    }
+
+    /**
+     * Hashes a file read with a single call, if it is small enough.
+     *
+     * @param file     path of a regular file
+     * @param algos    algorithms to compute
+     * @param listener notified once the file is read
+     * @return digests mapped to their algorithm in requested order, null if the file is larger
+     * than {@link #MAX_LENGTH}, in which case it was not read, or if its length changed while it
+     * was read, in which case it should be hashed by {@code FileHasher}
+     * @throws IOException              if the file could not be read
+     * @throws GeneralSecurityException if an algorithm is not available
+     */
+    public static Map<Algs, byte[]> hash(Path file, List<Algs> algos, HashListener listener)
+        throws IOException, GeneralSecurityException {
+
+        ByteBuffer buffer = BUFFER.get();
+        buffer.clear();
+
+        try (FileChannel channel = FileChannel.open(file)) {
+
+            long length = channel.size();
+
+            if (length > MAX_LENGTH) {
+                return null;
+            }
+
+            // Reads until the end of the file, a byte past its length meaning it grew meanwhile
+            buffer.limit((int) length + 1);
+            int read = 0;
+            while (read >= 0 && buffer.hasRemaining()) {
+                read = channel.read(buffer);
+            }
+
+            if (buffer.position() != length) {
+                return null;
+            }
+        }
+
+        listener.progress(buffer.position(), buffer.position());
+        Map<Algs, byte[]> hashes = new LinkedHashMap<>();
+
+        for (Algs algo : algos) {
+            if (hashes.containsKey(algo)) {
+                continue;
+            }
+
+            MessageDigest digest = DigestPool.acquire(algo);
+
+            try {
+                digest.update(buffer.array(), 0, buffer.position());
+                hashes.put(algo, digest.digest());
+            } finally {
+                DigestPool.release(algo, digest);
+            }
+        }
+
+        return hashes;
+    }
+
+}
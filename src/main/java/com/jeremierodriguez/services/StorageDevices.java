@@ -0,0 +1,218 @@
+package com.jeremierodriguez.services;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Class with static methods telling which storage device a file is on and what kind of device
+ * it is, so that reads can be scheduled per device.
+ * <p>
+ * On Unix the device is given for free by the file key that comes with the attributes of every
+ * walked file, elsewhere it is the file store of the file's directory. Kinds are only told apart
+ * on Linux, from the {@code rotational} flag of the block device in {@code /sys} and from the
+ * file system type; anywhere else devices are of unknown kind.
+ *
+ * @author Jeremie Rodriguez
+ */
+class StorageDevices {
+
+    private static final String DEV_PREFIX = "dev=";
+    private static final String INO_PREFIX = "ino=";
+    private static final Path SYS_BLOCK = Paths.get("/sys/dev/block");
+
+    private static final List<String> MEMORY_TYPES = Arrays.asList("tmpfs", "ramfs");
+    private static final List<String> NETWORK_TYPES = Arrays.asList("nfs", "nfs4", "cifs", "smbfs", "smb3",
+        "afs", "9p", "fuse.sshfs", "ceph", "glusterfs");
+
+    private static final Map<String, Kind> KINDS = new ConcurrentHashMap<>();
+    private static final Map<Path, String> STORES = new ConcurrentHashMap<>();
+
+    /**
+     * Kind of storage device, which sets how many files are read from it at the same time.
+     */
+    enum Kind {
+
+        // Concurrent reads make the heads seek back and forth
+        ROTATIONAL(1),
+
+        // Flash and memory serve concurrent reads as fast as sequential ones
+        SOLID_STATE(Integer.MAX_VALUE),
+
+        // Latency is hidden by a few requests in flight
+        NETWORK(4),
+
+        UNKNOWN(2);
+
+        private final int concurrency;
+
+        Kind(int concurrency) {
+            this.concurrency = concurrency;
+        }
+
+        int getConcurrency() {
+            return concurrency;
+        }
+    }
+
+    private StorageDevices() {
+    }
+
+    /**
+     * Identifies the device of a file.
+     *
+     * @param file  path of the file
+     * @param attrs attributes of the file, may be null if unknown
+     * @return identifier shared by all files of the same device
+     */
+    static String idOf(Path file, BasicFileAttributes attrs) {
+
+        String dev = keyPart(attrs, DEV_PREFIX);
+
+        if (dev != null) {
+            return dev;
+        }
+
+        Path directory = file.toAbsolutePath().getParent();
+
+        if (directory == null) {
+            return "";
+        }
+
+        return STORES.computeIfAbsent(directory, dir -> {
+            try {
+                return Files.getFileStore(dir).name();
+            } catch (IOException e) {
+                return "";
+            }
+        });
+    }
+
+    /**
+     * Returns the kind of a device, found the first time one of its files is given.
+     *
+     * @param id   identifier of the device, as returned by {@link #idOf(Path, BasicFileAttributes)}
+     * @param file path of a file of that device
+     * @return kind of the device
+     */
+    static Kind kindOf(String id, Path file) {
+        return KINDS.computeIfAbsent(id, key -> detect(key, file));
+    }
+
+    /**
+     * Returns the inode of a file, which on most file systems follows the order of its blocks
+     * more closely than its name does.
+     *
+     * @param attrs attributes of the file, may be null if unknown
+     * @return inode number, or -1 if unknown
+     */
+    static long inodeOf(BasicFileAttributes attrs) {
+
+        String ino = keyPart(attrs, INO_PREFIX);
+
+        try {
+            return ino == null ? -1 : Long.parseLong(ino);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Kind detect(String id, Path file) {
+
+        String type = "";
+
+        try {
+            type = Files.getFileStore(file).type();
+        } catch (IOException e) {
+            // Left unknown
+        }
+
+        if (MEMORY_TYPES.contains(type)) {
+            return Kind.SOLID_STATE;
+        }
+        if (NETWORK_TYPES.contains(type)) {
+            return Kind.NETWORK;
+        }
+
+        Boolean rotational = isRotational(id);
+
+        if (rotational == null) {
+            return Kind.UNKNOWN;
+        }
+
+        return rotational ? Kind.ROTATIONAL : Kind.SOLID_STATE;
+    }
+
+    /**
+     * Reads the rotational flag of a Linux block device, whose number is given in hexadecimal as
+     * in Unix file keys.
+     *
+     * @return the flag, or null if unknown
+     */
+    private static Boolean isRotational(String id) {
+
+        long dev;
+
+        try {
+            dev = Long.parseLong(id, 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        // Same encoding as the major and minor macros of glibc
+        long major = ((dev >>> 8) & 0xfff) | ((dev >>> 32) & ~0xfffL);
+        long minor = (dev & 0xff) | ((dev >>> 12) & ~0xffL);
+
+        try {
+            Path device = SYS_BLOCK.resolve(major + ":" + minor).toRealPath();
+
+            // A partition has no queue of its own, its disk has
+            Path flag = device.resolve("queue/rotational");
+            if (!Files.exists(flag) && device.getParent() != null) {
+                flag = device.getParent().resolve("queue/rotational");
+            }
+
+            return "1".equals(new String(Files.readAllBytes(flag)).trim());
+
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Extracts a number from a Unix file key, whose text is {@code (dev=803,ino=1234)}.
+     */
+    private static String keyPart(BasicFileAttributes attrs, String prefix) {
+
+        Object key = attrs == null ? null : attrs.fileKey();
+
+        if (key == null) {
+            return null;
+        }
+
+        String text = key.toString();
+        int start = text.indexOf(prefix);
+
+        if (start < 0) {
+            return null;
+        }
+
+        start += prefix.length();
+        int end = start;
+
+        while (end < text.length() && Character.isLetterOrDigit(text.charAt(end))) {
+            end++;
+        }
+
+        return end > start ? text.substring(start, end) : null;
+    }
+
+}
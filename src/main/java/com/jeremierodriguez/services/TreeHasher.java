@@ -0,0 +1,226 @@
+package com.jeremierodriguez.services;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Class with static methods computing tree hashes of a file, whose leaves are hashed in parallel
+ * on a {@code ForkJoinPool} with positional reads from a single shared {@code FileChannel}.
+ * <p>
+ * BLAKE3 is natively a tree hash, so it is computed in parallel and gives the exact same result
+ * as {@link Blake3Digest}. Every other {@code Algs} value {@code H} can be used in a Merkle tree
+ * built as follows, which is the tree of RFC 6962 section 2.1 over fixed size leaves:
+ * <ul>
+ * <li>the file is split in {@code n = max(1, ceil(length / leafSize))} leaves, the last one may be
+ * shorter and an empty file is a single empty leaf</li>
+ * <li>a leaf hashes to {@code H(0x00 || leaf)}</li>
+ * <li>a range of {@code n > 1} leaves hashes to {@code H(0x01 || left || right)}, where
+ * {@code left} is the hash of its first {@code k} leaves, {@code k} being the largest power of two
+ * strictly smaller than {@code n}, and {@code right} the hash of the remaining ones</li>
+ * </ul>
+ * The root hash is therefore fully determined by the algorithm, the leaf size and the content.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class TreeHasher {
+
+    public static final int DEFAULT_LEAF_SIZE = 1048576;
+
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+
+    // Number of bytes hashed sequentially by each BLAKE3 task, a power of two number of chunks
+    private static final int BLAKE3_GROUP_SIZE = 1048576;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    // Direct buffer of each worker, reused from leaf to leaf as a leaf never forks while reading
+    private static final ThreadLocal<ByteBuffer> LEAF_BUFFERS = new ThreadLocal<>();
+
+    private TreeHasher() {
+    }
+
+    /**
+     * Returns the name given to a tree hash in results.
+     *
+     * @param algo     algorithm of the tree
+     * @param leafSize leaf size of the tree, ignored for BLAKE3
+     * @return BLAKE3 or MERKLE-algorithm-leafSize, such as MERKLE-SHA256-1048576
+     */
+    public static String label(Algs algo, int leafSize) {
+        return algo == Algs.BLAKE3 ? algo.name() : "MERKLE-" + algo + "-" + leafSize;
+    }
+
+    /**
+     * Computes the tree hash of a file.
+     *
+     * @param channel  channel of the file, only read with positional reads
+     * @param length   length of the file in bytes
+     * @param algo     algorithm of the tree
+     * @param leafSize leaf size in bytes, ignored for BLAKE3
+     * @return root hash
+     * @throws IOException              if the file could not be read
+     * @throws GeneralSecurityException if the algorithm is not available
+     */
+    public static byte[] hash(FileChannel channel, long length, Algs algo, int leafSize)
+        throws IOException, GeneralSecurityException {
+
+        // Makes sure the algorithm exists before spreading work
+        algo.newDigest();
+
+        try {
+            if (algo == Algs.BLAKE3) {
+                return POOL.invoke(new Blake3Task(channel, 0, length)).rootBytes();
+            }
+
+            long leaves = Math.max(1, (length + leafSize - 1) / leafSize);
+            return POOL.invoke(new MerkleTask(channel, algo, leafSize, 0, leaves, length));
+
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static long largestPowerOfTwoBelow(long n) {
+        return Long.highestOneBit(n - 1);
+    }
+
+    private static ByteBuffer readRange(FileChannel channel, long position, int size, int capacity) {
+
+        // Always the same capacity, whatever the size of the last leaf
+        ByteBuffer buffer = LEAF_BUFFERS.get();
+
+        if (buffer == null || buffer.capacity() != capacity) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+            LEAF_BUFFERS.set(buffer);
+        }
+        buffer.clear();
+        buffer.limit(size);
+
+        try {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read == -1) {
+                    throw new IOException("File got shorter while being hashed");
+                }
+            }
+            buffer.flip();
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return buffer;
+    }
+
+    private static MessageDigest newDigest(Algs algo) {
+
+        try {
+            return DigestPool.acquire(algo);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private static class MerkleTask extends RecursiveTask<byte[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final Algs algo;
+        private final int leafSize;
+        private final long from;
+        private final long to;
+        private final long length;
+
+        MerkleTask(FileChannel channel, Algs algo, int leafSize, long from, long to, long length) {
+            this.channel = channel;
+            this.algo = algo;
+            this.leafSize = leafSize;
+            this.from = from;
+            this.to = to;
+            this.length = length;
+        }
+
+        @Override
+        protected byte[] compute() {
+
+            if (to - from == 1) {
+                long position = from * leafSize;
+                int size = (int) Math.min(leafSize, length - position);
+                ByteBuffer leaf = readRange(channel, position, size, leafSize);
+                MessageDigest digest = newDigest(algo);
+
+                try {
+                    digest.update(LEAF_PREFIX);
+                    digest.update(leaf);
+                    return digest.digest();
+                } finally {
+                    DigestPool.release(algo, digest);
+                }
+            }
+
+            long split = from + largestPowerOfTwoBelow(to - from);
+            MerkleTask left = new MerkleTask(channel, algo, leafSize, from, split, length);
+            left.fork();
+            byte[] right = new MerkleTask(channel, algo, leafSize, split, to, length).compute();
+            byte[] leftHash = left.join();
+
+            // Taken once children are done, so that joining never holds a digest
+            MessageDigest digest = newDigest(algo);
+
+            try {
+                digest.update(NODE_PREFIX);
+                digest.update(leftHash);
+                digest.update(right);
+                return digest.digest();
+            } finally {
+                DigestPool.release(algo, digest);
+            }
+        }
+    }
+
+    private static class Blake3Task extends RecursiveTask<Blake3Digest.Node> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long start;
+        private final long length;
+
+        Blake3Task(FileChannel channel, long start, long length) {
+            this.channel = channel;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        protected Blake3Digest.Node compute() {
+
+            if (length <= BLAKE3_GROUP_SIZE) {
+                Blake3Digest digest = new Blake3Digest(start / Blake3Digest.CHUNK_LEN);
+                digest.update(readRange(channel, start, (int) length, BLAKE3_GROUP_SIZE));
+
+                return digest.finishNode();
+            }
+
+            // Left subtree holds the largest power of two number of chunks leaving at least one byte
+            long fullChunks = (length - 1) / Blake3Digest.CHUNK_LEN;
+            long leftLength = Long.highestOneBit(fullChunks) * Blake3Digest.CHUNK_LEN;
+
+            Blake3Task left = new Blake3Task(channel, start, leftLength);
+            left.fork();
+            Blake3Digest.Node right = new Blake3Task(channel, start + leftLength, length - leftLength).compute();
+
+            return Blake3Digest.parent(left.join(), right);
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+package com.jeremierodriguez.services;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/**
+ * XXH64 {@code MessageDigest}, the 64-bit xxHash with seed 0. It is not cryptographic but runs at
+ * memory speed, which suits screening data on trusted storage. Its 8-byte output is big-endian, as
+ * printed by {@code xxhsum}.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class XxHash64Digest extends ByteBufferDigest {
+
+    static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    static final long PRIME64_3 = 0x165667B19E3779F9L;
+    static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    private static final int STRIPE_LEN = 32;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(STRIPE_LEN).order(ByteOrder.LITTLE_ENDIAN);
+    private int buffered = 0;
+    private long total = 0;
+    private long v1 = 0;
+    private long v2 = 0;
+    private long v3 = 0;
+    private long v4 = 0;
+
+    /**
+     * Creates a digest ready to be updated.
+     */
+    public XxHash64Digest() {
+        super(Algs.XXH64.name());
+        engineReset();
+    }
+
+    @Override
+    void update(ByteBuffer input, int offset, int length) {
+
+        int position = offset;
+        int end = offset + length;
+        total += length;
+
+        if (buffered > 0) {
+            int copied = Math.min(STRIPE_LEN - buffered, length);
+            copy(input, position, copied);
+            position += copied;
+
+            if (buffered < STRIPE_LEN) {
+                return;
+            }
+            stripe(buffer, 0);
+            buffered = 0;
+        }
+
+        while (end - position >= STRIPE_LEN) {
+            stripe(input, position);
+            position += STRIPE_LEN;
+        }
+
+        copy(input, position, end - position);
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+
+        long hash;
+
+        if (total >= STRIPE_LEN) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = PRIME64_5;
+        }
+
+        hash += total;
+
+        int position = 0;
+
+        while (buffered - position >= Long.BYTES) {
+            hash ^= round(0, buffer.getLong(position));
+            hash = Long.rotateLeft(hash, 27) * PRIME64_1 + PRIME64_4;
+            position += Long.BYTES;
+        }
+
+        if (buffered - position >= Integer.BYTES) {
+            hash ^= (buffer.getInt(position) & 0xFFFFFFFFL) * PRIME64_1;
+            hash = Long.rotateLeft(hash, 23) * PRIME64_2 + PRIME64_3;
+            position += Integer.BYTES;
+        }
+
+        while (position < buffered) {
+            hash ^= (buffer.get(position) & 0xFFL) * PRIME64_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME64_1;
+            position++;
+        }
+
+        byte[] output = new byte[Long.BYTES];
+        putLong(output, 0, avalanche(hash));
+
+        engineReset();
+
+        return output;
+    }
+
+    @Override
+    protected void engineReset() {
+        v1 = PRIME64_1 + PRIME64_2;
+        v2 = PRIME64_2;
+        v3 = 0;
+        v4 = -PRIME64_1;
+        buffered = 0;
+        total = 0;
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return Long.BYTES;
+    }
+
+    static long avalanche(long hash) {
+        hash ^= hash >>> 33;
+        hash *= PRIME64_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME64_3;
+        return hash ^ hash >>> 32;
+    }
+
+    private void stripe(ByteBuffer input, int offset) {
+        v1 = round(v1, input.getLong(offset));
+        v2 = round(v2, input.getLong(offset + 8));
+        v3 = round(v3, input.getLong(offset + 16));
+        v4 = round(v4, input.getLong(offset + 24));
+    }
+
+    private void copy(ByteBuffer input, int offset, int length) {
+
+        for (int i = 0; i < length; i++) {
+            buffer.put(buffered++, input.get(offset + i));
+        }
+    }
+
+    private static long round(long acc, long input) {
+        return Long.rotateLeft(acc + input * PRIME64_2, 31) * PRIME64_1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        return (acc ^ round(0, value)) * PRIME64_1 + PRIME64_4;
+    }
+
+}
@@ -0,0 +1,355 @@
+package com.jeremierodriguez.services;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/**
+ * XXH3 {@code MessageDigest} producing the 64-bit variant with seed 0 and the default secret. It
+ * is not cryptographic and is the fastest xxHash, especially on small inputs. Its 8-byte output
+ * is big-endian, as printed by {@code xxhsum -H3}.
+ * <p>
+ * Inputs of up to 240 bytes are hashed at once by dedicated functions, longer ones stripe by
+ * stripe into eight accumulators scrambled after every block of 16 stripes. The last stripe is
+ * always hashed apart, so the last bytes of the input are kept until it is completed.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class Xxh3Digest extends ByteBufferDigest {
+
+    private static final long PRIME32_1 = 0x9E3779B1L;
+    private static final long PRIME32_2 = 0x85EBCA77L;
+    private static final long PRIME32_3 = 0xC2B2AE3DL;
+    private static final long PRIME_MX1 = 0x165667919E3779F9L;
+    private static final long PRIME_MX2 = 0x9FB21C651E98DF25L;
+
+    private static final int STRIPE_LEN = 64;
+    private static final int STRIPES_PER_BLOCK = 16;
+    private static final int SECRET_SIZE = 192;
+    private static final int LAST_ACC_START = 7;
+    private static final int MERGE_ACCS_START = 11;
+    private static final int MID_SIZE_MAX = 240;
+    private static final int MID_SIZE_START = 3;
+    private static final int MID_SIZE_LAST = 17;
+    private static final int SECRET_SIZE_MIN = 136;
+
+    // Multiple of the stripe length, larger than inputs hashed at once
+    private static final int BUFFER_SIZE = 256;
+
+    private static final ByteBuffer SECRET = ByteBuffer.wrap(new byte[]{
+        (byte) 0xb8, (byte) 0xfe, (byte) 0x6c, (byte) 0x39, (byte) 0x23, (byte) 0xa4, (byte) 0x4b, (byte) 0xbe,
+        (byte) 0x7c, (byte) 0x01, (byte) 0x81, (byte) 0x2c, (byte) 0xf7, (byte) 0x21, (byte) 0xad, (byte) 0x1c,
+        (byte) 0xde, (byte) 0xd4, (byte) 0x6d, (byte) 0xe9, (byte) 0x83, (byte) 0x90, (byte) 0x97, (byte) 0xdb,
+        (byte) 0x72, (byte) 0x40, (byte) 0xa4, (byte) 0xa4, (byte) 0xb7, (byte) 0xb3, (byte) 0x67, (byte) 0x1f,
+        (byte) 0xcb, (byte) 0x79, (byte) 0xe6, (byte) 0x4e, (byte) 0xcc, (byte) 0xc0, (byte) 0xe5, (byte) 0x78,
+        (byte) 0x82, (byte) 0x5a, (byte) 0xd0, (byte) 0x7d, (byte) 0xcc, (byte) 0xff, (byte) 0x72, (byte) 0x21,
+        (byte) 0xb8, (byte) 0x08, (byte) 0x46, (byte) 0x74, (byte) 0xf7, (byte) 0x43, (byte) 0x24, (byte) 0x8e,
+        (byte) 0xe0, (byte) 0x35, (byte) 0x90, (byte) 0xe6, (byte) 0x81, (byte) 0x3a, (byte) 0x26, (byte) 0x4c,
+        (byte) 0x3c, (byte) 0x28, (byte) 0x52, (byte) 0xbb, (byte) 0x91, (byte) 0xc3, (byte) 0x00, (byte) 0xcb,
+        (byte) 0x88, (byte) 0xd0, (byte) 0x65, (byte) 0x8b, (byte) 0x1b, (byte) 0x53, (byte) 0x2e, (byte) 0xa3,
+        (byte) 0x71, (byte) 0x64, (byte) 0x48, (byte) 0x97, (byte) 0xa2, (byte) 0x0d, (byte) 0xf9, (byte) 0x4e,
+        (byte) 0x38, (byte) 0x19, (byte) 0xef, (byte) 0x46, (byte) 0xa9, (byte) 0xde, (byte) 0xac, (byte) 0xd8,
+        (byte) 0xa8, (byte) 0xfa, (byte) 0x76, (byte) 0x3f, (byte) 0xe3, (byte) 0x9c, (byte) 0x34, (byte) 0x3f,
+        (byte) 0xf9, (byte) 0xdc, (byte) 0xbb, (byte) 0xc7, (byte) 0xc7, (byte) 0x0b, (byte) 0x4f, (byte) 0x1d,
+        (byte) 0x8a, (byte) 0x51, (byte) 0xe0, (byte) 0x4b, (byte) 0xcd, (byte) 0xb4, (byte) 0x59, (byte) 0x31,
+        (byte) 0xc8, (byte) 0x9f, (byte) 0x7e, (byte) 0xc9, (byte) 0xd9, (byte) 0x78, (byte) 0x73, (byte) 0x64,
+        (byte) 0xea, (byte) 0xc5, (byte) 0xac, (byte) 0x83, (byte) 0x34, (byte) 0xd3, (byte) 0xeb, (byte) 0xc3,
+        (byte) 0xc5, (byte) 0x81, (byte) 0xa0, (byte) 0xff, (byte) 0xfa, (byte) 0x13, (byte) 0x63, (byte) 0xeb,
+        (byte) 0x17, (byte) 0x0d, (byte) 0xdd, (byte) 0x51, (byte) 0xb7, (byte) 0xf0, (byte) 0xda, (byte) 0x49,
+        (byte) 0xd3, (byte) 0x16, (byte) 0x55, (byte) 0x26, (byte) 0x29, (byte) 0xd4, (byte) 0x68, (byte) 0x9e,
+        (byte) 0x2b, (byte) 0x16, (byte) 0xbe, (byte) 0x58, (byte) 0x7d, (byte) 0x47, (byte) 0xa1, (byte) 0xfc,
+        (byte) 0x8f, (byte) 0xf8, (byte) 0xb8, (byte) 0xd1, (byte) 0x7a, (byte) 0xd0, (byte) 0x31, (byte) 0xce,
+        (byte) 0x45, (byte) 0xcb, (byte) 0x3a, (byte) 0x8f, (byte) 0x95, (byte) 0x16, (byte) 0x04, (byte) 0x28,
+        (byte) 0xaf, (byte) 0xd7, (byte) 0xfb, (byte) 0xca, (byte) 0xbb, (byte) 0x4b, (byte) 0x40, (byte) 0x7e
+    }).order(ByteOrder.LITTLE_ENDIAN);
+
+    // Secret words read by each stripe of a block, then by the scrambling and the last stripe
+    private static final long[] STRIPE_KEYS = keys(0, STRIPES_PER_BLOCK + Long.BYTES);
+    private static final long[] SCRAMBLE_KEYS = keys(SECRET_SIZE - STRIPE_LEN, Long.BYTES);
+    private static final long[] LAST_STRIPE_KEYS = keys(SECRET_SIZE - STRIPE_LEN - LAST_ACC_START, Long.BYTES);
+
+    private final long[] acc = new long[Long.BYTES];
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private int buffered = 0;
+    private long total = 0;
+    private int stripesInBlock = 0;
+
+    /**
+     * Creates a digest ready to be updated.
+     */
+    public Xxh3Digest() {
+        super(Algs.XXH3.name());
+        engineReset();
+    }
+
+    @Override
+    void update(ByteBuffer input, int offset, int length) {
+
+        int position = offset;
+        int end = offset + length;
+        total += length;
+
+        // Keeps at least one byte so that the last stripe is never hashed as a regular one
+        if (buffered + length <= BUFFER_SIZE) {
+            copy(input, position, length);
+            return;
+        }
+
+        if (buffered > 0) {
+            int copied = BUFFER_SIZE - buffered;
+            copy(input, position, copied);
+            position += copied;
+            stripes(buffer, 0, BUFFER_SIZE / STRIPE_LEN);
+            buffered = 0;
+        }
+
+        if (end - position > BUFFER_SIZE) {
+            int count = (end - position - 1) / STRIPE_LEN;
+            stripes(input, position, count);
+            position += count * STRIPE_LEN;
+
+            // The last stripe may need bytes of this one, see engineDigest
+            for (int i = 0; i < STRIPE_LEN; i++) {
+                buffer.put(BUFFER_SIZE - STRIPE_LEN + i, input.get(position - STRIPE_LEN + i));
+            }
+        }
+
+        copy(input, position, end - position);
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+
+        long hash;
+
+        if (total <= MID_SIZE_MAX) {
+            hash = hashShort(buffer, (int) total);
+
+        } else {
+            ByteBuffer lastStripe;
+
+            if (buffered >= STRIPE_LEN) {
+                stripes(buffer, 0, (buffered - 1) / STRIPE_LEN);
+                lastStripe = slice(buffer, buffered - STRIPE_LEN, STRIPE_LEN);
+
+            } else {
+                // Ends of the previous stripes, followed by what was kept of the last one
+                lastStripe = ByteBuffer.allocate(STRIPE_LEN).order(ByteOrder.LITTLE_ENDIAN);
+                int previous = STRIPE_LEN - buffered;
+
+                for (int i = 0; i < previous; i++) {
+                    lastStripe.put(i, buffer.get(BUFFER_SIZE - previous + i));
+                }
+                for (int i = 0; i < buffered; i++) {
+                    lastStripe.put(previous + i, buffer.get(i));
+                }
+            }
+
+            accumulate(lastStripe, 0, LAST_STRIPE_KEYS, 0);
+
+            hash = total * XxHash64Digest.PRIME64_1;
+
+            for (int i = 0; i < acc.length; i += 2) {
+                hash += mul128Fold64(acc[i] ^ SECRET.getLong(MERGE_ACCS_START + i * Long.BYTES),
+                    acc[i + 1] ^ SECRET.getLong(MERGE_ACCS_START + i * Long.BYTES + Long.BYTES));
+            }
+            hash = avalanche(hash);
+        }
+
+        byte[] output = new byte[Long.BYTES];
+        putLong(output, 0, hash);
+
+        engineReset();
+
+        return output;
+    }
+
+    @Override
+    protected void engineReset() {
+        acc[0] = PRIME32_3;
+        acc[1] = XxHash64Digest.PRIME64_1;
+        acc[2] = XxHash64Digest.PRIME64_2;
+        acc[3] = XxHash64Digest.PRIME64_3;
+        acc[4] = XxHash64Digest.PRIME64_4;
+        acc[5] = PRIME32_2;
+        acc[6] = XxHash64Digest.PRIME64_5;
+        acc[7] = PRIME32_1;
+        buffered = 0;
+        total = 0;
+        stripesInBlock = 0;
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return Long.BYTES;
+    }
+
+    private void stripes(ByteBuffer input, int offset, int count) {
+
+        for (int i = 0; i < count; i++) {
+            accumulate(input, offset + i * STRIPE_LEN, STRIPE_KEYS, stripesInBlock);
+
+            if (++stripesInBlock == STRIPES_PER_BLOCK) {
+                for (int lane = 0; lane < acc.length; lane++) {
+                    long value = acc[lane];
+                    value ^= value >>> 47;
+                    value ^= SCRAMBLE_KEYS[lane];
+                    acc[lane] = value * PRIME32_1;
+                }
+                stripesInBlock = 0;
+            }
+        }
+    }
+
+    /**
+     * Adds a stripe to the accumulators, the secret being read from the word of given index on.
+     */
+    private void accumulate(ByteBuffer input, int offset, long[] keys, int key) {
+
+        for (int lane = 0; lane < acc.length; lane++) {
+            long value = input.getLong(offset + lane * Long.BYTES);
+            long keyed = value ^ keys[key + lane];
+            acc[lane ^ 1] += value;
+            acc[lane] += (keyed & 0xFFFFFFFFL) * (keyed >>> 32);
+        }
+    }
+
+    private void copy(ByteBuffer input, int offset, int length) {
+
+        for (int i = 0; i < length; i++) {
+            buffer.put(buffered++, input.get(offset + i));
+        }
+    }
+
+    private static long hashShort(ByteBuffer input, int length) {
+
+        if (length > 128) {
+            return hash129To240(input, length);
+        }
+        if (length > 16) {
+            return hash17To128(input, length);
+        }
+        if (length > 8) {
+            long low = input.getLong(0) ^ (SECRET.getLong(24) ^ SECRET.getLong(32));
+            long high = input.getLong(length - 8) ^ (SECRET.getLong(40) ^ SECRET.getLong(48));
+            return avalanche(length + Long.reverseBytes(low) + high + mul128Fold64(low, high));
+        }
+        if (length >= 4) {
+            long first = input.getInt(0) & 0xFFFFFFFFL;
+            long last = input.getInt(length - 4) & 0xFFFFFFFFL;
+            long keyed = (last + (first << 32)) ^ (SECRET.getLong(8) ^ SECRET.getLong(16));
+            return rrmxmx(keyed, length);
+        }
+        if (length > 0) {
+            int first = input.get(0) & 0xFF;
+            int middle = input.get(length >> 1) & 0xFF;
+            int last = input.get(length - 1) & 0xFF;
+            long combined = ((first << 16) | (middle << 24) | last | (length << 8)) & 0xFFFFFFFFL;
+            long flip = (SECRET.getInt(0) & 0xFFFFFFFFL) ^ (SECRET.getInt(4) & 0xFFFFFFFFL);
+            return XxHash64Digest.avalanche(combined ^ flip);
+        }
+
+        return XxHash64Digest.avalanche(SECRET.getLong(56) ^ SECRET.getLong(64));
+    }
+
+    private static long hash17To128(ByteBuffer input, int length) {
+
+        long hash = length * XxHash64Digest.PRIME64_1;
+
+        if (length > 32) {
+            if (length > 64) {
+                if (length > 96) {
+                    hash += mix16(input, 48, 96);
+                    hash += mix16(input, length - 64, 112);
+                }
+                hash += mix16(input, 32, 64);
+                hash += mix16(input, length - 48, 80);
+            }
+            hash += mix16(input, 16, 32);
+            hash += mix16(input, length - 32, 48);
+        }
+        hash += mix16(input, 0, 0);
+        hash += mix16(input, length - 16, 16);
+
+        return avalanche(hash);
+    }
+
+    private static long hash129To240(ByteBuffer input, int length) {
+
+        long hash = length * XxHash64Digest.PRIME64_1;
+        int rounds = length / 16;
+
+        for (int i = 0; i < 8; i++) {
+            hash += mix16(input, 16 * i, 16 * i);
+        }
+        hash = avalanche(hash);
+
+        for (int i = 8; i < rounds; i++) {
+            hash += mix16(input, 16 * i, 16 * (i - 8) + MID_SIZE_START);
+        }
+        hash += mix16(input, length - 16, SECRET_SIZE_MIN - MID_SIZE_LAST);
+
+        return avalanche(hash);
+    }
+
+    private static long mix16(ByteBuffer input, int offset, int secretOffset) {
+        return mul128Fold64(input.getLong(offset) ^ SECRET.getLong(secretOffset),
+            input.getLong(offset + 8) ^ SECRET.getLong(secretOffset + 8));
+    }
+
+    /**
+     * Multiplies two unsigned 64-bit values and xors the halves of their 128-bit product.
+     */
+    private static long mul128Fold64(long a, long b) {
+
+        long aLow = a & 0xFFFFFFFFL;
+        long aHigh = a >>> 32;
+        long bLow = b & 0xFFFFFFFFL;
+        long bHigh = b >>> 32;
+
+        long lowLow = aLow * bLow;
+        long highLow = aHigh * bLow;
+        long lowHigh = aLow * bHigh;
+        long highHigh = aHigh * bHigh;
+
+        long cross = (lowLow >>> 32) + (highLow & 0xFFFFFFFFL) + lowHigh;
+        long high = (highLow >>> 32) + (cross >>> 32) + highHigh;
+        long low = (cross << 32) | (lowLow & 0xFFFFFFFFL);
+
+        return low ^ high;
+    }
+
+    private static long avalanche(long hash) {
+        hash ^= hash >>> 37;
+        hash *= PRIME_MX1;
+        return hash ^ hash >>> 32;
+    }
+
+    private static long rrmxmx(long hash, int length) {
+        hash ^= Long.rotateLeft(hash, 49) ^ Long.rotateLeft(hash, 24);
+        hash *= PRIME_MX2;
+        hash ^= (hash >>> 35) + length;
+        hash *= PRIME_MX2;
+        return hash ^ hash >>> 28;
+    }
+
+    private static long[] keys(int offset, int count) {
+
+        long[] keys = new long[count];
+
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = SECRET.getLong(offset + i * Long.BYTES);
+        }
+
+        return keys;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset).limit(offset + length);
+
+        return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.jeremierodriguez.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+
+/**
+ * Class with static methods locating the files the application keeps in its folder of the
+ * System's {@code user.home}. Unlike {@code FolderUtil}, it needs neither a desktop nor logging,
+ * so the command line can use it without slowing down its start.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class AppFolder {
+
+    public static final String NAME = "/CSCheck";
+
+    private AppFolder() {
+    }
+
+    /**
+     * Returns the path of a file of the application folder, creating the folder if needed.
+     *
+     * @param fileName name of the file
+     * @return path of the file, which may not exist
+     * @throws IOException if the folder could not be created
+     */
+    public static Path resolve(String fileName) throws IOException {
+
+        Path folder = Paths.get(System.getProperty("user.home") + NAME);
+        Files.createDirectories(folder);
+
+        return folder.resolve(fileName);
+    }
+
+}
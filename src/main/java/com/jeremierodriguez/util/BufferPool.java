@@ -0,0 +1,67 @@
+package com.jeremierodriguez.util;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ * Class with static methods used to share direct {@code ByteBuffer} objects between hashing
+ * tasks. Allocating direct memory is expensive and is only released by the garbage collector, so
+ * buffers are kept and handed back out instead of being reallocated for every file.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class BufferPool {
+
+    private static final int MAX_POOLED_PER_SIZE = 8;
+    private static final Map<Integer, Queue<ByteBuffer>> POOL = new ConcurrentHashMap<>();
+
+    private BufferPool() {
+    }
+
+    /**
+     * Returns a cleared direct buffer of given capacity, either taken from the pool or newly
+     * allocated if none is available.
+     *
+     * @param capacity wanted buffer capacity in bytes
+     * @return direct ByteBuffer ready to be written into
+     */
+    public static ByteBuffer acquire(int capacity) {
+
+        ByteBuffer buffer = queueFor(capacity).poll();
+
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+        buffer.clear();
+
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back to the pool. Buffers exceeding the pool's capacity are left to the
+     * garbage collector.
+     *
+     * @param buffer direct buffer previously returned by {@link #acquire(int)}
+     */
+    public static void release(ByteBuffer buffer) {
+
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+
+        Queue<ByteBuffer> queue = queueFor(buffer.capacity());
+
+        if (queue.size() < MAX_POOLED_PER_SIZE) {
+            queue.offer(buffer);
+        }
+    }
+
+    private static Queue<ByteBuffer> queueFor(int capacity) {
+        return POOL.computeIfAbsent(capacity, c -> new ConcurrentLinkedQueue<>());
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.jeremierodriguez.util;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Thread-safe writer of console lines used when results are printed at a high rate. Unlike
+ * {@code System.out}, it does not flush after every line but at a fixed period, so printing
+ * millions of results does not cost one system call each while they still show up as they come.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class ConsoleWriter implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 65536;
+    private static final long FLUSH_MILLIS = 100;
+
+    private final PrintStream out;
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(
+        new DaemonThreadFactory("Console Flusher"));
+
+    /**
+     * Creates a writer to the standard output.
+     */
+    public ConsoleWriter() {
+        this(FileDescriptor.out);
+    }
+
+    /**
+     * Creates a writer to given file descriptor, such as {@code FileDescriptor.err}.
+     *
+     * @param descriptor descriptor to write to
+     */
+    public ConsoleWriter(FileDescriptor descriptor) {
+        out = new PrintStream(new BufferedOutputStream(new FileOutputStream(descriptor), BUFFER_SIZE), false);
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes given line followed by a line separator.
+     *
+     * @param line text to write
+     */
+    public synchronized void println(String line) {
+        out.println(line);
+    }
+
+    /**
+     * Writes given text without line separator, such as a status line starting with a carriage
+     * return so that it overwrites the previous one.
+     *
+     * @param text text to write
+     */
+    public synchronized void print(String text) {
+        out.print(text);
+    }
+
+    /**
+     * Writes everything that has not been written yet.
+     */
+    public synchronized void flush() {
+        out.flush();
+    }
+
+    /**
+     * Stops periodic flushing and writes everything that has not been written yet, the underlying
+     * descriptor is left open.
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        flush();
+    }
+
+}
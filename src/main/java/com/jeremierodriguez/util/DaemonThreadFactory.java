@@ -0,0 +1,37 @@
+package com.jeremierodriguez.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * {@code ThreadFactory} creating numbered daemon threads, so that worker pools never prevent the
+ * application from exiting.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+    private String name = null;
+
+    /**
+     * Constructor needing the base name given to created threads.
+     *
+     * @param name base name, each thread gets it followed by its number
+     */
+    public DaemonThreadFactory(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+
+        Thread thread = new Thread(runnable);
+        thread.setName(name + " " + count.incrementAndGet());
+        thread.setDaemon(true);
+
+        return thread;
+    }
+
+}
@@ -0,0 +1,173 @@
+package com.jeremierodriguez.util;
+
+import java.util.Base64;
+
+
+/**
+ * Class with static methods formatting raw digests as text and parsing them back, without the
+ * {@code javax.xml.bind} module that later JDKs no longer ship. Hexadecimal digits are written
+ * straight into a single array or into a builder the caller reuses, rather than formatted in
+ * uppercase and converted, and are parsed into an array the caller may reuse as well.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class DigestFormat {
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    // Longest prefix naming an algorithm, such as sha256: or sha512-
+    private static final int MAX_PREFIX_LENGTH = 12;
+
+    private DigestFormat() {
+    }
+
+    /**
+     * Formats a digest as lowercase hexadecimal digits.
+     *
+     * @param digest raw digest
+     * @return hexadecimal digest
+     */
+    public static String toHex(byte[] digest) {
+
+        char[] hex = new char[digest.length * 2];
+
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = DIGITS[(digest[i] >> 4) & 0xF];
+            hex[2 * i + 1] = DIGITS[digest[i] & 0xF];
+        }
+
+        return new String(hex);
+    }
+
+    /**
+     * Appends a digest as lowercase hexadecimal digits to a builder, which may be reused for
+     * every digest.
+     *
+     * @param builder builder to append to
+     * @param digest  raw digest
+     * @return the builder
+     */
+    public static StringBuilder appendHex(StringBuilder builder, byte[] digest) {
+
+        for (byte b : digest) {
+            builder.append(DIGITS[(b >> 4) & 0xF]).append(DIGITS[b & 0xF]);
+        }
+
+        return builder;
+    }
+
+    /**
+     * Parses hexadecimal digits of any case into a digest of their length.
+     *
+     * @param text   text holding the digits
+     * @param digest array receiving as many bytes as it holds, may be reused
+     * @return true if the text held exactly that many bytes of digits
+     */
+    public static boolean parseHex(CharSequence text, byte[] digest) {
+
+        if (text.length() != digest.length * 2) {
+            return false;
+        }
+
+        for (int i = 0; i < digest.length; i++) {
+            int high = Character.digit(text.charAt(2 * i), 16);
+            int low = Character.digit(text.charAt(2 * i + 1), 16);
+
+            if (high < 0 || low < 0) {
+                return false;
+            }
+            digest[i] = (byte) (high << 4 | low);
+        }
+
+        return true;
+    }
+
+    /**
+     * Parses hexadecimal digits of any case into a digest.
+     *
+     * @param text text holding the digits
+     * @return digest, null if the text is not an even number of hexadecimal digits
+     */
+    public static byte[] parseHex(CharSequence text) {
+
+        if (text.length() % 2 != 0) {
+            return null;
+        }
+
+        byte[] digest = new byte[text.length() / 2];
+
+        return parseHex(text, digest) ? digest : null;
+    }
+
+    /**
+     * Parses a digest of known length typed or pasted by a user: hexadecimal digits of any case,
+     * standard or URL-safe Base64 with or without padding, possibly after the name of its
+     * algorithm as in {@code sha256:<hex>} or {@code sha256-<base64>}. Surrounding spaces are
+     * ignored.
+     *
+     * @param text   text holding the digest
+     * @param length length of the digest in bytes
+     * @return digest, null if the text holds no digest of that length
+     */
+    public static byte[] parse(String text, int length) {
+
+        String trimmed = text.trim();
+        byte[] digest = decode(trimmed, length);
+
+        if (digest == null) {
+            int separator = prefixEnd(trimmed);
+            if (separator > 0) {
+                digest = decode(trimmed.substring(separator + 1), length);
+            }
+        }
+
+        return digest;
+    }
+
+    private static byte[] decode(String text, int length) {
+
+        byte[] digest = new byte[length];
+
+        if (parseHex(text, digest)) {
+            return digest;
+        }
+
+        for (Base64.Decoder decoder : new Base64.Decoder[]{Base64.getDecoder(), Base64.getUrlDecoder()}) {
+            try {
+                digest = decoder.decode(text);
+                if (digest.length == length) {
+                    return digest;
+                }
+            } catch (IllegalArgumentException e) {
+                // Not this alphabet
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the index of the colon or dash ending a leading algorithm name, -1 if none. A colon
+     * may follow a name holding dashes, such as {@code sha-256:}.
+     */
+    private static int prefixEnd(String text) {
+
+        int dash = -1;
+
+        for (int i = 0; i < Math.min(text.length(), MAX_PREFIX_LENGTH); i++) {
+            char c = text.charAt(i);
+
+            if (c == ':') {
+                return i;
+            }
+            if (c == '-' && dash < 0) {
+                dash = i;
+            } else if (!Character.isLetterOrDigit(c) && c != '-') {
+                break;
+            }
+        }
+
+        return dash;
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.jeremierodriguez.util;
+
+
+/**
+ * Map of {@code long} keys to {@code int} values stored in two arrays with open addressing, so
+ * that mapping tens of millions of keys, such as file sizes, costs twelve bytes a slot instead of
+ * the boxed keys, boxed values and entries of a {@code HashMap}. Entries cannot be removed. It is
+ * not thread-safe.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class LongIntMap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    // Key 0 marks free slots, so it is kept apart
+    private long[] keys = null;
+    private int[] values = null;
+    private int size = 0;
+    private boolean hasZero = false;
+    private int zeroValue = 0;
+
+    /**
+     * Consumer of the entries of a map.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+
+        void accept(long key, int value);
+    }
+
+    /**
+     * Creates an empty map.
+     */
+    public LongIntMap() {
+        keys = new long[MIN_CAPACITY];
+        values = new int[MIN_CAPACITY];
+    }
+
+    /**
+     * Returns the value of a key.
+     *
+     * @param key     key to look up
+     * @param missing value returned if the key is not mapped
+     * @return value of the key
+     */
+    public int get(long key, int missing) {
+
+        if (key == 0) {
+            return hasZero ? zeroValue : missing;
+        }
+
+        int slot = find(keys, key);
+
+        return keys[slot] == key ? values[slot] : missing;
+    }
+
+    /**
+     * Maps a key to a value, replacing its previous value if any.
+     *
+     * @param key   key to map
+     * @param value its value
+     */
+    public void put(long key, int value) {
+
+        if (key == 0) {
+            mapZero();
+            zeroValue = value;
+        } else {
+            // Slot first, as it may grow the arrays
+            int slot = slotOf(key);
+            values[slot] = value;
+        }
+    }
+
+    /**
+     * Adds one to the value of a key, mapping it to 1 if it was not mapped.
+     *
+     * @param key key whose value to increment
+     * @return new value of the key
+     */
+    public int increment(long key) {
+
+        if (key == 0) {
+            mapZero();
+            return ++zeroValue;
+        }
+
+        int slot = slotOf(key);
+
+        return ++values[slot];
+    }
+
+    /**
+     * Returns the number of mapped keys.
+     *
+     * @return number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Hands every entry to a consumer, in no particular order.
+     *
+     * @param consumer consumer of the entries
+     */
+    public void forEach(EntryConsumer consumer) {
+
+        if (hasZero) {
+            consumer.accept(0, zeroValue);
+        }
+
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0) {
+                consumer.accept(keys[slot], values[slot]);
+            }
+        }
+    }
+
+    private void mapZero() {
+
+        if (!hasZero) {
+            hasZero = true;
+            size++;
+        }
+    }
+
+    /**
+     * Returns the slot of a non-zero key, mapping it to 0 first if it was not mapped.
+     */
+    private int slotOf(long key) {
+
+        int slot = find(keys, key);
+
+        if (keys[slot] != key) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                slot = find(keys, key);
+            }
+            keys[slot] = key;
+            values[slot] = 0;
+            size++;
+        }
+
+        return slot;
+    }
+
+    private void grow() {
+
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[keys.length];
+
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != 0) {
+                int target = find(keys, oldKeys[slot]);
+                keys[target] = oldKeys[slot];
+                values[target] = oldValues[slot];
+            }
+        }
+    }
+
+    /**
+     * Returns the slot holding a key, or the free slot where it would go.
+     */
+    private static int find(long[] keys, long key) {
+
+        int mask = keys.length - 1;
+
+        // Fibonacci hashing spreads sizes, which are often multiples of large powers of two
+        int slot = (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+}
@@ -1,17 +1,26 @@
 package com.jeremierodriguez.views;
 
 import com.jeremierodriguez.services.Algs;
+import com.jeremierodriguez.services.HashJob;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.geometry.HPos;
 import javafx.geometry.Pos;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
+import javafx.scene.control.cell.ProgressBarTableCell;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.text.Text;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
 
 /**
  * This class {@code MainScene} extends JavaFX's {@code Scene} class. It adds all the components
@@ -34,7 +43,11 @@ public class MainScene extends Scene {
     private Button processBtn = null;
     private Button cancelBtn = null;
     private Button folderBtn = null;
-    private ComboBox<Algs> comboBox = null;
+    private MenuButton algoMenu = null;
+    private CheckBox resumeBox = null;
+    private TableView<HashJob> jobTable = null;
+    private Label jobsLabel = null;
+    private Map<Algs, CheckBox> algoBoxes = new EnumMap<>(Algs.class);
 
     /**
      * Constructor with a {@code Parent} given as parameter.
@@ -106,10 +119,32 @@ public class MainScene extends Scene {
         Label algoLabel = new Label("Algo:");
         grid.add(algoLabel, 0, 5);
 
-        comboBox = new ComboBox<>();
-        comboBox.getItems().setAll(Algs.values());
-        comboBox.getSelectionModel().select(Algs.SHA256);
-        grid.add(comboBox, 1, 5);
+        algoMenu = new MenuButton();
+        algoMenu.setPrefWidth(100);
+
+        for (Algs algo : Algs.values()) {
+            CheckBox algoBox = new CheckBox(algo.name());
+            algoBox.selectedProperty().addListener((observable, oldValue, newValue) -> {
+
+                // At least one algorithm must stay selected
+                if (!newValue && getSelectedAlgs().isEmpty()) {
+                    algoBox.setSelected(true);
+                }
+                updateAlgoMenuText();
+            });
+            algoBoxes.put(algo, algoBox);
+
+            CustomMenuItem item = new CustomMenuItem(algoBox);
+            item.setHideOnClick(false);
+            algoMenu.getItems().add(item);
+        }
+        algoBoxes.get(Algs.SHA256).setSelected(true);
+        grid.add(algoMenu, 1, 5);
+
+        resumeBox = new CheckBox("Resume");
+        resumeBox.setTooltip(new Tooltip("Checkpoints MD5, SHA1 and SHA2 hashes of files of 64 MB or more, "
+            + "so that a cancelled hash resumes where it stopped"));
+        grid.add(resumeBox, 1, 6);
 
         progBar = new ProgressBar(0);
         progBar.setPrefWidth(300);
@@ -151,6 +186,12 @@ public class MainScene extends Scene {
         cancelBtn.setMinWidth(100);
         cancelBtn.setDisable(true);
         grid.add(cancelBtn, 3, 8);
+
+        jobTable = buildJobTable();
+        grid.add(jobTable, 0, 9, 4, 1);
+
+        jobsLabel = new Label("Drop files or folders to queue them");
+        grid.add(jobsLabel, 0, 10, 4, 1);
     }
 
     public ProgressBar getProgBar() {
@@ -201,12 +242,115 @@ public class MainScene extends Scene {
         return cancelBtn;
     }
 
-    public ComboBox<Algs> getComboBox() {
-        return comboBox;
+    public MenuButton getAlgoMenu() {
+        return algoMenu;
+    }
+
+    public CheckBox getResumeBox() {
+        return resumeBox;
+    }
+
+    public TableView<HashJob> getJobTable() {
+        return jobTable;
+    }
+
+    public Label getJobsLabel() {
+        return jobsLabel;
+    }
+
+    /**
+     * Returns algorithms currently checked in the algorithm menu.
+     *
+     * @return selected {@code Algs} values, in declaration order
+     */
+    public List<Algs> getSelectedAlgs() {
+
+        List<Algs> selected = new ArrayList<>();
+
+        algoBoxes.forEach((algo, algoBox) -> {
+            if (algoBox.isSelected()) {
+                selected.add(algo);
+            }
+        });
+
+        return selected;
     }
 
     public Button getFolderBtn() {
         return folderBtn;
     }
 
+    /**
+     * Builds the table of queued jobs. Its cells read the jobs' current state whenever the table
+     * is refreshed, and only visible rows have cells, so the table stays fast however many jobs
+     * are queued.
+     */
+    private TableView<HashJob> buildJobTable() {
+
+        TableView<HashJob> table = new TableView<>();
+        table.setPrefHeight(220);
+        table.setPlaceholder(new Label("No queued file"));
+        table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+
+        TableColumn<HashJob, String> fileCol = new TableColumn<>("File");
+        fileCol.setCellValueFactory(cell -> new ReadOnlyStringWrapper(cell.getValue().getFile().toString()));
+        fileCol.setPrefWidth(220);
+
+        TableColumn<HashJob, Double> progCol = new TableColumn<>("Progress");
+        progCol.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getFraction()));
+        progCol.setCellFactory(ProgressBarTableCell.forTableColumn());
+        progCol.setPrefWidth(90);
+
+        TableColumn<HashJob, String> resultCol = new TableColumn<>("Hash");
+        resultCol.setCellValueFactory(cell -> {
+            HashJob job = cell.getValue();
+            String result = job.getResult();
+            return new ReadOnlyStringWrapper(result != null ? result : job.getState().name());
+        });
+        resultCol.setPrefWidth(260);
+
+        TableColumn<HashJob, HashJob> cancelCol = new TableColumn<>();
+        cancelCol.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue()));
+        cancelCol.setCellFactory(column -> new TableCell<HashJob, HashJob>() {
+
+            private final Button button = new Button("Cancel");
+
+            {
+                button.setOnAction(e -> getItem().cancel());
+            }
+
+            @Override
+            protected void updateItem(HashJob job, boolean empty) {
+                super.updateItem(job, empty);
+
+                if (empty || job == null) {
+                    setGraphic(null);
+                } else {
+                    button.setDisable(job.isFinished());
+                    setGraphic(button);
+                }
+            }
+        });
+        cancelCol.setPrefWidth(80);
+        cancelCol.setSortable(false);
+
+        table.getColumns().add(fileCol);
+        table.getColumns().add(progCol);
+        table.getColumns().add(resultCol);
+        table.getColumns().add(cancelCol);
+
+        return table;
+    }
+
+    private void updateAlgoMenuText() {
+
+        List<Algs> selected = getSelectedAlgs();
+
+        if (selected.size() == 1) {
+            algoMenu.setText(selected.get(0).name());
+        } else {
+            algoMenu.setText(selected.size() + " algos");
+        }
+    }
+
 }
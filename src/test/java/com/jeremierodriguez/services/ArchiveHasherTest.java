@@ -0,0 +1,415 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.DigestFormat;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+
+/**
+ * This class tests that {@link ArchiveHasher} gives the digests of the files stored in zip, zip64,
+ * tar and tar.gz archives written for the test.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class ArchiveHasherTest extends TestCase {
+
+    private static final String LONG_NAME = "a/very/long/path/" + repeat("segment/", 20) + "file.txt";
+
+    private Path folder = null;
+    private Map<String, byte[]> files = null;
+
+    @Override
+    protected void setUp() throws IOException {
+
+        folder = Files.createTempDirectory("archive-hasher");
+        files = new LinkedHashMap<>();
+
+        // Partly compressible and larger than a chunk, so that inflating takes several rounds
+        byte[] large = new byte[300000];
+        new Random(42).nextBytes(large);
+        for (int i = 0; i < large.length; i += 4) {
+            large[i] = 'x';
+        }
+
+        files.put("readme.txt", "hello archive\n".getBytes(StandardCharsets.UTF_8));
+        files.put("dir/empty", new byte[0]);
+        files.put("dir/large.bin", large);
+        files.put("names/\u00e9t\u00e9 with spaces.txt", "summer".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    public void testZip() throws Exception {
+
+        Path archive = folder.resolve("test.zip");
+
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive))) {
+            out.putNextEntry(new ZipEntry("dir/"));
+            out.closeEntry();
+
+            boolean stored = false;
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                ZipEntry entry = new ZipEntry(file.getKey());
+
+                // Stores every other entry as is
+                if (stored) {
+                    CRC32 crc = new CRC32();
+                    crc.update(file.getValue());
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(file.getValue().length);
+                    entry.setCrc(crc.getValue());
+                }
+                stored = !stored;
+
+                out.putNextEntry(entry);
+                out.write(file.getValue());
+                out.closeEntry();
+            }
+        }
+
+        assertEquals(expected(files), hash(archive));
+    }
+
+    public void testZip64EndOfCentralDirectory() throws Exception {
+
+        // More entries than the end of central directory can count
+        Path archive = folder.resolve("many.zip");
+        Map<String, byte[]> many = new LinkedHashMap<>();
+
+        for (int i = 0; i < 70000; i++) {
+            many.put("entry" + i, String.valueOf(i).getBytes(StandardCharsets.US_ASCII));
+        }
+
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive))) {
+            for (Map.Entry<String, byte[]> file : many.entrySet()) {
+                out.putNextEntry(new ZipEntry(file.getKey()));
+                out.write(file.getValue());
+                out.closeEntry();
+            }
+        }
+
+        assertEquals(expected(many), hash(archive));
+    }
+
+    public void testZip64ExtraFields() throws Exception {
+
+        Path archive = folder.resolve("zip64.zip");
+        Files.write(archive, zip64(files));
+
+        // Checks the archive itself against the JDK before checking the hasher against it
+        Map<String, byte[]> read = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+                ZipEntry entry = entries.nextElement();
+                try (InputStream in = zip.getInputStream(entry)) {
+                    read.put(entry.getName(), readAll(in));
+                }
+            }
+        }
+        assertEquals(expected(files), expected(read));
+
+        assertEquals(expected(files), hash(archive));
+    }
+
+    public void testTar() throws Exception {
+
+        Path archive = folder.resolve("test.tar");
+        Files.write(archive, tar(files));
+
+        assertEquals(expectedWithLinksSkipped(), hash(archive));
+    }
+
+    public void testTarGz() throws Exception {
+
+        Path archive = folder.resolve("test.tar.gz");
+
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(archive))) {
+            out.write(tar(files));
+        }
+
+        assertEquals(expectedWithLinksSkipped(), hash(archive));
+    }
+
+    public void testCorruptZipFails() throws Exception {
+
+        Path archive = folder.resolve("corrupt.zip");
+
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive))) {
+            out.putNextEntry(new ZipEntry("large.bin"));
+            out.write(files.get("dir/large.bin"));
+            out.closeEntry();
+        }
+
+        // Flips a byte of the compressed data, after the 30 bytes of local header and the name
+        byte[] bytes = Files.readAllBytes(archive);
+        bytes[30 + "large.bin".length() + 1000] ^= 0x55;
+        Files.write(archive, bytes);
+
+        Collector collector = new Collector();
+        assertEquals(1, collector.run(Collections.singletonList(archive.toString())));
+        assertTrue(collector.hashes.isEmpty());
+    }
+
+    private Map<String, String> hash(Path archive) {
+
+        Collector collector = new Collector();
+        assertEquals(0, collector.run(Collections.singletonList(archive.toString())));
+
+        return collector.hashes;
+    }
+
+    private Map<String, String> expectedWithLinksSkipped() throws Exception {
+
+        Map<String, byte[]> stored = new LinkedHashMap<>(files);
+        stored.put(LONG_NAME, files.get("readme.txt"));
+        stored.put("pax/" + LONG_NAME, files.get("dir/large.bin"));
+        stored.put("a/ustar/prefix/of/some/length/file.txt", files.get("names/\u00e9t\u00e9 with spaces.txt"));
+
+        return expected(stored);
+    }
+
+    private static Map<String, String> expected(Map<String, byte[]> files) throws Exception {
+
+        Map<String, String> hashes = new LinkedHashMap<>();
+
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            hashes.put(file.getKey(), DigestFormat.toHex(digest.digest(file.getValue())));
+        }
+
+        return hashes;
+    }
+
+    /**
+     * Writes a zip whose entries all give their sizes and offset in zip64 extra fields, ended by
+     * a zip64 end of central directory, the first entry stored and the others deflated.
+     */
+    private static byte[] zip64(Map<String, byte[]> files) {
+
+        ByteBuffer zip = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer central = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        int count = 0;
+
+        // Self-extracting archives start with something else
+        zip.put(new byte[100]);
+
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            byte[] name = file.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] data = file.getValue();
+            boolean stored = count == 0;
+            byte[] compressed = stored ? data : deflate(data);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            long offset = zip.position();
+
+            zip.putInt(0x04034b50).putShort((short) 45).putShort((short) 0x800).putShort((short) (stored ? 0 : 8))
+                .putInt(0).putInt((int) crc.getValue()).putInt(-1).putInt(-1)
+                .putShort((short) name.length).putShort((short) 20).put(name)
+                .putShort((short) 1).putShort((short) 16).putLong(data.length).putLong(compressed.length)
+                .put(compressed);
+
+            central.putInt(0x02014b50).putShort((short) 45).putShort((short) 45).putShort((short) 0x800)
+                .putShort((short) (stored ? 0 : 8)).putInt(0).putInt((int) crc.getValue()).putInt(-1).putInt(-1)
+                .putShort((short) name.length).putShort((short) 28).putShort((short) 0)
+                .putShort((short) 0).putShort((short) 0).putInt(0).putInt(-1).put(name)
+                .putShort((short) 1).putShort((short) 24).putLong(data.length).putLong(compressed.length)
+                .putLong(offset);
+            count++;
+        }
+
+        long centralOffset = zip.position();
+        central.flip();
+        long centralSize = central.remaining();
+        zip.put(central);
+
+        long zip64Offset = zip.position();
+        zip.putInt(0x06064b50).putLong(44).putShort((short) 45).putShort((short) 45).putInt(0).putInt(0)
+            .putLong(count).putLong(count).putLong(centralSize).putLong(centralOffset);
+        zip.putInt(0x07064b50).putInt(0).putLong(zip64Offset).putInt(1);
+        zip.putInt(0x06054b50).putShort((short) 0).putShort((short) 0).putShort((short) -1).putShort((short) -1)
+            .putInt(-1).putInt(-1).putShort((short) 0);
+
+        byte[] bytes = new byte[zip.position()];
+        zip.flip();
+        zip.get(bytes);
+
+        return bytes;
+    }
+
+    private static byte[] deflate(byte[] data) {
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a tar of given files followed by a directory, a symbolic link, a GNU long name, a PAX
+     * path and size, and a name split in a ustar prefix. Sizes of odd entries are base-256.
+     */
+    private static byte[] tar(Map<String, byte[]> files) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int index = 0;
+
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            tarEntry(out, "", file.getKey(), '0', file.getValue(), file.getValue().length, index++ % 2 == 1);
+        }
+
+        tarEntry(out, "", "dir/", '5', new byte[0], 0, false);
+        tarEntry(out, "", "link", '2', new byte[0], 0, false);
+
+        byte[] longName = (LONG_NAME + "\0").getBytes(StandardCharsets.UTF_8);
+        tarEntry(out, "", "././@LongLink", 'L', longName, longName.length, false);
+        tarEntry(out, "", LONG_NAME.substring(0, 99), '0', files.get("readme.txt"), files.get("readme.txt").length,
+            false);
+
+        // The header gives no size, the PAX record does
+        byte[] large = files.get("dir/large.bin");
+        byte[] pax = (paxRecord("path", "pax/" + LONG_NAME) + paxRecord("size", String.valueOf(large.length)))
+            .getBytes(StandardCharsets.UTF_8);
+        tarEntry(out, "", "PaxHeaders/large", 'x', pax, pax.length, false);
+        tarEntry(out, "", "truncated", '0', large, 0, false);
+
+        byte[] summer = files.get("names/\u00e9t\u00e9 with spaces.txt");
+        tarEntry(out, "a/ustar/prefix/of/some/length", "file.txt", '0', summer, summer.length, true);
+
+        out.write(new byte[1024]);
+
+        return out.toByteArray();
+    }
+
+    private static void tarEntry(OutputStream out, String prefix, String name, char type, byte[] data,
+                                 long headerSize, boolean base256) throws IOException {
+
+        byte[] header = new byte[512];
+        put(header, 0, name);
+        put(header, 100, "0000644");
+        put(header, 108, "0000000");
+        put(header, 116, "0000000");
+        put(header, 136, "00000000000");
+        header[156] = (byte) type;
+        put(header, 257, "ustar");
+        put(header, 263, "00");
+        put(header, 345, prefix);
+
+        if (base256) {
+            header[124] = (byte) 0x80;
+            for (int i = 0; i < 8; i++) {
+                header[135 - i] = (byte) (headerSize >>> (8 * i));
+            }
+        } else {
+            put(header, 124, String.format("%011o", headerSize));
+        }
+
+        long sum = 0;
+        for (int i = 0; i < header.length; i++) {
+            sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+        }
+        put(header, 148, String.format("%06o", sum));
+        header[155] = ' ';
+
+        out.write(header);
+        out.write(data);
+        out.write(new byte[(512 - data.length % 512) % 512]);
+    }
+
+    private static void put(byte[] header, int offset, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+
+    /**
+     * Returns a PAX record, whose leading length counts its own digits.
+     */
+    private static String paxRecord(String key, String value) {
+
+        String record = " " + key + "=" + value + "\n";
+        int length = record.length();
+
+        while (String.valueOf(length).length() + record.length() != length) {
+            length = String.valueOf(length).length() + record.length();
+        }
+
+        return length + record;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+
+        return out.toByteArray();
+    }
+
+    private static String repeat(String text, int count) {
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(text);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Keeps the hashes of every entry instead of printing them.
+     */
+    private static final class Collector extends ArchiveHasher {
+
+        private final Map<String, String> hashes = new LinkedHashMap<>();
+
+        Collector() {
+            super(Collections.singletonList(Algs.SHA256));
+        }
+
+        @Override
+        void print(String name, Map<Algs, byte[]> entryHashes) {
+            hashes.put(name, DigestFormat.toHex(entryHashes.get(Algs.SHA256)));
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.DigestFormat;
+import junit.framework.TestCase;
+
+
+/**
+ * This class tests {@link Blake3Digest} against the official BLAKE3 test vectors.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class Blake3DigestTest extends TestCase {
+
+    private static final int[] LENGTHS = {0, 1, 1024, 1025, 2048, 3072, 102400};
+
+    private static final String[] HASHES = {
+        "af1349b9f5f9a1a6a0404dea36dcc9499bcb25c9adc112b7cc9a93cae41f3262",
+        "2d3adedff11b61f14c886e35afa036736dcd87a74d27b5c1510225d0f592e213",
+        "42214739f095a406f3fc83deb889744ac00df831c10daa55189b5d121c855af7",
+        "d00278ae47eb27b34faecf67b4fe263f82d5412916c1ffd97c8cb7fb814b8444",
+        "e776b6028c7cd22a4d0ba182a8bf62205d2ef576467e838ed6f2529b85fba24a",
+        "b98cb0ff3623be03326b373de6b9095218513e64f1ee2edd2525c7ad1e5cffd2",
+        "bc3e3d41a1146b069abffad3c0d44860cf664390afce4d9661f7902e7943e085"
+    };
+
+    public void testKnownAnswers() {
+
+        Blake3Digest digest = new Blake3Digest();
+
+        for (int i = 0; i < LENGTHS.length; i++) {
+            byte[] input = DigestChecks.input(LENGTHS[i]);
+            assertEquals("length " + LENGTHS[i], HASHES[i], DigestFormat.toHex(digest.digest(input)));
+        }
+    }
+
+    public void testUpdatesAgree() {
+        DigestChecks.assertUpdatesAgree(new Blake3Digest());
+    }
+
+}
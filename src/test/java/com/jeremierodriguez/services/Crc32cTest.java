@@ -0,0 +1,65 @@
+package com.jeremierodriguez.services;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Checksum;
+
+
+/**
+ * This class tests {@link Crc32c}, the CRC32C used when the JDK has none, against the check value
+ * of the algorithm and against the JDK implementation when there is one.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class Crc32cTest extends TestCase {
+
+    public void testCheckValue() {
+
+        Crc32c crc = new Crc32c();
+        crc.update("123456789".getBytes(StandardCharsets.US_ASCII), 0, 9);
+
+        assertEquals(0xE3069283L, crc.getValue());
+
+        crc.reset();
+        assertEquals(0L, crc.getValue());
+    }
+
+    public void testDigest() throws Exception {
+        assertEquals("e3069283", DigestChecks.hex(Algs.CRC32C.newDigest(), "123456789"));
+    }
+
+    public void testUpdatesAgree() throws Exception {
+        DigestChecks.assertUpdatesAgree(Algs.CRC32C.newDigest());
+    }
+
+    public void testMatchesJdk() throws Exception {
+
+        Class<?> type;
+
+        try {
+            type = Class.forName("java.util.zip.CRC32C");
+        } catch (ClassNotFoundException e) {
+            // Java 8 has no CRC32C to compare with
+            return;
+        }
+
+        for (int length : new int[]{0, 1, 7, 8, 9, 63, 64, 65, 1000, 4099}) {
+            byte[] input = DigestChecks.input(length);
+            Checksum expected = (Checksum) type.getDeclaredConstructor().newInstance();
+            Checksum actual = new Crc32c();
+
+            expected.update(input, 0, length);
+
+            // Splits the input so that words are read from unaligned offsets
+            int split = Math.min(length, 3);
+            for (int i = 0; i < split; i++) {
+                actual.update(input[i]);
+            }
+            actual.update(input, split, length - split);
+
+            assertEquals("length " + length, expected.getValue(), actual.getValue());
+        }
+    }
+
+}
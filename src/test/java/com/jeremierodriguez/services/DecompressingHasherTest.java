@@ -0,0 +1,207 @@
+package com.jeremierodriguez.services;
+
+import com.github.luben.zstd.Zstd;
+import com.jeremierodriguez.services.DecompressingHasher.Format;
+import com.jeremierodriguez.services.DecompressingHasher.Segment;
+import com.jeremierodriguez.util.DaemonThreadFactory;
+import com.jeremierodriguez.util.DigestFormat;
+import junit.framework.TestCase;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * This class tests that {@link DecompressingHasher} gives the same digest whether a file is cut
+ * into segments decompressed in parallel or decompressed as a stream.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class DecompressingHasherTest extends TestCase {
+
+    // Enough members for several segments
+    private static final int CONTENT_SIZE = 10000000;
+    private static final int BGZF_BLOCK_SIZE = 65280;
+
+    private Path folder = null;
+    private byte[] content = null;
+    private ExecutorService workers = null;
+
+    @Override
+    protected void setUp() throws IOException {
+
+        folder = Files.createTempDirectory("decompressing-hasher");
+        workers = Executors.newFixedThreadPool(4, new DaemonThreadFactory("Test Worker"));
+
+        // Random bytes, with runs of zeros that compress into RLE blocks
+        content = new byte[CONTENT_SIZE];
+        new Random(42).nextBytes(content);
+        for (int i = 0; i < content.length; i += 3) {
+            content[i] = 0;
+        }
+        for (int i = 2000000; i < 3500000; i++) {
+            content[i] = 0;
+        }
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+
+        workers.shutdownNow();
+
+        try (Stream<Path> files = Files.list(folder)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(folder);
+    }
+
+    public void testBgzf() throws Exception {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        for (int offset = 0; offset < content.length; offset += BGZF_BLOCK_SIZE) {
+            bgzfMember(out, content, offset, Math.min(BGZF_BLOCK_SIZE, content.length - offset));
+        }
+        // Empty member marking the end of the file
+        bgzfMember(out, content, 0, 0);
+
+        Path file = folder.resolve("content.gz");
+        Files.write(file, out.toByteArray());
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            assertSameDigests(file, Format.GZIP, DecompressingHasher.planGzip(channel));
+        }
+    }
+
+    public void testPlainGzipIsStreamed() throws Exception {
+
+        Path file = folder.resolve("plain.gz");
+
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write(content, 0, 100000);
+        }
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            assertNull(DecompressingHasher.planGzip(channel));
+        }
+    }
+
+    public void testMultiFrameZstd() throws Exception {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int frameSize = 1000000;
+
+        for (int offset = 0; offset < content.length; offset += frameSize) {
+            int length = Math.min(frameSize, content.length - offset);
+            byte[] frame = new byte[length];
+            System.arraycopy(content, offset, frame, 0, length);
+            out.write(Zstd.compress(frame, 3));
+
+            // A skippable frame in between, as the seek table of the seekable format
+            if (offset == 0) {
+                out.write(ByteBuffer.allocate(8 + 16).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(0x184D2A5E).putInt(16).array());
+            }
+        }
+
+        Path file = folder.resolve("content.zst");
+        Files.write(file, out.toByteArray());
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            assertSameDigests(file, Format.ZSTD, DecompressingHasher.planZstd(channel));
+        }
+    }
+
+    public void testMultiBlockXz() throws Exception {
+
+        Path file = folder.resolve("content.xz");
+        int blockSize = 1000000;
+
+        try (XZOutputStream out = new XZOutputStream(Files.newOutputStream(file), new LZMA2Options(1))) {
+            for (int offset = 0; offset < content.length; offset += blockSize) {
+                out.write(content, offset, Math.min(blockSize, content.length - offset));
+                out.endBlock();
+            }
+        }
+
+        assertSameDigests(file, Format.XZ, DecompressingHasher.planXz(file));
+    }
+
+    /**
+     * Checks that segments cover the whole content and hash like the stream and the content.
+     */
+    private void assertSameDigests(Path file, Format format, List<Segment> segments) throws Exception {
+
+        assertNotNull(segments);
+        assertTrue(segments.size() > 1);
+
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        assertEquals(content.length, size);
+
+        MultiDigester parallel = new MultiDigester(Collections.singletonList(Algs.SHA256));
+        try (FileChannel channel = FileChannel.open(file)) {
+            assertEquals(content.length,
+                DecompressingHasher.hashSegments(file, channel, format, segments, parallel, workers));
+        }
+
+        MultiDigester stream = new MultiDigester(Collections.singletonList(Algs.SHA256));
+        assertEquals(content.length, DecompressingHasher.hashStream(file, format, stream));
+
+        String expected = DigestFormat.toHex(MessageDigest.getInstance("SHA-256").digest(content));
+        assertEquals(expected, DigestFormat.toHex(parallel.digest().get(Algs.SHA256)));
+        assertEquals(expected, DigestFormat.toHex(stream.digest().get(Algs.SHA256)));
+    }
+
+    /**
+     * Writes a BGZF member, a gzip member whose extra field gives its compressed length.
+     */
+    private static void bgzfMember(ByteArrayOutputStream out, byte[] data, int offset, int length) {
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+
+        byte[] compressed = new byte[65536];
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+        deflater.end();
+
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+
+        ByteBuffer member = ByteBuffer.allocate(18 + compressedLength + 8).order(ByteOrder.LITTLE_ENDIAN);
+        member.putShort((short) 0x8b1f).put((byte) 8).put((byte) 4).putInt(0).put((byte) 0).put((byte) 0xFF)
+            .putShort((short) 6).put((byte) 'B').put((byte) 'C').putShort((short) 2)
+            .putShort((short) (member.capacity() - 1))
+            .put(compressed, 0, compressedLength)
+            .putInt((int) crc.getValue()).putInt(length);
+
+        out.write(member.array(), 0, member.capacity());
+    }
+
+}
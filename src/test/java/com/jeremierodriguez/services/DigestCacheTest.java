@@ -0,0 +1,216 @@
+package com.jeremierodriguez.services;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+
+/**
+ * This class tests that {@link DigestCache} returns stored digests only while files are unchanged,
+ * and keeps them across growth, compaction and reopening.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class DigestCacheTest extends TestCase {
+
+    // Old enough for entries not to be dropped as racy
+    private static final FileTime MODIFIED = FileTime.from(System.currentTimeMillis() - 60000, TimeUnit.MILLISECONDS);
+
+    private static final byte[] DIGEST = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+
+    private Path folder = null;
+    private Path cacheFile = null;
+    private Path file = null;
+
+    @Override
+    protected void setUp() throws IOException {
+
+        folder = Files.createTempDirectory("digest-cache");
+        cacheFile = folder.resolve(DigestCache.FILE_NAME);
+        file = folder.resolve("file.txt");
+
+        Files.write(file, "content".getBytes());
+        Files.setLastModifiedTime(file, MODIFIED);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    public void testPutThenGet() throws IOException {
+
+        try (DigestCache cache = DigestCache.open(cacheFile)) {
+            BasicFileAttributes attrs = attributes();
+
+            assertNull(cache.get(file, attrs, Algs.SHA256));
+
+            cache.put(file, attrs, Algs.SHA256, DIGEST);
+            cache.put(file, attrs, Algs.MD5, Arrays.copyOf(DIGEST, 4));
+
+            assertTrue(Arrays.equals(DIGEST, cache.get(file, attrs, Algs.SHA256)));
+            assertTrue(Arrays.equals(Arrays.copyOf(DIGEST, 4), cache.get(file, attrs, Algs.MD5)));
+            assertNull(cache.get(file, attrs, Algs.SHA1));
+            assertNull(cache.get(folder.resolve("other.txt"), attrs, Algs.SHA256));
+
+            cache.putTree(folder, "DIR-SHA256", 42, DIGEST);
+
+            assertTrue(Arrays.equals(DIGEST, cache.getTree(folder, "DIR-SHA256", 42)));
+            assertNull(cache.getTree(folder, "DIR-SHA256", 43));
+        }
+    }
+
+    public void testSizeChangeInvalidates() throws IOException {
+
+        try (DigestCache cache = DigestCache.open(cacheFile)) {
+            cache.put(file, attributes(), Algs.SHA256, DIGEST);
+
+            Files.write(file, "more".getBytes(), StandardOpenOption.APPEND);
+            Files.setLastModifiedTime(file, MODIFIED);
+
+            assertNull(cache.get(file, attributes(), Algs.SHA256));
+        }
+    }
+
+    public void testModifiedTimeChangeInvalidates() throws IOException {
+
+        try (DigestCache cache = DigestCache.open(cacheFile)) {
+            cache.put(file, attributes(), Algs.SHA256, DIGEST);
+
+            Files.setLastModifiedTime(file, FileTime.fromMillis(MODIFIED.toMillis() - 1000));
+
+            assertNull(cache.get(file, attributes(), Algs.SHA256));
+        }
+    }
+
+    public void testFileKeyChangeInvalidates() throws IOException {
+
+        try (DigestCache cache = DigestCache.open(cacheFile)) {
+            BasicFileAttributes attrs = attributes();
+            cache.put(file, attrs, Algs.SHA256, DIGEST);
+
+            // Same size and modification time, but another inode
+            Path replacement = folder.resolve("replacement.txt");
+            Files.write(replacement, "CONTENT".getBytes());
+            Files.setLastModifiedTime(replacement, MODIFIED);
+            Files.move(replacement, file, StandardCopyOption.REPLACE_EXISTING);
+
+            BasicFileAttributes replaced = attributes();
+
+            if (attrs.fileKey() == null || attrs.fileKey().equals(replaced.fileKey())) {
+                // The file system has no file keys, or reused the inode
+                return;
+            }
+
+            assertNull(cache.get(file, replaced, Algs.SHA256));
+        }
+    }
+
+    public void testRecentlyModifiedFileNotReturned() throws IOException {
+
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+
+        try (DigestCache cache = DigestCache.open(cacheFile)) {
+            BasicFileAttributes attrs = attributes();
+            cache.put(file, attrs, Algs.SHA256, DIGEST);
+
+            assertNull(cache.get(file, attrs, Algs.SHA256));
+        }
+    }
+
+    public void testGrowthCompactionAndReopen() throws IOException {
+
+        // More entries than half of the initial table, so that it grows
+        int count = 10000;
+        BasicFileAttributes attrs = attributes();
+
+        try (DigestCache cache = DigestCache.open(cacheFile)) {
+            for (int i = 0; i < count; i++) {
+                cache.put(folder.resolve("file" + i), attrs, Algs.SHA256, digest(i));
+            }
+
+            cache.compact();
+            assertEntries(cache, attrs, count);
+        }
+
+        try (DigestCache cache = DigestCache.open(cacheFile)) {
+            assertEntries(cache, attrs, count);
+
+            cache.compact();
+        }
+
+        try (DigestCache cache = DigestCache.open(cacheFile)) {
+            assertEntries(cache, attrs, count);
+        }
+
+        // Only the current table is left
+        try (Stream<Path> tables = Files.list(folder)) {
+            assertEquals(1, tables.filter(path -> path.getFileName().toString().matches("digests\\.cache\\.\\d+"))
+                .count());
+        }
+    }
+
+    public void testFollowsTableGrownByAnotherProcess() throws Exception {
+
+        int count = 10000;
+        BasicFileAttributes attrs = attributes();
+
+        try (DigestCache cache = DigestCache.open(cacheFile)) {
+            cache.put(file, attrs, Algs.SHA256, DIGEST);
+            assertNull(cache.get(folder.resolve("file0"), attrs, Algs.SHA256));
+
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            Process writer = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                DigestCacheWriter.class.getName(), cacheFile.toString(), file.toString(), String.valueOf(count))
+                .inheritIO().start();
+            assertEquals(0, writer.waitFor());
+
+            // Written to the table the other process grew, which this one switches to
+            assertEntries(cache, attrs, count);
+            assertTrue(Arrays.equals(DIGEST, cache.get(file, attrs, Algs.SHA256)));
+
+            cache.put(file, attrs, Algs.MD5, DIGEST);
+        }
+
+        try (DigestCache cache = DigestCache.open(cacheFile)) {
+            assertEntries(cache, attrs, count);
+            assertTrue(Arrays.equals(DIGEST, cache.get(file, attrs, Algs.MD5)));
+        }
+    }
+
+    private void assertEntries(DigestCache cache, BasicFileAttributes attrs, int count) {
+
+        for (int i = 0; i < count; i++) {
+            byte[] cached = cache.get(folder.resolve("file" + i), attrs, Algs.SHA256);
+            assertTrue("entry " + i, Arrays.equals(digest(i), cached));
+        }
+    }
+
+    private BasicFileAttributes attributes() throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+
+    static byte[] digest(int i) {
+
+        byte[] digest = DIGEST.clone();
+        digest[0] = (byte) i;
+        digest[1] = (byte) (i >>> 8);
+
+        return digest;
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.jeremierodriguez.services;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+
+/**
+ * This class stores entries in a digest cache from a process of its own, so that
+ * {@link DigestCacheTest} can check that another process having the cache open sees them.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class DigestCacheWriter {
+
+    /**
+     * Stores the entries {@link DigestCacheTest} expects.
+     *
+     * @param args cache file, file whose attributes entries are stored with, number of entries
+     * @throws Exception if the cache could not be written
+     */
+    public static void main(String[] args) throws Exception {
+
+        Path file = Paths.get(args[1]);
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+
+        try (DigestCache cache = DigestCache.open(Paths.get(args[0]))) {
+            for (int i = 0; i < Integer.parseInt(args[2]); i++) {
+                cache.put(file.resolveSibling("file" + i), attrs, Algs.SHA256, DigestCacheTest.digest(i));
+            }
+        }
+    }
+
+}
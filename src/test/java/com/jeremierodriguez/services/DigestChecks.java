@@ -0,0 +1,86 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.DigestFormat;
+import junit.framework.Assert;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+
+/**
+ * This class gathers checks shared by the tests of the digests implemented by this application.
+ *
+ * @author Jeremie Rodriguez
+ */
+final class DigestChecks {
+
+    // Lengths around every block, stripe and chunk boundary of the implemented digests
+    private static final int[] LENGTHS = {0, 1, 3, 4, 7, 8, 15, 16, 17, 31, 32, 33, 63, 64, 65, 127, 128, 129,
+        239, 240, 241, 255, 256, 1023, 1024, 1025, 2048, 3072, 4096, 65537, 102400};
+
+    private DigestChecks() {
+    }
+
+    static String hex(MessageDigest digest, String text) {
+        return DigestFormat.toHex(digest.digest(text.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * Returns the input used by the official BLAKE3 test vectors, which is also used here for
+     * every other digest.
+     */
+    static byte[] input(int length) {
+
+        byte[] input = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+            input[i] = (byte) (i % 251);
+        }
+
+        return input;
+    }
+
+    /**
+     * Checks that a digest gives the same result whether its input is given at once, in pieces
+     * of various sizes, byte by byte, or from heap and direct buffers.
+     */
+    static void assertUpdatesAgree(MessageDigest digest) {
+
+        for (int length : LENGTHS) {
+            byte[] input = input(length);
+            String expected = DigestFormat.toHex(digest.digest(input));
+            String message = digest.getAlgorithm() + " of " + length + " bytes";
+
+            for (int piece : new int[]{1, 5, 16, 31, 64, 250, 1000}) {
+                for (int offset = 0; offset < length; offset += piece) {
+                    digest.update(input, offset, Math.min(piece, length - offset));
+                }
+                Assert.assertEquals(message + " in pieces of " + piece, expected, DigestFormat.toHex(digest.digest()));
+            }
+
+            for (byte b : input) {
+                digest.update(b);
+            }
+            Assert.assertEquals(message + " byte by byte", expected, DigestFormat.toHex(digest.digest()));
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(length + 3);
+            direct.put(new byte[3]).put(input).flip();
+            direct.position(3);
+            digest.update(direct);
+            Assert.assertEquals(message + " from a direct buffer", expected, DigestFormat.toHex(digest.digest()));
+            Assert.assertFalse(direct.hasRemaining());
+
+            // Feeds the buffer in two slices, the second one starting at an odd position
+            direct.position(3).limit(3 + length / 2);
+            digest.update(direct);
+            direct.limit(3 + length);
+            digest.update(direct);
+            Assert.assertEquals(message + " from a split direct buffer", expected, DigestFormat.toHex(digest.digest()));
+
+            digest.update(ByteBuffer.wrap(input));
+            Assert.assertEquals(message + " from a heap buffer", expected, DigestFormat.toHex(digest.digest()));
+        }
+    }
+
+}
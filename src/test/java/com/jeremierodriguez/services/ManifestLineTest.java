@@ -0,0 +1,94 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.DigestFormat;
+import junit.framework.TestCase;
+
+
+/**
+ * This class tests that {@link ManifestLine} parses back the lines it formats, and reads lines
+ * written by {@code sha256sum} and alike.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class ManifestLineTest extends TestCase {
+
+    private static final String HEX = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    private static final String[] PATHS = {
+        "file.txt",
+        "dir/with spaces/file name.txt",
+        " leading and trailing ",
+        "back\\slash\\",
+        "new\nline",
+        "\\n literally\\n",
+        "mixed\\ \n\\\n",
+        "a (b) = cafe",
+        "name) = ",
+        "*starred"
+    };
+
+    public void testUntaggedRoundTrip() {
+
+        for (String path : PATHS) {
+            ManifestLine line = ManifestLine.parse(ManifestLine.format("SHA256", path, HEX, false));
+
+            assertNull(path, line.getLabel());
+            assertEquals(path, line.getPath());
+            assertEquals(path, HEX, DigestFormat.toHex(line.getDigest()));
+        }
+    }
+
+    public void testTaggedRoundTrip() {
+
+        for (String path : PATHS) {
+            ManifestLine line = ManifestLine.parse(ManifestLine.format("SHA256", path, HEX, true));
+
+            assertEquals(path, "SHA256", line.getLabel());
+            assertEquals(path, line.getPath());
+            assertEquals(path, HEX, DigestFormat.toHex(line.getDigest()));
+        }
+    }
+
+    public void testFormat() {
+
+        assertEquals(HEX + "  a b", ManifestLine.format("SHA256", "a b", HEX, false));
+        assertEquals("SHA256 (a b) = " + HEX, ManifestLine.format("SHA256", "a b", HEX, true));
+        assertEquals("\\" + HEX + "  a\\\\b\\nc", ManifestLine.format("SHA256", "a\\b\nc", HEX, false));
+        assertEquals("\\SHA256 (a\\\\b\\nc) = " + HEX, ManifestLine.format("SHA256", "a\\b\nc", HEX, true));
+    }
+
+    public void testCoreutilsLines() {
+
+        ManifestLine binary = ManifestLine.parse(HEX + " *image.iso");
+        assertEquals("image.iso", binary.getPath());
+        assertNull(binary.getLabel());
+
+        ManifestLine bsd = ManifestLine.parse("MD5 (file.txt) = D41D8CD98F00B204E9800998ECF8427E");
+        assertEquals("MD5", bsd.getLabel());
+        assertEquals("file.txt", bsd.getPath());
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", DigestFormat.toHex(bsd.getDigest()));
+
+        ManifestLine merkle = ManifestLine.parse("MERKLE-SHA256-1048576 (f) = " + HEX);
+        assertEquals("MERKLE-SHA256-1048576", merkle.getLabel());
+    }
+
+    public void testCommentsAndBlankLines() {
+
+        assertNull(ManifestLine.parse(""));
+        assertNull(ManifestLine.parse("   "));
+        assertNull(ManifestLine.parse("# archive.zip"));
+    }
+
+    public void testImproperLines() {
+
+        for (String text : new String[]{"not a checksum", HEX, HEX + " ", HEX + "x  file", "SHA256 (file) = xyz"}) {
+            try {
+                ManifestLine.parse(text);
+                fail(text);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.jeremierodriguez.services;
+
+import junit.framework.TestCase;
+
+
+/**
+ * This class tests {@link Murmur3Digest} against reference MurmurHash3 x64 128-bit values.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class Murmur3DigestTest extends TestCase {
+
+    public void testKnownAnswers() {
+        assertEquals("029bbd41b3a7d8cb191dae486a901e5b", DigestChecks.hex(new Murmur3Digest(), "hello"));
+    }
+
+    public void testUpdatesAgree() {
+        DigestChecks.assertUpdatesAgree(new Murmur3Digest());
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.jeremierodriguez.services;
+
+import com.jeremierodriguez.util.DigestFormat;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+
+/**
+ * This class tests that the parallel tree hashes of {@link TreeHasher} match the same hashes
+ * computed sequentially.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class TreeHasherTest extends TestCase {
+
+    private static final int LEAF_SIZE = 4096;
+
+    private Path file = null;
+
+    @Override
+    protected void setUp() throws IOException {
+        file = Files.createTempFile("tree-hasher", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    public void testBlake3MatchesSequentialDigest() throws Exception {
+
+        // Spans several tasks, the last one holding a partial chunk
+        for (int length : new int[]{0, 1, 1025, 1048576, 3 * 1048576 + 12345}) {
+            byte[] content = write(length);
+            String expected = DigestFormat.toHex(new Blake3Digest().digest(content));
+
+            assertEquals("length " + length, expected, DigestFormat.toHex(hash(Algs.BLAKE3, length)));
+        }
+    }
+
+    public void testMerkleMatchesSequentialTree() throws Exception {
+
+        int[] lengths = {0, 1, LEAF_SIZE, LEAF_SIZE + 1, 2 * LEAF_SIZE, 7 * LEAF_SIZE - 5, 300 * LEAF_SIZE + 100};
+
+        for (int length : lengths) {
+            byte[] content = write(length);
+            int leaves = Math.max(1, (length + LEAF_SIZE - 1) / LEAF_SIZE);
+            String expected = DigestFormat.toHex(merkle(content, 0, leaves));
+
+            assertEquals("length " + length, expected, DigestFormat.toHex(hash(Algs.SHA256, length)));
+        }
+    }
+
+    private byte[] write(int length) throws IOException {
+
+        byte[] content = DigestChecks.input(length);
+        Files.write(file, content);
+
+        return content;
+    }
+
+    private byte[] hash(Algs algo, long length) throws Exception {
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return TreeHasher.hash(channel, length, algo, LEAF_SIZE);
+        }
+    }
+
+    /**
+     * Computes the Merkle tree hash of leaves {@code from} to {@code to} excluded as described by
+     * {@link TreeHasher}, one node after the other.
+     */
+    private static byte[] merkle(byte[] content, int from, int to) throws Exception {
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+        if (to - from == 1) {
+            int start = from * LEAF_SIZE;
+            digest.update((byte) 0x00);
+            digest.update(Arrays.copyOfRange(content, start, Math.min(content.length, start + LEAF_SIZE)));
+            return digest.digest();
+        }
+
+        int split = from + Integer.highestOneBit(to - from - 1);
+        digest.update((byte) 0x01);
+        digest.update(merkle(content, from, split));
+        digest.update(merkle(content, split, to));
+
+        return digest.digest();
+    }
+
+}
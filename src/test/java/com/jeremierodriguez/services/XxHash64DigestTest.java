@@ -0,0 +1,25 @@
+package com.jeremierodriguez.services;
+
+import junit.framework.TestCase;
+
+
+/**
+ * This class tests {@link XxHash64Digest} against reference XXH64 values.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class XxHash64DigestTest extends TestCase {
+
+    public void testKnownAnswers() {
+
+        XxHash64Digest digest = new XxHash64Digest();
+
+        assertEquals("ef46db3751d8e999", DigestChecks.hex(digest, ""));
+        assertEquals("44bc2cf5ad770999", DigestChecks.hex(digest, "abc"));
+    }
+
+    public void testUpdatesAgree() {
+        DigestChecks.assertUpdatesAgree(new XxHash64Digest());
+    }
+
+}
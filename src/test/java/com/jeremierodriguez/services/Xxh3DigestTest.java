@@ -0,0 +1,25 @@
+package com.jeremierodriguez.services;
+
+import junit.framework.TestCase;
+
+
+/**
+ * This class tests {@link Xxh3Digest} against reference XXH3 64-bit values.
+ *
+ * @author Jeremie Rodriguez
+ */
+public class Xxh3DigestTest extends TestCase {
+
+    public void testKnownAnswers() {
+
+        Xxh3Digest digest = new Xxh3Digest();
+
+        assertEquals("2d06800538d394c2", DigestChecks.hex(digest, ""));
+        assertEquals("78af5f94892f3950", DigestChecks.hex(digest, "abc"));
+    }
+
+    public void testUpdatesAgree() {
+        DigestChecks.assertUpdatesAgree(new Xxh3Digest());
+    }
+
+}